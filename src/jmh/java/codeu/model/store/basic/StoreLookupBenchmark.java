@@ -0,0 +1,120 @@
+package codeu.model.store.basic;
+
+import codeu.model.data.Conversation;
+import codeu.model.data.Message;
+import codeu.model.data.User;
+import codeu.model.store.persistence.PersistentStorageAgent;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the lookups made on every request against stores holding 1k to 1M Users,
+ * Conversations and Messages. Each lookup uses the next of a fixed set of random keys, so that
+ * results reflect a spread of entries rather than one hot one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g"})
+public class StoreLookupBenchmark {
+
+  /** Messages in each Conversation of the MessageStore. */
+  private static final int MESSAGES_PER_CONVERSATION = 100;
+
+  /** Number of keys cycled through; a power of two so the next one is picked with a mask. */
+  private static final int KEYS = 1024;
+
+  /** Number of Users and Conversations, and of Messages across all Conversations. */
+  @Param({"1000", "100000", "1000000"})
+  public int entities;
+
+  private UserStore userStore;
+  private ConversationStore conversationStore;
+  private MessageStore messageStore;
+
+  private final UUID[] userIds = new UUID[KEYS];
+  private final String[] conversationTitles = new String[KEYS];
+  private final UUID[] conversationIds = new UUID[KEYS];
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    PersistentStorageAgent persistentStorageAgent = Mockito.mock(PersistentStorageAgent.class);
+    ActivityFeedStore activityFeedStore = Mockito.mock(ActivityFeedStore.class);
+    userStore = UserStore.getTestInstance(persistentStorageAgent, activityFeedStore);
+    conversationStore =
+        ConversationStore.getTestInstance(persistentStorageAgent, activityFeedStore, userStore);
+    messageStore =
+        MessageStore.getTestInstance(
+            persistentStorageAgent, activityFeedStore, conversationStore, userStore);
+
+    Instant now = Instant.now();
+    List<User> users = new ArrayList<>(entities);
+    List<Conversation> conversations = new ArrayList<>(entities);
+    for (int i = 0; i < entities; i++) {
+      UUID id = UUID.randomUUID();
+      users.add(new User(id, "user" + i, "password_hash", now, "bio", "en"));
+      conversations.add(new Conversation(UUID.randomUUID(), id, "conversation" + i, now));
+    }
+    userStore.setUsers(users);
+    conversationStore.setConversations(conversations);
+
+    // the same number of Messages, spread over as many Conversations as that fills
+    List<Message> messages = new ArrayList<>(entities);
+    for (int i = 0; i < entities; i++) {
+      Conversation conversation = conversations.get(i / MESSAGES_PER_CONVERSATION);
+      messages.add(
+          new Message(
+              UUID.randomUUID(),
+              conversation.getId(),
+              users.get(i).getId(),
+              "message " + i,
+              now.plusMillis(i),
+              "en"));
+    }
+    messageStore.setMessages(messages);
+
+    Random random = new Random(42);
+    int conversationsWithMessages = (entities + MESSAGES_PER_CONVERSATION - 1)
+        / MESSAGES_PER_CONVERSATION;
+    for (int i = 0; i < KEYS; i++) {
+      userIds[i] = users.get(random.nextInt(entities)).getId();
+      conversationTitles[i] = conversations.get(random.nextInt(entities)).getTitle();
+      conversationIds[i] = conversations.get(random.nextInt(conversationsWithMessages)).getId();
+    }
+  }
+
+  @Benchmark
+  public User getUser() {
+    return userStore.getUser(userIds[next++ & (KEYS - 1)]);
+  }
+
+  @Benchmark
+  public Conversation getConversationWithTitle() {
+    return conversationStore.getConversationWithTitle(conversationTitles[next++ & (KEYS - 1)]);
+  }
+
+  @Benchmark
+  public List<Message> getMessagesInConversation() {
+    return messageStore.getMessagesInConversation(conversationIds[next++ & (KEYS - 1)]);
+  }
+}
@@ -0,0 +1,64 @@
+package codeu.translation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures NgramLanguageDetector on a typical message and on the test corpus of chat messages.
+ * Detecting locally only pays off while it is far cheaper than a call to the Translation API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NgramLanguageDetectorBenchmark {
+
+  private NgramLanguageDetector detector;
+  private List<String> messages;
+
+  @Setup
+  public void setup() throws IOException {
+    detector = NgramLanguageDetector.getInstance();
+    messages = new ArrayList<>();
+    try (InputStream in = getClass().getResourceAsStream("messages.tsv")) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          messages.add(line.split("\t", 2)[1]);
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public NgramLanguageDetector.Guess guessOne() {
+    return detector.guess("quelqu'un a lu les notes de version avant le d\u00e9jeuner ?");
+  }
+
+  /** Guesses every message in the corpus, so one operation is one pass over it. */
+  @Benchmark
+  public void guessCorpus(Blackhole blackhole) {
+    for (String message : messages) {
+      blackhole.consume(detector.guess(message));
+    }
+  }
+}
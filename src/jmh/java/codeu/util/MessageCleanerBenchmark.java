@@ -0,0 +1,85 @@
+package codeu.util;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures MessageCleaner on the kinds of messages users send and on messages crafted to be slow.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCleanerBenchmark {
+
+  /**
+   * The kind of message cleaned:
+   *
+   * <ul>
+   *   <li>plain: a short chat message with no markup
+   *   <li>html: a message with allowed and disallowed tags
+   *   <li>links: a pasted list of fifty urls
+   *   <li>longUrl: one url with ten thousand path segments
+   *   <li>noDots: many url prefixes followed by long names that never reach a dot
+   * </ul>
+   */
+  @Param({"plain", "html", "links", "longUrl", "noDots"})
+  public String input;
+
+  private String message;
+
+  @Setup
+  public void setup() {
+    switch (input) {
+      case "plain":
+        message = "hey, is anyone around to look at the release notes before lunch?";
+        break;
+      case "html":
+        message =
+            "<b>Heads up:</b> the <div class=\"red\">build is broken</div> again,"
+                + " <script>alert('hi')</script> see <a href=\"http://ci.example.com\">CI</a>";
+        break;
+      case "links":
+        message = repeat("see http://docs.example.com/guide/page?id=42&lang=en ", 50);
+        break;
+      case "longUrl":
+        message = "http://example.com" + repeat("/segment", 10000);
+        break;
+      case "noDots":
+        message = repeat(" www." + repeat("a-", 100), 100);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown input " + input);
+    }
+  }
+
+  @Benchmark
+  public String clean() {
+    return MessageCleaner.clean(message);
+  }
+
+  @Benchmark
+  public String replaceUrls() {
+    return MessageCleaner.replaceUrls(message);
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder repeated = new StringBuilder(s.length() * times);
+    for (int i = 0; i < times; i++) {
+      repeated.append(s);
+    }
+    return repeated.toString();
+  }
+}
@@ -9,13 +9,19 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Created by CostaA17 on 5/16/18.
  */
 public class ActivityFeedServlet extends HttpServlet {
 
+    /** Number of activities shown on one page of the feed. */
+    static final int PAGE_SIZE = 50;
+
     ActivityFeedStore activityStore;
 
     /**
@@ -29,13 +35,22 @@ public class ActivityFeedServlet extends HttpServlet {
     }
 
     /**
-     * This function fires when a user navigates to the activity feed page.
+     * This function fires when a user navigates to the activity feed page. It shows one page of
+     * activities, newest first. The optional {@code before} (an ISO-8601 time) and {@code beforeId}
+     * parameters name the last activity already shown, and page back through older activities.
      */
     @Override
     public void doGet(HttpServletRequest request, HttpServletResponse response)
             throws IOException, ServletException {
-        List<Activity> activities = activityStore.getFeed();
+        Instant before = parseCursor(request.getParameter("before"));
+        UUID beforeId = before == null ? null : parseCursorId(request.getParameter("beforeId"));
+        List<Activity> activities = activityStore.getFeedBefore(before, beforeId, PAGE_SIZE);
+        Activity olderCursor = null;
+        if (activities.size() == PAGE_SIZE) {
+            olderCursor = activities.get(activities.size() - 1);
+        }
         request.setAttribute("activities",activities);
+        request.setAttribute("olderCursor", olderCursor);
         request.getRequestDispatcher("/WEB-INF/view/activityfeed.jsp").forward(request, response);
     }
 
@@ -43,4 +58,28 @@ public class ActivityFeedServlet extends HttpServlet {
         this.activityStore = activityStore;
     }
 
+    /** Parses the time used as a paging cursor, returning null if it is missing or invalid. */
+    private static Instant parseCursor(String cursorParameter) {
+        if (cursorParameter == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(cursorParameter);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /** Parses the ID used as a paging cursor, returning null if it is missing or invalid. */
+    private static UUID parseCursorId(String cursorIdParameter) {
+        if (cursorIdParameter == null) {
+            return null;
+        }
+        try {
+            return UUID.fromString(cursorIdParameter);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
 }
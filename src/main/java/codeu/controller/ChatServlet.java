@@ -20,13 +20,21 @@ import codeu.model.data.User;
 import codeu.model.store.basic.ConversationStore;
 import codeu.model.store.basic.MessageStore;
 import codeu.model.store.basic.UserStore;
+import codeu.translation.LanguageDetector;
+import codeu.translation.PreTranslator;
+import codeu.translation.TranslatedText;
+import codeu.translation.TranslationService;
+import codeu.util.JsonWriter;
 import codeu.util.MessageCleaner;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.ArrayList;
 import java.util.regex.*;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -34,9 +42,22 @@ import javax.servlet.http.HttpServletResponse;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document.OutputSettings;
 import org.jsoup.safety.Whitelist;
+
 /** Servlet class responsible for the chat page. */
 public class ChatServlet extends HttpServlet {
 
+  /** Number of Messages shown when the request does not specify a limit. */
+  static final int DEFAULT_PAGE_SIZE = 50;
+
+  /** Upper bound on the number of Messages a single request may ask for. */
+  static final int MAX_PAGE_SIZE = 500;
+
+  /**
+   * How long a long-poll waits for new Messages before answering with none, kept under the time
+   * proxies and App Engine allow a request to stay open.
+   */
+  static final long POLL_TIMEOUT_MILLIS = 25000;
+
   /** Store class that gives access to Conversations. */
   private ConversationStore conversationStore;
 
@@ -46,6 +67,18 @@ public class ChatServlet extends HttpServlet {
   /** Store class that gives access to Users. */
   private UserStore userStore;
 
+  /** Detects the language of each Message as it is sent. */
+  private LanguageDetector languageDetector;
+
+  /** Translates Messages into the viewer's language. */
+  private TranslationService translationService;
+
+  /** Learns which languages each Conversation's new Messages should be translated into. */
+  private PreTranslator preTranslator;
+
+  /** Wakes long-poll requests when a Message is added to their Conversation. */
+  private NewMessageNotifier newMessageNotifier;
+
   /** Set up state for handling chat requests. */
   @Override
   public void init() throws ServletException {
@@ -53,6 +86,17 @@ public class ChatServlet extends HttpServlet {
     setConversationStore(ConversationStore.getInstance());
     setMessageStore(MessageStore.getInstance());
     setUserStore(UserStore.getInstance());
+    setLanguageDetector(TranslationService.getInstance());
+    setTranslationService(TranslationService.getInstance());
+    setPreTranslator(PreTranslator.getInstance());
+    setNewMessageNotifier(new NewMessageNotifier());
+    messageStore.addMessageListener(newMessageNotifier);
+  }
+
+  @Override
+  public void destroy() {
+    messageStore.removeMessageListener(newMessageNotifier);
+    super.destroy();
   }
 
   /**
@@ -79,10 +123,47 @@ public class ChatServlet extends HttpServlet {
     this.userStore = userStore;
   }
 
+  /**
+   * Sets the LanguageDetector used by this servlet. This function provides a common setup method
+   * for use by the test framework or the servlet's init() function.
+   */
+  void setLanguageDetector(LanguageDetector languageDetector) {
+    this.languageDetector = languageDetector;
+  }
+
+  /**
+   * Sets the TranslationService used by this servlet. This function provides a common setup method
+   * for use by the test framework or the servlet's init() function.
+   */
+  void setTranslationService(TranslationService translationService) {
+    this.translationService = translationService;
+  }
+
+  /**
+   * Sets the PreTranslator used by this servlet. This function provides a common setup method for
+   * use by the test framework or the servlet's init() function.
+   */
+  void setPreTranslator(PreTranslator preTranslator) {
+    this.preTranslator = preTranslator;
+  }
+
+  /**
+   * Sets the NewMessageNotifier used by this servlet. This function provides a common setup method
+   * for use by the test framework or the servlet's init() function.
+   */
+  void setNewMessageNotifier(NewMessageNotifier newMessageNotifier) {
+    this.newMessageNotifier = newMessageNotifier;
+  }
+
   /**
    * This function fires when a user navigates to the chat page. It gets the conversation title from
-   * the URL, finds the corresponding Conversation, and fetches the messages in that Conversation.
-   * It then forwards to chat.jsp for rendering.
+   * the URL, finds the corresponding Conversation, and fetches one page of messages in that
+   * Conversation. By default this is the most recent page; the optional {@code before} parameter
+   * (a Message ID) pages back through older history and {@code limit} sets the page size. If a
+   * user is logged in, the page is translated into their language. It then forwards to chat.jsp
+   * for rendering, unless the client already has the page as it is; see {@link ConditionalGet}.
+   * Requests with an {@code after} parameter are long-polls for new Messages instead; see {@link
+   * #pollMessages}.
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -98,28 +179,147 @@ public class ChatServlet extends HttpServlet {
       return;
     }
 
-    UUID conversationId = conversation.getId();
+    if (request.getParameter("after") != null) {
+      pollMessages(request, response, conversation);
+      return;
+    }
 
-    List<Message> messages = messageStore.getMessagesInConversation(conversationId);
-    
+    UUID conversationId = conversation.getId();
 
+    User user = null;
     String username = (String) request.getSession().getAttribute("user");
     if (username != null) {
-      User user = userStore.getUser(username);
+      user = userStore.getUser(username);
       if (user != null) {
-        request.setAttribute("user", user);
+        preTranslator.noteParticipant(conversationId, user.getLanguage());
+      }
+    }
+
+    // the ETag covers the latest Message, the viewer and their language, which is all the page
+    // depends on, so a client that already has it is answered before anything is fetched or
+    // translated; no ETag is sent while the page is only partly translated (see below)
+    String etag = null;
+    Instant lastModified = null;
+    if (username == null || user != null) {
+      List<Message> latest = messageStore.getLatestMessages(conversationId, 1);
+      Message last = latest.isEmpty() ? null : latest.get(0);
+      etag =
+          ConditionalGet.etag(
+              last == null ? conversationId.toString() : last.getId().toString(),
+              user == null ? null : user.getId() + "-" + user.getLanguage());
+      lastModified = last == null ? conversation.getCreationTime() : last.getCreationTime();
+      if (ConditionalGet.isNotModified(request, etag, lastModified)) {
+        ConditionalGet.sendNotModified(response, etag, lastModified);
+        return;
+      }
+    }
+
+    int limit = parseLimit(request.getParameter("limit"));
+    UUID before = parseCursor(request.getParameter("before"));
+
+    // fetch one extra message so we know whether there is older history to link to
+    List<Message> messages =
+        before == null
+            ? messageStore.getLatestMessages(conversationId, limit + 1)
+            : messageStore.getMessagesBefore(conversationId, before, limit + 1);
+    UUID olderCursor = null;
+    if (messages.size() > limit) {
+      messages = messages.subList(1, messages.size());
+      olderCursor = messages.get(0).getId();
+    }
+
+    if (user != null) {
+      request.setAttribute("user", user);
+      List<TranslatedText> translations =
+          translationService.translatePage(messages, user.getLanguage());
+      request.setAttribute("translations", translations);
+      if (!isFullyTranslated(translations, user.getLanguage())) {
+        // don't let the client keep a page whose missing translations may succeed next time
+        etag = null;
       }
     }
+    if (etag != null) {
+      ConditionalGet.setValidators(response, etag, lastModified);
+    }
     request.setAttribute("conversation", conversation);
     request.setAttribute("messages", messages);
+    request.setAttribute("olderCursor", olderCursor);
+    request.setAttribute("limit", limit);
+    request.setAttribute("streaming", MessageStreamServlet.isEnabled());
     request.getRequestDispatcher("/WEB-INF/view/chat.jsp").forward(request, response);
   }
 
+  /**
+   * Answers a long-poll for the Messages sent after the one given by the {@code after} parameter,
+   * which is left empty by a client that has seen none. If there are no new Messages yet, the
+   * request is parked without holding a thread until one is sent or POLL_TIMEOUT_MILLIS passes,
+   * and is then dispatched back here to answer. The response is JSON with a "messages" array,
+   * which is empty if the wait timed out.
+   */
+  private void pollMessages(
+      HttpServletRequest request, HttpServletResponse response, Conversation conversation)
+      throws IOException {
+    UUID conversationId = conversation.getId();
+    String afterParameter = request.getParameter("after");
+    UUID after = parseCursor(afterParameter);
+    if (after == null
+        ? !afterParameter.isEmpty()
+        : !messageStore.containsMessage(conversationId, after)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown message cursor.");
+      return;
+    }
+
+    List<Message> messages = newMessages(conversationId, after);
+    boolean resumed = request.getDispatcherType() == DispatcherType.ASYNC;
+    if (messages.isEmpty() && !resumed && request.isAsyncSupported()) {
+      AsyncContext context = request.startAsync();
+      context.setTimeout(POLL_TIMEOUT_MILLIS);
+      Runnable wake = newMessageNotifier.await(conversationId, context);
+      // a Message sent between the check above and now would not have woken this request
+      if (!newMessages(conversationId, after).isEmpty()) {
+        wake.run();
+      }
+      return;
+    }
+
+    List<TranslatedText> translations = null;
+    String username = (String) request.getSession().getAttribute("user");
+    User user = username == null ? null : userStore.getUser(username);
+    if (user != null && !messages.isEmpty()) {
+      translations = translationService.translatePage(messages, user.getLanguage());
+    }
+
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-store");
+    JsonWriter writer = new JsonWriter(response.getWriter());
+    writer.beginObject().name("messages");
+    MessageJson.writeAll(writer, messages, translations, userStore);
+    writer.endObject();
+  }
+
+  /** Returns true if no Message on a page was left untranslated because translating it failed. */
+  private static boolean isFullyTranslated(List<TranslatedText> translations, String language) {
+    for (TranslatedText translation : translations) {
+      if (!translation.isTranslated() && !Objects.equals(language, translation.getSourceLanguage())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns up to MAX_PAGE_SIZE Messages sent after the given one, or the latest if it is null. */
+  private List<Message> newMessages(UUID conversationId, UUID after) {
+    return after == null
+        ? messageStore.getLatestMessages(conversationId, MAX_PAGE_SIZE)
+        : messageStore.getMessagesAfter(conversationId, after, MAX_PAGE_SIZE);
+  }
+
   /**
    * This function fires when a user submits the form on the chat page. It gets the logged-in
    * username from the session, the conversation title from the URL, and the chat message from the
-   * submitted form data. It creates a new Message from that data, adds it to the model, and then
-   * redirects back to the chat page.
+   * submitted form data. It creates a new Message from that data, detects the language it is
+   * written in, adds it to the model, and then redirects back to the chat page.
    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response)
@@ -150,20 +350,78 @@ public class ChatServlet extends HttpServlet {
     }
 
     String messageContent = request.getParameter("message");
-    String cleanedMessageContent = MessageCleaner.clean(messageContent);
+    postMessage(messageStore, languageDetector, conversation, user, messageContent);
 
+    // redirect to a GET request
+    response.sendRedirect("/chat/" + conversationTitle);
+  }
+
+  /**
+   * Cleans a Message sent by a user, detects the language it is written in, and adds it to the
+   * model, which tells anyone listening for new Messages. Used by both the chat page and the JSON
+   * API, so Messages are stored the same way whichever one they are sent through.
+   *
+   * <p>The language is detected once, when the Message is sent, so that rendering never has to. A
+   * failed detection doesn't stop the Message from being sent; its language is left unknown and
+   * detected when it is shown instead.
+   *
+   * @return the stored Message
+   */
+  static Message postMessage(
+      MessageStore messageStore,
+      LanguageDetector languageDetector,
+      Conversation conversation,
+      User author,
+      String content) {
+    String cleanedContent = MessageCleaner.clean(content);
+    String language;
+    try {
+      language = languageDetector.detectLanguage(cleanedContent);
+    } catch (RuntimeException e) {
+      System.err.println("Couldn't detect the language of a message: " + e.getMessage());
+      language = null;
+    }
 
     Message message =
         new Message(
             UUID.randomUUID(),
             conversation.getId(),
-            user.getId(),
-            cleanedMessageContent,
-            Instant.now());
-
+            author.getId(),
+            cleanedContent,
+            Instant.now(),
+            language);
     messageStore.addMessage(message);
+    return message;
+  }
 
-    // redirect to a GET request
-    response.sendRedirect("/chat/" + conversationTitle);
+  /**
+   * Parses the page size requested by the client, falling back to the default when it is missing
+   * or invalid and capping it at the maximum.
+   */
+  static int parseLimit(String limitParameter) {
+    if (limitParameter == null) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    try {
+      int limit = Integer.parseInt(limitParameter);
+      if (limit <= 0) {
+        return DEFAULT_PAGE_SIZE;
+      }
+      return Math.min(limit, MAX_PAGE_SIZE);
+    } catch (NumberFormatException e) {
+      return DEFAULT_PAGE_SIZE;
+    }
+  }
+
+  /** Parses a Message ID used as a paging cursor, returning null if it is missing or invalid. */
+  static UUID parseCursor(String cursorParameter) {
+    if (cursorParameter == null) {
+      return null;
+    }
+    try {
+      return UUID.fromString(cursorParameter);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
   }
 }
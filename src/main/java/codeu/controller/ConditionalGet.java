@@ -0,0 +1,88 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.controller;
+
+import java.time.Instant;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Answers conditional GET requests, so that a page which has not changed since the client last
+ * saw it is not rendered again. Pages are tagged with a weak ETag, since the same page may not be
+ * rendered byte for byte the same, and a Last-Modified date, which has only one-second resolution
+ * and is only checked when the client sends no ETag.
+ */
+final class ConditionalGet {
+
+  private ConditionalGet() {}
+
+  /**
+   * Returns the weak ETag made of the given parts, which must not contain double quotes.
+   *
+   * @param version identifies the version of the data shown
+   * @param viewer the logged-in User's ID and anything else of theirs the page shows, or null if
+   *     no one is logged in
+   */
+  static String etag(String version, String viewer) {
+    return "W/\"" + version + (viewer == null ? "" : "-" + viewer) + "\"";
+  }
+
+  /**
+   * Returns true if the client already has the version of the page with the given validators.
+   * Only ETags are compared when the client sends any; otherwise the If-Modified-Since date is.
+   */
+  static boolean isNotModified(HttpServletRequest request, String etag, Instant lastModified) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      String opaqueTag = opaqueTag(etag);
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.equals("*") || opaqueTag(tag).equals(opaqueTag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      // an unparseable date is ignored
+      return false;
+    }
+    return ifModifiedSince >= 0 && lastModified.getEpochSecond() * 1000 <= ifModifiedSince;
+  }
+
+  /**
+   * Sets the validators the client should send to check the page again. The page may be kept but
+   * must be checked before each use, and only by the client, since it depends on who is viewing.
+   */
+  static void setValidators(HttpServletResponse response, String etag, Instant lastModified) {
+    response.setHeader("ETag", etag);
+    response.setDateHeader("Last-Modified", lastModified.toEpochMilli());
+    response.setHeader("Cache-Control", "private, no-cache");
+  }
+
+  /** Answers that the client's copy of the page is current. */
+  static void sendNotModified(HttpServletResponse response, String etag, Instant lastModified) {
+    setValidators(response, etag, lastModified);
+    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+  }
+
+  /** Weak comparison ignores whether either tag is weak. */
+  private static String opaqueTag(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+}
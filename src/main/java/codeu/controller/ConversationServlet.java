@@ -65,12 +65,30 @@ public class ConversationServlet extends HttpServlet {
 
   /**
    * This function fires when a user navigates to the conversations page. It gets all of the
-   * conversations from the model and forwards to conversations.jsp for rendering the list.
+   * conversations from the model and forwards to conversations.jsp for rendering the list, unless
+   * the client already has the list as it is; see {@link ConditionalGet}.
    */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response)
       throws IOException, ServletException {
     List<Conversation> conversations = conversationStore.getAllConversations();
+
+    // the page shows the logged-in user's name, so it is only tagged when that user is known
+    String username = (String) request.getSession().getAttribute("user");
+    User user = username == null ? null : userStore.getUser(username);
+    if (username == null || user != null) {
+      Instant lastModified = conversationStore.getLastModified();
+      String etag =
+          ConditionalGet.etag(
+              "conversations-" + conversations.size() + "-" + lastModified.toEpochMilli(),
+              user == null ? null : user.getId().toString());
+      if (ConditionalGet.isNotModified(request, etag, lastModified)) {
+        ConditionalGet.sendNotModified(response, etag, lastModified);
+        return;
+      }
+      ConditionalGet.setValidators(response, etag, lastModified);
+    }
+
     request.setAttribute("conversations", conversations);
     request.getRequestDispatcher("/WEB-INF/view/conversations.jsp").forward(request, response);
   }
@@ -106,17 +124,12 @@ public class ConversationServlet extends HttpServlet {
       return;
     }
 
-    if (conversationStore.isTitleTaken(conversationTitle)) {
-      // conversation title is already taken, just go into that conversation instead of creating a
-      // new one
-      response.sendRedirect("/chat/" + conversationTitle);
-      return;
-    }
-
+    // if the title is already taken, this doesn't create anything and we just go into the existing
+    // conversation instead
     Conversation conversation =
         new Conversation(UUID.randomUUID(), user.getId(), conversationTitle, Instant.now());
 
-    conversationStore.addConversation(conversation);
+    conversationStore.addConversationIfAbsent(conversation);
     response.sendRedirect("/chat/" + conversationTitle);
   }
 }
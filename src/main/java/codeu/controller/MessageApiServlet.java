@@ -0,0 +1,254 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.controller;
+
+import codeu.model.data.Conversation;
+import codeu.model.data.Message;
+import codeu.model.data.User;
+import codeu.model.store.basic.ConversationStore;
+import codeu.model.store.basic.MessageStore;
+import codeu.model.store.basic.UserStore;
+import codeu.translation.LanguageDetector;
+import codeu.translation.PreTranslator;
+import codeu.translation.TranslatedText;
+import codeu.translation.TranslationService;
+import codeu.util.JsonWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet class responsible for the JSON API to each Conversation's Messages, at
+ * /api/messages/[conversation title]. It lets scripts fetch only the Messages they are missing
+ * and send Messages without reloading the chat page. Responses are written as they are built, and
+ * errors are answered with a JSON object holding an "error" message.
+ */
+public class MessageApiServlet extends HttpServlet {
+
+  /** Store class that gives access to Conversations. */
+  private ConversationStore conversationStore;
+
+  /** Store class that gives access to Messages. */
+  private MessageStore messageStore;
+
+  /** Store class that gives access to Users. */
+  private UserStore userStore;
+
+  /** Detects the language of each Message as it is sent. */
+  private LanguageDetector languageDetector;
+
+  /** Translates Messages into the viewer's language. */
+  private TranslationService translationService;
+
+  /** Learns which languages each Conversation's new Messages should be translated into. */
+  private PreTranslator preTranslator;
+
+  /** Set up state for handling API requests. */
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    setConversationStore(ConversationStore.getInstance());
+    setMessageStore(MessageStore.getInstance());
+    setUserStore(UserStore.getInstance());
+    setLanguageDetector(TranslationService.getInstance());
+    setTranslationService(TranslationService.getInstance());
+    setPreTranslator(PreTranslator.getInstance());
+  }
+
+  /**
+   * Sets the ConversationStore used by this servlet. This function provides a common setup method
+   * for use by the test framework or the servlet's init() function.
+   */
+  void setConversationStore(ConversationStore conversationStore) {
+    this.conversationStore = conversationStore;
+  }
+
+  /**
+   * Sets the MessageStore used by this servlet. This function provides a common setup method for
+   * use by the test framework or the servlet's init() function.
+   */
+  void setMessageStore(MessageStore messageStore) {
+    this.messageStore = messageStore;
+  }
+
+  /**
+   * Sets the UserStore used by this servlet. This function provides a common setup method for use
+   * by the test framework or the servlet's init() function.
+   */
+  void setUserStore(UserStore userStore) {
+    this.userStore = userStore;
+  }
+
+  /**
+   * Sets the LanguageDetector used by this servlet. This function provides a common setup method
+   * for use by the test framework or the servlet's init() function.
+   */
+  void setLanguageDetector(LanguageDetector languageDetector) {
+    this.languageDetector = languageDetector;
+  }
+
+  /**
+   * Sets the TranslationService used by this servlet. This function provides a common setup method
+   * for use by the test framework or the servlet's init() function.
+   */
+  void setTranslationService(TranslationService translationService) {
+    this.translationService = translationService;
+  }
+
+  /**
+   * Sets the PreTranslator used by this servlet. This function provides a common setup method for
+   * use by the test framework or the servlet's init() function.
+   */
+  void setPreTranslator(PreTranslator preTranslator) {
+    this.preTranslator = preTranslator;
+  }
+
+  /**
+   * Lists a page of a Conversation's Messages, oldest first. By default this is the most recent
+   * page. The optional {@code before} parameter (a Message ID) pages back through older history,
+   * {@code after} pages forward through newer Messages instead, and {@code limit} sets the page
+   * size; {@code before} and {@code after} can't be used together. If a user is logged in, the
+   * Messages are translated into their language.
+   *
+   * <p>The response is a JSON object with a "messages" array, and "hasMore", which is true if
+   * there are more Messages further in the direction being paged: older ones, or newer ones when
+   * paging with {@code after}.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException, ServletException {
+    Conversation conversation = getConversation(request);
+    if (conversation == null) {
+      writeError(response, HttpServletResponse.SC_NOT_FOUND, "Unknown conversation.");
+      return;
+    }
+    UUID conversationId = conversation.getId();
+
+    int limit = ChatServlet.parseLimit(request.getParameter("limit"));
+    String beforeParameter = request.getParameter("before");
+    String afterParameter = request.getParameter("after");
+    if (beforeParameter != null && afterParameter != null) {
+      writeError(
+          response, HttpServletResponse.SC_BAD_REQUEST, "Page with before or after, not both.");
+      return;
+    }
+    UUID cursor =
+        ChatServlet.parseCursor(afterParameter != null ? afterParameter : beforeParameter);
+    if ((beforeParameter != null || afterParameter != null)
+        && (cursor == null || !messageStore.containsMessage(conversationId, cursor))) {
+      writeError(response, HttpServletResponse.SC_BAD_REQUEST, "Unknown message cursor.");
+      return;
+    }
+
+    // fetch one extra message so we know whether there are more to page through
+    List<Message> messages;
+    boolean hasMore;
+    if (afterParameter != null) {
+      messages = messageStore.getMessagesAfter(conversationId, cursor, limit + 1);
+      hasMore = messages.size() > limit;
+      if (hasMore) {
+        messages = messages.subList(0, limit);
+      }
+    } else {
+      messages =
+          cursor == null
+              ? messageStore.getLatestMessages(conversationId, limit + 1)
+              : messageStore.getMessagesBefore(conversationId, cursor, limit + 1);
+      hasMore = messages.size() > limit;
+      if (hasMore) {
+        messages = messages.subList(1, messages.size());
+      }
+    }
+
+    List<TranslatedText> translations = null;
+    User user = getUser(request);
+    if (user != null) {
+      preTranslator.noteParticipant(conversationId, user.getLanguage());
+      if (!messages.isEmpty()) {
+        translations = translationService.translatePage(messages, user.getLanguage());
+      }
+    }
+
+    JsonWriter writer = startJson(response, HttpServletResponse.SC_OK);
+    writer.beginObject().name("messages");
+    MessageJson.writeAll(writer, messages, translations, userStore);
+    writer.name("hasMore").value(hasMore);
+    writer.endObject();
+  }
+
+  /**
+   * Sends the Message in the {@code message} parameter as the logged-in user. It is cleaned and
+   * its language detected as on the chat page. The response is the stored Message as a JSON
+   * object, with status 201 Created.
+   */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws IOException, ServletException {
+    User user = getUser(request);
+    if (user == null) {
+      writeError(response, HttpServletResponse.SC_UNAUTHORIZED, "Log in to send messages.");
+      return;
+    }
+
+    Conversation conversation = getConversation(request);
+    if (conversation == null) {
+      writeError(response, HttpServletResponse.SC_NOT_FOUND, "Unknown conversation.");
+      return;
+    }
+
+    String messageContent = request.getParameter("message");
+    if (messageContent == null || messageContent.trim().isEmpty()) {
+      writeError(response, HttpServletResponse.SC_BAD_REQUEST, "The message is empty.");
+      return;
+    }
+    Message message =
+        ChatServlet.postMessage(messageStore, languageDetector, conversation, user, messageContent);
+
+    JsonWriter writer = startJson(response, HttpServletResponse.SC_CREATED);
+    MessageJson.write(writer, message, user, null);
+  }
+
+  /** Returns the Conversation whose title follows /api/messages/ in the URL, or null. */
+  private Conversation getConversation(HttpServletRequest request) {
+    String requestUrl = request.getRequestURI();
+    String conversationTitle = requestUrl.substring("/api/messages/".length());
+    return conversationStore.getConversationWithTitle(conversationTitle);
+  }
+
+  /** Returns the logged-in User, or null if no one is logged in. */
+  private User getUser(HttpServletRequest request) {
+    String username = (String) request.getSession().getAttribute("user");
+    return username == null ? null : userStore.getUser(username);
+  }
+
+  private static JsonWriter startJson(HttpServletResponse response, int status)
+      throws IOException {
+    response.setStatus(status);
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-store");
+    return new JsonWriter(response.getWriter());
+  }
+
+  private static void writeError(HttpServletResponse response, int status, String error)
+      throws IOException {
+    JsonWriter writer = startJson(response, status);
+    writer.beginObject().name("error").value(error).endObject();
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.controller;
+
+import codeu.model.data.Message;
+import codeu.model.data.User;
+import codeu.model.store.basic.UserStore;
+import codeu.translation.TranslatedText;
+import codeu.util.JsonWriter;
+import java.io.IOException;
+import java.util.List;
+
+/** Writes the JSON that Messages are sent to chat page scripts and API clients as. */
+final class MessageJson {
+
+  private MessageJson() {}
+
+  /**
+   * Writes a Message as a JSON object with its "id", "author", "creationTime" and "content". If
+   * the content was translated, "content" holds the translation and "translatedFrom" the language
+   * it was written in.
+   *
+   * @param author the Message's author, or null if they are no longer known
+   * @param translation the Message translated into the viewer's language, or null if there is no
+   *     viewer language
+   */
+  static void write(JsonWriter writer, Message message, User author, TranslatedText translation)
+      throws IOException {
+    writer.beginObject();
+    writer.name("id").value(message.getId().toString());
+    writer.name("author").value(author == null ? "" : author.getName());
+    writer.name("creationTime").value(message.getCreationTime().toString());
+    if (translation != null && translation.isTranslated()) {
+      writer.name("content").value(translation.getText());
+      writer.name("translatedFrom").value(translation.getSourceLanguage());
+    } else {
+      writer.name("content").value(message.getContent());
+    }
+    writer.endObject();
+  }
+
+  /**
+   * Writes a JSON array of Messages.
+   *
+   * @param translations the Messages translated into the viewer's language, in the same order, or
+   *     null if there is no viewer language
+   */
+  static void writeAll(
+      JsonWriter writer,
+      List<Message> messages,
+      List<TranslatedText> translations,
+      UserStore userStore)
+      throws IOException {
+    writer.beginArray();
+    for (int i = 0; i < messages.size(); i++) {
+      Message message = messages.get(i);
+      write(
+          writer,
+          message,
+          userStore.getUser(message.getAuthorId()),
+          translations == null ? null : translations.get(i));
+    }
+    writer.endArray();
+  }
+}
@@ -0,0 +1,400 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.controller;
+
+import codeu.model.data.Message;
+import codeu.model.store.basic.MessageListener;
+import codeu.model.store.basic.UserStore;
+import codeu.translation.TranslatedText;
+import codeu.translation.TranslationService;
+import codeu.util.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+/**
+ * Pushes each new Message to the server-sent event streams open on its Conversation.
+ *
+ * <p>Streams are written with non-blocking output, so no thread waits on a slow client. Events
+ * for a stream queue in a buffer of bounded size while its client is not keeping up, and a stream
+ * whose buffer fills is closed instead of growing; its client reconnects and catches up from the
+ * last event it received.
+ *
+ * <p>Events are built on a publishing executor rather than on the thread that adds the Message,
+ * since building them may mean translating it into each viewer's language. Each Conversation's
+ * Messages are published one after another, so its streams get them in order, but a slow
+ * translation for one Conversation doesn't hold up the others. A separate heartbeat executor sends
+ * a comment on every idle stream now and then, so that proxies do not close it.
+ */
+class MessageStreamHub implements MessageListener {
+
+  /** Sent to idle streams to keep them open. Lines starting with a colon are ignored by clients. */
+  private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+  /** An open stream and the events waiting to be written to it. */
+  class Subscriber implements WriteListener {
+    private final UUID conversationId;
+    private final String language;
+    private final AsyncContext context;
+    private final Deque<byte[]> buffer = new ArrayDeque<>();
+    private ServletOutputStream out;
+    private boolean closed;
+
+    /** True if the stream ends once the buffer is written, and takes no new events meanwhile. */
+    private boolean catchingUp;
+
+    Subscriber(UUID conversationId, String language, AsyncContext context) {
+      this.conversationId = conversationId;
+      this.language = language;
+      this.context = context;
+    }
+
+    /**
+     * Starts writing to the stream, beginning with the events the client missed and then any sent
+     * since the Subscriber was added. Until then, new events only wait in the buffer.
+     */
+    synchronized void start(List<byte[]> missedEvents) throws IOException {
+      for (int i = missedEvents.size() - 1; i >= 0; i--) {
+        buffer.addFirst(missedEvents.get(i));
+      }
+      if (buffer.isEmpty()) {
+        // sends the response headers right away, so the client knows the stream is open
+        buffer.add(HEARTBEAT);
+      }
+      startWriting();
+    }
+
+    /**
+     * Starts writing to the stream for a client that missed more events than are given, and ends
+     * the stream once they are written. New events are not sent, since they would come before the
+     * rest of the missed ones; the client reconnects from the last event written and catches up
+     * from there.
+     */
+    synchronized void catchUp(List<byte[]> missedEvents) throws IOException {
+      catchingUp = true;
+      buffer.clear();
+      buffer.addAll(missedEvents);
+      startWriting();
+    }
+
+    private void startWriting() throws IOException {
+      out = context.getResponse().getOutputStream();
+      // the container calls onWritePossible as soon as the stream can be written
+      out.setWriteListener(this);
+    }
+
+    /** Queues an event and writes as much of the buffer as the stream takes without blocking. */
+    synchronized void send(byte[] event) {
+      if (closed || catchingUp) {
+        return;
+      }
+      if (buffer.size() >= bufferCapacity) {
+        droppedCount.incrementAndGet();
+        close();
+        return;
+      }
+      buffer.add(event);
+      drain();
+    }
+
+    /** Sends a heartbeat if there is nothing else waiting to be written. */
+    synchronized void heartbeat() {
+      if (buffer.isEmpty()) {
+        send(HEARTBEAT);
+      }
+    }
+
+    @Override
+    public synchronized void onWritePossible() {
+      drain();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      close();
+    }
+
+    /** Ends the stream. The client is expected to reconnect. */
+    synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      buffer.clear();
+      remove(this);
+      try {
+        context.complete();
+      } catch (IllegalStateException e) {
+        // the request already completed, for example because the client went away
+      }
+    }
+
+    private void drain() {
+      if (out == null || closed) {
+        return;
+      }
+      try {
+        while (out.isReady()) {
+          byte[] event = buffer.poll();
+          if (event == null) {
+            if (catchingUp) {
+              close();
+            }
+            return;
+          }
+          out.write(event);
+          if (out.isReady()) {
+            out.flush();
+          }
+        }
+      } catch (IOException e) {
+        close();
+      }
+    }
+  }
+
+  private final UserStore userStore;
+  private final TranslationService translationService;
+  private final ScheduledExecutorService heartbeatExecutor;
+  private final ExecutorService publishExecutor;
+  private final int bufferCapacity;
+
+  /** Streams open on each Conversation, by Conversation ID. */
+  private final Map<UUID, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+  /**
+   * The last publication queued for each Conversation, by Conversation ID. The next one is
+   * chained after it; entries are removed once they finish with nothing chained after them.
+   */
+  private final Map<UUID, CompletableFuture<Void>> publications = new ConcurrentHashMap<>();
+
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /**
+   * @param heartbeatExecutor sends heartbeats
+   * @param publishExecutor builds and sends events
+   * @param bufferCapacity the number of events a stream may fall behind by before it is closed
+   * @param heartbeatIntervalMillis how often idle streams are sent a heartbeat
+   */
+  MessageStreamHub(
+      UserStore userStore,
+      TranslationService translationService,
+      ScheduledExecutorService heartbeatExecutor,
+      ExecutorService publishExecutor,
+      int bufferCapacity,
+      long heartbeatIntervalMillis) {
+    this.userStore = userStore;
+    this.translationService = translationService;
+    this.heartbeatExecutor = heartbeatExecutor;
+    this.publishExecutor = publishExecutor;
+    this.bufferCapacity = bufferCapacity;
+    heartbeatExecutor.scheduleAtFixedRate(
+        this::sendHeartbeats,
+        heartbeatIntervalMillis,
+        heartbeatIntervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Adds a stream on a Conversation. The stream is closed when its AsyncContext times out or
+   * fails. Nothing is written to it until {@link Subscriber#start} is called.
+   *
+   * @param language the code of the language to translate Messages into, or null to send them as
+   *     written
+   */
+  Subscriber subscribe(UUID conversationId, String language, AsyncContext context) {
+    Subscriber subscriber = new Subscriber(conversationId, language, context);
+    // added inside compute, so that it can't land in a set remove() has just dropped
+    subscribers.compute(
+        conversationId,
+        (id, conversationSubscribers) -> {
+          if (conversationSubscribers == null) {
+            conversationSubscribers = ConcurrentHashMap.newKeySet();
+          }
+          conversationSubscribers.add(subscriber);
+          return conversationSubscribers;
+        });
+    context.addListener(new AsyncListener() {
+      @Override
+      public void onTimeout(AsyncEvent event) {
+        subscriber.close();
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+        subscriber.close();
+      }
+
+      @Override
+      public void onComplete(AsyncEvent event) {
+        remove(subscriber);
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {}
+    });
+    return subscriber;
+  }
+
+  @Override
+  public void messageAdded(Message message) {
+    Set<Subscriber> conversationSubscribers = subscribers.get(message.getConversationId());
+    if (conversationSubscribers == null || conversationSubscribers.isEmpty()) {
+      return;
+    }
+    UUID conversationId = message.getConversationId();
+    CompletableFuture<Void> publication =
+        publications.compute(
+            conversationId,
+            (id, previous) ->
+                (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous)
+                    // runs whether or not the previous publication failed
+                    .handleAsync(
+                        (result, failure) -> {
+                          publish(message, conversationSubscribers);
+                          return null;
+                        },
+                        publishExecutor));
+    publication.whenComplete(
+        (result, failure) -> publications.remove(conversationId, publication));
+  }
+
+  /**
+   * Sends a Message to every stream on its Conversation, building its event once per language. If
+   * an event can't be built, only the streams wanting that language miss the Message.
+   */
+  private void publish(Message message, Set<Subscriber> conversationSubscribers) {
+    Map<String, byte[]> eventsByLanguage = new HashMap<>();
+    for (Subscriber subscriber : conversationSubscribers) {
+      if (!eventsByLanguage.containsKey(subscriber.language)) {
+        byte[] built = null;
+        try {
+          built = toEvents(Collections.singletonList(message), subscriber.language).get(0);
+        } catch (RuntimeException e) {
+          System.err.println("Couldn't publish message " + message.getId() + ": " + e.getMessage());
+        }
+        eventsByLanguage.put(subscriber.language, built);
+      }
+      byte[] event = eventsByLanguage.get(subscriber.language);
+      if (event != null) {
+        subscriber.send(event);
+      }
+    }
+  }
+
+  /**
+   * Returns the server-sent events for a list of Messages. Each event's ID is its Message's ID, so
+   * that a reconnecting client reports the last Message it received.
+   *
+   * @param language the code of the language to translate the Messages into, or null to leave them
+   *     as written
+   */
+  List<byte[]> toEvents(List<Message> messages, String language) {
+    List<TranslatedText> translations =
+        language == null || messages.isEmpty()
+            ? null
+            : translationService.translatePage(messages, language);
+    List<byte[]> events = new ArrayList<>(messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      Message message = messages.get(i);
+      StringWriter event = new StringWriter();
+      event.write("id: " + message.getId() + "\ndata: ");
+      try {
+        // JSON escapes line breaks, so the data always fits on one line
+        MessageJson.write(
+            new JsonWriter(event),
+            message,
+            userStore.getUser(message.getAuthorId()),
+            translations == null ? null : translations.get(i));
+      } catch (IOException e) {
+        // a StringWriter never throws
+        throw new UncheckedIOException(e);
+      }
+      event.write("\n\n");
+      events.add(event.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    return events;
+  }
+
+  /** Sends a heartbeat to every idle stream. */
+  void sendHeartbeats() {
+    for (Set<Subscriber> conversationSubscribers : subscribers.values()) {
+      for (Subscriber subscriber : conversationSubscribers) {
+        subscriber.heartbeat();
+      }
+    }
+  }
+
+  /** Removes a stream, and its Conversation's entry once no streams are left on it. */
+  private void remove(Subscriber subscriber) {
+    subscribers.computeIfPresent(
+        subscriber.conversationId,
+        (id, conversationSubscribers) -> {
+          conversationSubscribers.remove(subscriber);
+          return conversationSubscribers.isEmpty() ? null : conversationSubscribers;
+        });
+  }
+
+  /** Closes every stream and stops the executors. */
+  void shutdown() {
+    heartbeatExecutor.shutdownNow();
+    publishExecutor.shutdownNow();
+    for (Set<Subscriber> conversationSubscribers : subscribers.values()) {
+      for (Subscriber subscriber : conversationSubscribers) {
+        subscriber.close();
+      }
+    }
+  }
+
+  /** Returns the number of open streams. */
+  int getSubscriberCount() {
+    int count = 0;
+    for (Set<Subscriber> conversationSubscribers : subscribers.values()) {
+      count += conversationSubscribers.size();
+    }
+    return count;
+  }
+
+  /** Returns the number of Conversations with open streams. */
+  int getConversationCount() {
+    return subscribers.size();
+  }
+
+  /** Returns the number of streams closed because their client fell too far behind. */
+  long getDroppedCount() {
+    return droppedCount.get();
+  }
+}
@@ -0,0 +1,234 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.controller;
+
+import codeu.model.data.Conversation;
+import codeu.model.data.Message;
+import codeu.model.data.User;
+import codeu.model.store.basic.ConversationStore;
+import codeu.model.store.basic.MessageStore;
+import codeu.model.store.basic.UserStore;
+import codeu.translation.TranslationService;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet class responsible for the server-sent event stream of each Conversation's new Messages.
+ * A chat page keeps one stream open instead of polling for new Messages.
+ *
+ * <p>Streaming needs an environment that sends responses as they are written and allows
+ * background threads, such as App Engine flexible or a self-hosted server, so it is only on when
+ * the {@code codeu.stream} system property is set. Otherwise, or where responses are buffered, the
+ * chat page falls back to long-polling ChatServlet.
+ */
+public class MessageStreamServlet extends HttpServlet {
+
+  /** The number of events a stream may fall behind by before it is closed. */
+  static final int BUFFER_CAPACITY = 100;
+
+  /**
+   * The most missed Messages sent when a stream opens, leaving room in the buffer for new ones.
+   * A client that missed more is sent this many and reconnects for the rest.
+   */
+  static final int MAX_MISSED_EVENTS = BUFFER_CAPACITY / 2;
+
+  /** How often idle streams are sent a heartbeat, kept well under common proxy idle timeouts. */
+  static final long HEARTBEAT_INTERVAL_MILLIS = 15000;
+
+  /** Threads building events, so this many Conversations can wait on translations at once. */
+  static final int PUBLISH_THREADS = 4;
+
+  /** How long a stream stays open before the client is made to reconnect. */
+  static final long STREAM_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+  /** Store class that gives access to Conversations. */
+  private ConversationStore conversationStore;
+
+  /** Store class that gives access to Messages. */
+  private MessageStore messageStore;
+
+  /** Store class that gives access to Users. */
+  private UserStore userStore;
+
+  /** Sends new Messages to the open streams. */
+  private MessageStreamHub messageStreamHub;
+
+  /** Returns true if streams are turned on by their system property. */
+  static boolean isEnabled() {
+    return Boolean.getBoolean(ServerStartupListener.STREAM_PROPERTY);
+  }
+
+  /** Set up state for handling stream requests. No threads are started unless streams are on. */
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    setConversationStore(ConversationStore.getInstance());
+    setMessageStore(MessageStore.getInstance());
+    setUserStore(UserStore.getInstance());
+    if (!isEnabled()) {
+      return;
+    }
+    setMessageStreamHub(
+        new MessageStreamHub(
+            userStore,
+            TranslationService.getInstance(),
+            Executors.newSingleThreadScheduledExecutor(
+                ServerStartupListener.backgroundThreadFactory()),
+            Executors.newFixedThreadPool(
+                PUBLISH_THREADS, ServerStartupListener.backgroundThreadFactory()),
+            BUFFER_CAPACITY,
+            HEARTBEAT_INTERVAL_MILLIS));
+    messageStore.addMessageListener(messageStreamHub);
+  }
+
+  @Override
+  public void destroy() {
+    if (messageStreamHub != null) {
+      messageStore.removeMessageListener(messageStreamHub);
+      messageStreamHub.shutdown();
+    }
+    super.destroy();
+  }
+
+  /**
+   * Sets the ConversationStore used by this servlet. This function provides a common setup method
+   * for use by the test framework or the servlet's init() function.
+   */
+  void setConversationStore(ConversationStore conversationStore) {
+    this.conversationStore = conversationStore;
+  }
+
+  /**
+   * Sets the MessageStore used by this servlet. This function provides a common setup method for
+   * use by the test framework or the servlet's init() function.
+   */
+  void setMessageStore(MessageStore messageStore) {
+    this.messageStore = messageStore;
+  }
+
+  /**
+   * Sets the UserStore used by this servlet. This function provides a common setup method for use
+   * by the test framework or the servlet's init() function.
+   */
+  void setUserStore(UserStore userStore) {
+    this.userStore = userStore;
+  }
+
+  /**
+   * Sets the MessageStreamHub used by this servlet, or null if streams are off. This function
+   * provides a common setup method for use by the test framework or the servlet's init() function.
+   */
+  void setMessageStreamHub(MessageStreamHub messageStreamHub) {
+    this.messageStreamHub = messageStreamHub;
+  }
+
+  /**
+   * This function fires when a chat page opens the stream of a Conversation, whose title is taken
+   * from the URL. The stream starts with the Messages sent after the one given by the
+   * {@code Last-Event-ID} header, which clients send when they reconnect, or else by the
+   * {@code after} parameter, which is left empty by a page that showed none. It then carries each
+   * new Message as it is sent. If a user is logged in, Messages are translated into their language.
+   */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException, ServletException {
+    if (messageStreamHub == null) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Streaming is off.");
+      return;
+    }
+
+    String requestUrl = request.getRequestURI();
+    String conversationTitle = requestUrl.substring("/stream/".length());
+
+    Conversation conversation = conversationStore.getConversationWithTitle(conversationTitle);
+    if (conversation == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown conversation.");
+      return;
+    }
+    if (!request.isAsyncSupported()) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Streaming is unavailable.");
+      return;
+    }
+
+    UUID conversationId = conversation.getId();
+    String cursorParameter = request.getHeader("Last-Event-ID");
+    if (cursorParameter == null) {
+      cursorParameter = request.getParameter("after");
+    }
+    UUID after = ChatServlet.parseCursor(cursorParameter);
+    if (cursorParameter != null
+        && !cursorParameter.isEmpty()
+        && (after == null || !messageStore.containsMessage(conversationId, after))) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown message cursor.");
+      return;
+    }
+
+    String language = null;
+    String username = (String) request.getSession().getAttribute("user");
+    User user = username == null ? null : userStore.getUser(username);
+    if (user != null) {
+      language = user.getLanguage();
+    }
+
+    response.setContentType("text/event-stream");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-store");
+
+    AsyncContext context = request.startAsync();
+    context.setTimeout(STREAM_TIMEOUT_MILLIS);
+    // subscribe before looking up missed Messages, so that none falls between the two; one that
+    // is in both is sent twice, and clients skip Messages they already have
+    MessageStreamHub.Subscriber subscriber =
+        messageStreamHub.subscribe(conversationId, language, context);
+    // once subscribed, the stream has to be closed if anything fails, or it stays open with
+    // nothing sent to it until it times out
+    try {
+      List<Message> missed;
+      boolean missedMore = false;
+      if (after != null) {
+        // one more than is sent shows whether the client has to come back for the rest
+        missed = messageStore.getMessagesAfter(conversationId, after, MAX_MISSED_EVENTS + 1);
+        if (missed.size() > MAX_MISSED_EVENTS) {
+          missed = missed.subList(0, MAX_MISSED_EVENTS);
+          missedMore = true;
+        }
+      } else if (cursorParameter != null) {
+        // an empty cursor comes from a page that had no Messages to show
+        missed = messageStore.getLatestMessages(conversationId, MAX_MISSED_EVENTS);
+      } else {
+        missed = Collections.emptyList();
+      }
+      List<byte[]> missedEvents = messageStreamHub.toEvents(missed, language);
+      if (missedMore) {
+        subscriber.catchUp(missedEvents);
+      } else {
+        subscriber.start(missedEvents);
+      }
+    } catch (IOException e) {
+      subscriber.close();
+    } catch (RuntimeException e) {
+      System.err.println("Couldn't look up missed messages: " + e.getMessage());
+      subscriber.close();
+    }
+  }
+}
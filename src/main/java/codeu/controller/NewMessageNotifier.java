@@ -0,0 +1,142 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.controller;
+
+import codeu.model.data.Message;
+import codeu.model.store.basic.MessageListener;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * Keeps track of long-poll requests that are waiting for new Messages, and wakes the ones waiting
+ * on a Conversation when a Message is added to it.
+ *
+ * <p>A waiting request holds no container thread. Waking it dispatches it back to its servlet,
+ * which then looks up the new Messages and writes them on a container thread; so does the request
+ * timing out. Each request is dispatched at most once, however its wake-up and timeout race.
+ */
+class NewMessageNotifier implements MessageListener {
+
+  /** A parked request and whether it has already been dispatched. */
+  private static class Waiter {
+    final AsyncContext context;
+    final AtomicBoolean dispatched = new AtomicBoolean();
+
+    Waiter(AsyncContext context) {
+      this.context = context;
+    }
+
+    void dispatch() {
+      if (dispatched.compareAndSet(false, true)) {
+        try {
+          context.dispatch();
+        } catch (IllegalStateException e) {
+          // the request already completed, for example because the client went away
+        }
+      }
+    }
+  }
+
+  /** Requests waiting on each Conversation, by Conversation ID. */
+  private final Map<UUID, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+
+  /**
+   * Parks a request until a Message is added to the Conversation or the request's AsyncContext
+   * times out. Either way the request is dispatched back to its servlet once.
+   *
+   * @return a handle that wakes the request right away, for use when a Message arrived just before
+   *     the request was parked
+   */
+  Runnable await(UUID conversationId, AsyncContext context) {
+    Waiter waiter = new Waiter(context);
+    // added inside compute, so that it can't land in a set remove() has just dropped
+    waiters.compute(
+        conversationId,
+        (id, conversationWaiters) -> {
+          if (conversationWaiters == null) {
+            conversationWaiters = ConcurrentHashMap.newKeySet();
+          }
+          conversationWaiters.add(waiter);
+          return conversationWaiters;
+        });
+    Runnable wake = () -> {
+      remove(conversationId, waiter);
+      waiter.dispatch();
+    };
+    context.addListener(new AsyncListener() {
+      @Override
+      public void onTimeout(AsyncEvent event) {
+        wake.run();
+      }
+
+      @Override
+      public void onError(AsyncEvent event) {
+        remove(conversationId, waiter);
+      }
+
+      @Override
+      public void onComplete(AsyncEvent event) {
+        remove(conversationId, waiter);
+      }
+
+      @Override
+      public void onStartAsync(AsyncEvent event) {}
+    });
+    return wake;
+  }
+
+  /** Wakes every request waiting on the Message's Conversation. */
+  @Override
+  public void messageAdded(Message message) {
+    // every waiter is woken, so the whole entry goes; later requests start a new one
+    Set<Waiter> conversationWaiters = waiters.remove(message.getConversationId());
+    if (conversationWaiters == null) {
+      return;
+    }
+    for (Waiter waiter : conversationWaiters) {
+      waiter.dispatch();
+    }
+  }
+
+  /** Removes a request, and its Conversation's entry once no requests are left on it. */
+  private void remove(UUID conversationId, Waiter waiter) {
+    waiters.computeIfPresent(
+        conversationId,
+        (id, conversationWaiters) -> {
+          conversationWaiters.remove(waiter);
+          return conversationWaiters.isEmpty() ? null : conversationWaiters;
+        });
+  }
+
+  /** Returns the number of Conversations with requests waiting on them. */
+  int getConversationCount() {
+    return waiters.size();
+  }
+
+  /** Returns the number of requests waiting for new Messages. */
+  int getWaitingCount() {
+    int count = 0;
+    for (Set<Waiter> conversationWaiters : waiters.values()) {
+      count += conversationWaiters.size();
+    }
+    return count;
+  }
+}
@@ -57,6 +57,7 @@ public class RegisterServlet extends HttpServlet {
       return;
     }
 
+    // checked first to skip hashing the password in the common case
     if (userStore.isUserRegistered(username)) {
       request.setAttribute("error", "That username is already taken.");
       request.getRequestDispatcher("/WEB-INF/view/register.jsp").forward(request, response);
@@ -69,7 +70,12 @@ public class RegisterServlet extends HttpServlet {
     String bio = request.getParameter("bio");
 
     User user = new User(UUID.randomUUID(), username, hashedPassword, Instant.now(), bio, language);
-    userStore.addUser(user);
+    if (!userStore.addUserIfAbsent(user)) {
+      // someone else registered the name since the check above
+      request.setAttribute("error", "That username is already taken.");
+      request.getRequestDispatcher("/WEB-INF/view/register.jsp").forward(request, response);
+      return;
+    }
 
     response.sendRedirect("/login");
   }
@@ -10,7 +10,29 @@ import codeu.model.store.basic.MessageStore;
 import codeu.model.store.basic.UserStore;
 import codeu.model.store.persistence.PersistentDataStoreException;
 import codeu.model.store.persistence.PersistentStorageAgent;
+import codeu.model.store.persistence.StoreSnapshot;
+import codeu.translation.PreTranslator;
+import codeu.translation.TranslationService;
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
@@ -20,30 +42,270 @@ import javax.servlet.ServletContextListener;
  */
 public class ServerStartupListener implements ServletContextListener {
 
-  /** Loads data from Datastore. */
+  /**
+   * System property that turns on write-behind batching of Datastore writes. Flushing needs a
+   * background thread, which App Engine only allows with manual or basic scaling.
+   */
+  static final String WRITE_BEHIND_PROPERTY = "codeu.writeBehind";
+
+  private static final int WRITE_BEHIND_MAX_QUEUE_DEPTH = 1000;
+  // Datastore accepts at most 500 entities per put
+  private static final int WRITE_BEHIND_BATCH_SIZE = 100;
+  private static final long WRITE_BEHIND_FLUSH_INTERVAL_MILLIS = 1000;
+
+  /**
+   * System property that turns on translating new Messages into their Conversation's languages as
+   * soon as they are sent. Like write-behind, this needs background threads.
+   */
+  static final String PRE_TRANSLATE_PROPERTY = "codeu.preTranslate";
+
+  private static final int PRE_TRANSLATE_THREADS = 2;
+  private static final int PRE_TRANSLATE_QUEUE_CAPACITY = 200;
+
+  /**
+   * System property that turns on the server-sent event streams of new Messages, which
+   * MessageStreamServlet serves. Streams need background threads too, and responses that are sent
+   * as they are written; without them, chat pages long-poll ChatServlet instead.
+   */
+  static final String STREAM_PROPERTY = "codeu.stream";
+
+  /**
+   * System property naming a local file to keep a snapshot of the stores in. When it is set, the
+   * snapshot is written when the server stops and read back when it starts, and only what changed
+   * in between is loaded from Datastore. Only useful where the server keeps its local disk between
+   * restarts and is the only instance writing to Datastore, such as local or self-hosted servers.
+   */
+  static final String SNAPSHOT_PATH_PROPERTY = "codeu.snapshot.path";
+
+  /**
+   * Loads data from Datastore. Each kind is loaded on its own thread, so startup takes as long as
+   * the slowest load rather than the sum of all of them. Messages are not loaded here; MessageStore
+   * loads each Conversation's history the first time it is requested.
+   *
+   * <p>If a snapshot file is configured and readable, Conversations, Activities and loaded
+   * Messages come from it instead, and only the ones created after it was written are loaded from
+   * Datastore.
+   */
   @Override
   public void contextInitialized(ServletContextEvent sce) {
-    try {
-      List<User> users = PersistentStorageAgent.getInstance().loadUsers();
-      UserStore.getInstance().setUsers(users);
+    PersistentStorageAgent persistentStorageAgent = PersistentStorageAgent.getInstance();
+    UserStore userStore = UserStore.getInstance();
+    ConversationStore conversationStore = ConversationStore.getInstance();
+    ActivityFeedStore activityFeedStore = ActivityFeedStore.getInstance();
+    MessageStore messageStore = MessageStore.getInstance();
 
-      List<Conversation> conversations = PersistentStorageAgent.getInstance().loadConversations();
-      ConversationStore.getInstance().setConversations(conversations);
+    try {
+      persistentStorageAgent.migrateTimes();
+    } catch (PersistentDataStoreException e) {
+      System.err.println("Server didn't start correctly. Stored times couldn't be rewritten!");
+      throw new RuntimeException(e);
+    }
 
-      List<Message> messages = PersistentStorageAgent.getInstance().loadMessages();
-      MessageStore.getInstance().setMessages(messages);
+    StoreSnapshot snapshot = readSnapshot();
 
-      List<Activity> activities = PersistentStorageAgent.getInstance().loadActivities();
-      ActivityFeedStore.getInstance().setActivities(activities);
+    List<Callable<Integer>> loads = new ArrayList<>();
+    loads.add(timed("users", () -> {
+      List<User> users = persistentStorageAgent.loadUsers();
+      userStore.setUsers(users);
+      return users.size();
+    }));
+    if (snapshot == null) {
+      loads.add(timed("conversations", () -> {
+        List<Conversation> conversations = persistentStorageAgent.loadConversations();
+        conversationStore.setConversations(conversations);
+        return conversations.size();
+      }));
+      loads.add(timed("activities", () -> {
+        // only the most recent activities are kept in memory; load one extra to learn whether
+        // there are older ones left in Datastore
+        int capacity = activityFeedStore.getCapacity();
+        List<Activity> activities = persistentStorageAgent.loadActivities(null, null, capacity + 1);
+        boolean moreInStorage = activities.size() > capacity;
+        if (moreInStorage) {
+          activities = activities.subList(0, capacity);
+        }
+        Collections.reverse(activities);
+        activityFeedStore.setActivities(activities, moreInStorage);
+        return activities.size();
+      }));
+    } else {
+      Instant watermark = snapshot.getWatermark();
+      loads.add(timed("new conversations", () -> {
+        List<Conversation> newer = persistentStorageAgent.loadConversationsCreatedAfter(watermark);
+        List<Conversation> conversations = new ArrayList<>(snapshot.getConversations());
+        conversations.addAll(newer);
+        conversationStore.setConversations(conversations);
+        return newer.size();
+      }));
+      loads.add(timed("new activities", () -> {
+        List<Activity> newer = persistentStorageAgent.loadActivitiesAfter(watermark);
+        List<Activity> activities = new ArrayList<>(snapshot.getActivities());
+        activities.addAll(newer);
+        activityFeedStore.setActivities(activities, snapshot.hasOlderActivitiesInStorage());
+        return newer.size();
+      }));
+      loads.add(timed("new messages", () -> {
+        // histories that weren't in the snapshot are loaded in full when first requested, so only
+        // the ones that were need to catch up
+        Map<UUID, List<Message>> histories = new HashMap<>();
+        for (Map.Entry<UUID, List<Message>> entry : snapshot.getHistories().entrySet()) {
+          histories.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        List<Message> newer = persistentStorageAgent.loadMessagesCreatedAfter(watermark);
+        for (Message message : newer) {
+          List<Message> history = histories.get(message.getConversationId());
+          if (history != null) {
+            history.add(message);
+          }
+        }
+        messageStore.setHistories(histories);
+        return newer.size();
+      }));
+    }
 
-    } catch (PersistentDataStoreException e) {
+    long start = System.nanoTime();
+    ExecutorService executor = Executors.newFixedThreadPool(loads.size(), loaderThreadFactory());
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (Callable<Integer> load : loads) {
+        results.add(executor.submit(load));
+      }
+      for (Future<Integer> result : results) {
+        result.get();
+      }
+    } catch (ExecutionException e) {
       System.err.println("Server didn't start correctly. An error occurred during Datastore load!");
       System.err.println("This is usually caused by loading data that's in an invalid format.");
       System.err.println("Check the stack trace to see exactly what went wrong.");
+      throw new RuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       throw new RuntimeException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+    System.out.println("Loaded all data in " + elapsedMillis(start) + " ms");
+
+    if (Boolean.getBoolean(WRITE_BEHIND_PROPERTY)) {
+      persistentStorageAgent.enableWriteBehind(
+          WRITE_BEHIND_MAX_QUEUE_DEPTH,
+          WRITE_BEHIND_BATCH_SIZE,
+          WRITE_BEHIND_FLUSH_INTERVAL_MILLIS,
+          backgroundThreadFactory());
+      System.out.println("Write-behind enabled");
+    }
+
+    if (Boolean.getBoolean(PRE_TRANSLATE_PROPERTY)) {
+      PreTranslator.getInstance()
+          .start(
+              TranslationService.getInstance(),
+              PRE_TRANSLATE_THREADS,
+              PRE_TRANSLATE_QUEUE_CAPACITY,
+              backgroundThreadFactory());
+      System.out.println("Pre-translation enabled");
     }
   }
 
+  /**
+   * Stops pre-translation and writes anything still waiting in the write-behind queue before the
+   * server stops, then saves a snapshot of the stores if one is configured.
+   */
   @Override
-  public void contextDestroyed(ServletContextEvent sce) {}
+  public void contextDestroyed(ServletContextEvent sce) {
+    PreTranslator.getInstance().shutdown(5, TimeUnit.SECONDS);
+    try {
+      PersistentStorageAgent.getInstance().shutdown();
+    } catch (RuntimeException e) {
+      // the snapshot is written to local disk, so it can still be saved
+      System.err.println("Couldn't write everything in the write-behind queue.");
+      e.printStackTrace();
+    }
+    writeSnapshot();
+  }
+
+  /**
+   * Reads the configured snapshot file, or returns null if there is none or it can't be used, in
+   * which case everything is loaded from Datastore.
+   */
+  private static StoreSnapshot readSnapshot() {
+    Path path = snapshotPath();
+    if (path == null || !Files.exists(path)) {
+      return null;
+    }
+    long start = System.nanoTime();
+    try {
+      StoreSnapshot snapshot = StoreSnapshot.readFrom(path);
+      System.out.println("Read snapshot " + path + " in " + elapsedMillis(start) + " ms");
+      return snapshot;
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Couldn't read snapshot " + path + "; loading from Datastore instead.");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private static void writeSnapshot() {
+    Path path = snapshotPath();
+    if (path == null) {
+      return;
+    }
+    long start = System.nanoTime();
+    ActivityFeedStore activityFeedStore = ActivityFeedStore.getInstance();
+    List<Activity> activities = activityFeedStore.getFeed();
+    Collections.reverse(activities);
+    StoreSnapshot snapshot =
+        new StoreSnapshot(
+            ConversationStore.getInstance().getAllConversations(),
+            activities,
+            activityFeedStore.hasOlderInStorage(),
+            MessageStore.getInstance().getLoadedHistories());
+    try {
+      snapshot.writeTo(path);
+      System.out.println("Wrote snapshot " + path + " in " + elapsedMillis(start) + " ms");
+    } catch (IOException e) {
+      System.err.println("Couldn't write snapshot " + path + ".");
+      e.printStackTrace();
+    }
+  }
+
+  private static Path snapshotPath() {
+    String path = System.getProperty(SNAPSHOT_PATH_PROPERTY);
+    return path == null || path.isEmpty() ? null : Paths.get(path);
+  }
+
+  /** Wraps a load so that it reports how many entities it loaded and how long that took. */
+  private static Callable<Integer> timed(String kind, Callable<Integer> load) {
+    return () -> {
+      long start = System.nanoTime();
+      int count = load.call();
+      System.out.println("Loaded " + count + " " + kind + " in " + elapsedMillis(start) + " ms");
+      return count;
+    };
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * On App Engine, only threads created through ThreadManager may call Datastore. Outside of an App
+   * Engine request there is no such restriction, so plain threads are used.
+   */
+  private static ThreadFactory loaderThreadFactory() {
+    if (ApiProxy.getCurrentEnvironment() != null) {
+      return ThreadManager.currentRequestThreadFactory();
+    }
+    return Executors.defaultThreadFactory();
+  }
+
+  /**
+   * The write-behind flusher, pre-translation and message stream threads outlive the request that
+   * starts them, so on App Engine they must be background threads.
+   */
+  static ThreadFactory backgroundThreadFactory() {
+    if (ApiProxy.getCurrentEnvironment() != null) {
+      return ThreadManager.backgroundThreadFactory();
+    }
+    return Executors.defaultThreadFactory();
+  }
 }
@@ -1,20 +1,40 @@
 package codeu.model.data;
 
 import java.time.Instant;
+import java.util.Comparator;
+import java.util.UUID;
 
 /**
  * Created by CostaA17 on 5/18/18.
  */
 public class Activity {
+
+    /**
+     * The order the feed is shown in: newest first, with activities that happened at the same time
+     * ordered by ID, so that every activity has a distinct place to page from.
+     */
+    public static final Comparator<Activity> NEWEST_FIRST =
+            Comparator.comparing(Activity::getTime).thenComparing(Activity::getId).reversed();
+
+    private final UUID id;
     private final String event;
     private final Instant time;
     //other things could be stored in future, such as a url to see it
 
     public Activity(String event, Instant time) {
+        this(UUID.randomUUID(), event, time);
+    }
+
+    public Activity(UUID id, String event, Instant time) {
+        this.id = id;
         this.event = event;
         this.time = time;
     }
 
+    public UUID getId() {
+        return id;
+    }
+
     public String getEvent() {
         return event;
     }
@@ -23,4 +43,16 @@ public class Activity {
         return time;
     }
 
+    /**
+     * Returns true if this activity comes after the given cursor in {@link #NEWEST_FIRST} order,
+     * meaning it happened before the cursor's time, or at that time with a lower ID.
+     *
+     * @param time the time of the cursor
+     * @param id the ID of the cursor, or null to only compare times
+     */
+    public boolean isOlderThan(Instant time, UUID id) {
+        int order = this.time.compareTo(time);
+        return order < 0 || (order == 0 && id != null && this.id.compareTo(id) < 0);
+    }
+
 }
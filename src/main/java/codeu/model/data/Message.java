@@ -25,9 +25,10 @@ public class Message {
   private final UUID author;
   private final String content;
   private final Instant creation;
+  private final String language;
 
   /**
-   * Constructs a new Message.
+   * Constructs a new Message whose language is not known.
    *
    * @param id the ID of this Message
    * @param conversation the ID of the Conversation this Message belongs to
@@ -36,11 +37,28 @@ public class Message {
    * @param creation the creation time of this Message
    */
   public Message(UUID id, UUID conversation, UUID author, String content, Instant creation) {
+    this(id, conversation, author, content, creation, null);
+  }
+
+  /**
+   * Constructs a new Message.
+   *
+   * @param id the ID of this Message
+   * @param conversation the ID of the Conversation this Message belongs to
+   * @param author the ID of the User who sent this Message
+   * @param content the text content of this Message
+   * @param creation the creation time of this Message
+   * @param language the code of the language the content is written in, or null if it is not
+   *     known
+   */
+  public Message(
+      UUID id, UUID conversation, UUID author, String content, Instant creation, String language) {
     this.id = id;
     this.conversation = conversation;
     this.author = author;
     this.content = content;
     this.creation = creation;
+    this.language = language;
   }
 
   /** Returns the ID of this Message. */
@@ -67,4 +85,12 @@ public class Message {
   public Instant getCreationTime() {
     return creation;
   }
+
+  /**
+   * Returns the code of the language the content is written in, or null if it was not detected
+   * when this Message was sent.
+   */
+  public String getLanguage() {
+    return language;
+  }
 }
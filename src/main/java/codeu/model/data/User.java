@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class representing a registered user.
@@ -33,7 +34,8 @@ public class User {
     private final Instant creation;
     private final String bio;
     private final String language;
-    private Set<String> friends;
+    // added to and read by concurrent requests, so it must be a concurrent set
+    private final Set<String> friends = ConcurrentHashMap.newKeySet();
     private UserStore userStore;
 
 
@@ -55,7 +57,7 @@ public class User {
         this.creation = creation;
         this.bio = bio;
         this.language = language;
-        this.friends = friends;
+        this.friends.addAll(friends);
         userStore = UserStore.getInstance();
 
     }
@@ -1,26 +1,36 @@
 package codeu.model.store.basic;
 
 import codeu.model.data.Activity;
+import codeu.model.store.persistence.PersistentDataStoreException;
 import codeu.model.store.persistence.PersistentStorageAgent;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Created by CostaA17 on 5/18/18.
+ *
+ * <p>Keeps only the most recent events in memory, in a fixed-size ring buffer. Pages that reach
+ * past the oldest event in memory are read from Datastore on demand.
  */
 public class ActivityFeedStore {
-    /* Singleton instance of ActivityFeedStore. */
-    private static ActivityFeedStore instance;
+
+    /** Number of recent events kept in memory by default. */
+    public static final int DEFAULT_CAPACITY = 500;
+
+    /* Holds the singleton instance of ActivityFeedStore, created on first use. */
+    private static class InstanceHolder {
+        private static final ActivityFeedStore INSTANCE =
+                new ActivityFeedStore(PersistentStorageAgent.getInstance(), DEFAULT_CAPACITY);
+    }
 
     /**
      * Returns the singleton instance of ActivityFeedStore that should be shared between all servlet classes.
      * Do not call this function from a test; use getTestInstance() instead.
      */
     public static ActivityFeedStore getInstance() {
-        if (instance == null) {
-            instance = new ActivityFeedStore(PersistentStorageAgent.getInstance());
-        }
-        return instance;
+        return InstanceHolder.INSTANCE;
     }
 
     /**
@@ -29,7 +39,18 @@ public class ActivityFeedStore {
      * @param persistentStorageAgent a mock used for testing
      */
     public static ActivityFeedStore getTestInstance(PersistentStorageAgent persistentStorageAgent) {
-        return new ActivityFeedStore(persistentStorageAgent);
+        return new ActivityFeedStore(persistentStorageAgent, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instance getter function used for testing with a small in-memory window.
+     *
+     * @param persistentStorageAgent a mock used for testing
+     * @param capacity the number of recent events to keep in memory
+     */
+    public static ActivityFeedStore getTestInstance(PersistentStorageAgent persistentStorageAgent,
+                                                    int capacity) {
+        return new ActivityFeedStore(persistentStorageAgent, capacity);
     }
 
     /**
@@ -37,30 +58,131 @@ public class ActivityFeedStore {
      */
     private PersistentStorageAgent persistentStorageAgent;
 
-    /** The in-memory list of Activity events. */
-    private List<Activity> activities;
+    /** Ring buffer of the most recent Activity events. Guarded by this. */
+    private final Activity[] window;
+
+    /** Index in the ring buffer where the next event will be written. Guarded by this. */
+    private int next;
+
+    /** Number of events currently in the ring buffer. Guarded by this. */
+    private int count;
+
+    /**
+     * True once an event has been dropped from the window, or was never loaded into it, meaning
+     * older events may only be found in Datastore. Guarded by this.
+     */
+    private boolean truncated;
 
     /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
-    private ActivityFeedStore(PersistentStorageAgent persistentStorageAgent) {
+    private ActivityFeedStore(PersistentStorageAgent persistentStorageAgent, int capacity) {
         this.persistentStorageAgent = persistentStorageAgent;
-        activities = new ArrayList<>();
+        window = new Activity[capacity];
+    }
+
+    /** Returns the number of recent events this store keeps in memory. */
+    public int getCapacity() {
+        return window.length;
     }
 
     /**
-     * Access the list of activities
+     * Returns true if Datastore may hold events older than the ones kept in memory.
+     */
+    public synchronized boolean hasOlderInStorage() {
+        return truncated;
+    }
+
+    /**
+     * Access the recent activities held in memory.
      *
-     * @return a list of existing activities sorted by the time they happened
+     * @return a list of the most recent activities, newest first
      */
     public List<Activity> getFeed() {
-        return activities;
+        return getFeed(window.length);
     }
 
     /**
-     * Sets the List of Activities stored by this ActivityFeedStore. This should only be called once, when the data
-     * is loaded from Datastore.
+     * Access the first page of the feed.
+     *
+     * @param limit the maximum number of activities to return
+     * @return a list of the most recent activities, newest first
+     */
+    public List<Activity> getFeed(int limit) {
+        return getFeedBefore(null, null, limit);
+    }
+
+    /**
+     * Access a page of the feed that starts just after the given cursor, which is the time and ID
+     * of the last activity on the previous page. The ID breaks ties between activities that
+     * happened at the same time, so none of them are skipped between pages. Events still held in
+     * memory are served from there; the rest of the page, if any, is read from Datastore.
+     *
+     * @param before the time of the cursor, or null for the most recent activities
+     * @param beforeId the ID of the cursor, or null to return only activities that happened
+     *     strictly before its time
+     * @param limit the maximum number of activities to return
+     * @return a list of activities, in {@link Activity#NEWEST_FIRST} order
+     */
+    public List<Activity> getFeedBefore(Instant before, UUID beforeId, int limit) {
+        List<Activity> page = new ArrayList<>();
+        boolean mayHaveOlder;
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                Activity activity = window[Math.floorMod(next - 1 - i, window.length)];
+                if (before == null || activity.isOlderThan(before, beforeId)) {
+                    page.add(activity);
+                }
+            }
+            mayHaveOlder = truncated;
+        }
+        // events are appended in about time order, but ties and late appends need sorting
+        page.sort(Activity.NEWEST_FIRST);
+        if (page.size() > limit) {
+            page = new ArrayList<>(page.subList(0, limit));
+        }
+
+        if (page.size() < limit && mayHaveOlder) {
+            Instant cursor = before;
+            UUID cursorId = beforeId;
+            if (!page.isEmpty()) {
+                cursor = page.get(page.size() - 1).getTime();
+                cursorId = page.get(page.size() - 1).getId();
+            }
+            try {
+                page.addAll(
+                        persistentStorageAgent.loadActivities(
+                                cursor, cursorId, limit - page.size()));
+            } catch (PersistentDataStoreException e) {
+                System.err.println("Couldn't load older activity from Datastore.");
+                e.printStackTrace();
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Sets the Activities stored by this ActivityFeedStore. This should only be called once, when
+     * the data is loaded from Datastore. Only the most recent events that fit in the in-memory
+     * window are kept.
+     *
+     * @param activities the activities sorted by the time they happened, oldest first
+     * @param moreInStorage true if Datastore holds events older than the given ones
+     */
+    public synchronized void setActivities(List<Activity> activities, boolean moreInStorage) {
+        int skip = Math.max(0, activities.size() - window.length);
+        count = 0;
+        next = 0;
+        for (Activity activity : activities.subList(skip, activities.size())) {
+            append(activity);
+        }
+        truncated = moreInStorage || skip > 0;
+    }
+
+    /**
+     * Sets the Activities stored by this ActivityFeedStore, assuming they are the complete
+     * history. See {@link #setActivities(List, boolean)}.
      */
     public void setActivities(List<Activity> activities) {
-        this.activities = activities;
+        setActivities(activities, false);
     }
 
     /**
@@ -68,8 +190,21 @@ public class ActivityFeedStore {
      * to add a new activity, not to update an existing activity.
      */
     public void addActivity(Activity activity) {
-        activities.add(activity);
+        synchronized (this) {
+            append(activity);
+        }
         persistentStorageAgent.writeThrough(activity);
     }
 
+    /** Writes an event into the ring buffer, dropping the oldest one if it is full. */
+    private void append(Activity activity) {
+        if (count == window.length) {
+            truncated = true;
+        } else {
+            count++;
+        }
+        window[next] = activity;
+        next = (next + 1) % window.length;
+    }
+
 }
@@ -0,0 +1,114 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.model.store.basic;
+
+import codeu.model.data.Message;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only history of the Messages in a single Conversation, in the order they were added.
+ * Appends are serialized, but reads never block: a reader sees every Message whose append
+ * completed before the read started.
+ *
+ * <p>A history starts out unloaded, and the Messages already in storage are added once by {@link
+ * #load(List)} before it is used.
+ */
+class ConversationHistory {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Backing array. Replaced with a larger copy when full; slots below size are never changed. */
+  private volatile Message[] messages = new Message[INITIAL_CAPACITY];
+
+  /** Number of published Messages. Written after the Message it covers has been stored. */
+  private volatile int size;
+
+  /** Position of each Message in this history, keyed by Message ID. */
+  private final Map<UUID, Integer> positions = new ConcurrentHashMap<>();
+
+  /** Whether the Messages already in storage have been added to this history. */
+  private volatile boolean loaded;
+
+  /** Returns true if the Messages already in storage have been added to this history. */
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Adds the Messages already in storage, oldest first, ahead of anything appended later, and
+   * marks this history as loaded.
+   */
+  synchronized void load(List<Message> storedMessages) {
+    for (Message message : storedMessages) {
+      append(message);
+    }
+    loaded = true;
+  }
+
+  /**
+   * Adds a Message to the end of this history.
+   *
+   * @return the position of the Message
+   */
+  synchronized int append(Message message) {
+    int position = size;
+    if (position == messages.length) {
+      messages = Arrays.copyOf(messages, position * 2);
+    }
+    messages[position] = message;
+    positions.put(message.getId(), position);
+    size = position + 1;
+    return position;
+  }
+
+  /** Returns the number of Messages in this history. */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the position of the Message with the given ID, or -1 if it is not in this history.
+   */
+  int positionOf(UUID messageId) {
+    Integer position = positions.get(messageId);
+    return position == null ? -1 : position;
+  }
+
+  /** Copies out every Message in this history. */
+  List<Message> getAll() {
+    return copy(0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Copies the Messages in positions [from, to) out of this history, clamping the range to the
+   * Messages published so far.
+   */
+  List<Message> copy(long from, long to) {
+    // read size before the array so that every slot below it is visible
+    int published = size;
+    Message[] snapshot = messages;
+    int start = (int) Math.max(0, from);
+    int end = (int) Math.min(published, to);
+    if (start >= end) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(Arrays.asList(snapshot).subList(start, end));
+  }
+}
@@ -20,9 +20,13 @@ import codeu.model.data.User;
 import codeu.model.store.persistence.PersistentStorageAgent;
 
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Store class that uses in-memory data structures to hold values and automatically loads from and
@@ -31,21 +35,22 @@ import java.util.UUID;
  */
 public class ConversationStore {
 
-  /** Singleton instance of ConversationStore. */
-  private static ConversationStore instance;
+  /** Holds the singleton instance of ConversationStore, created on first use. */
+  private static class InstanceHolder {
+    private static final ConversationStore INSTANCE =
+        new ConversationStore(PersistentStorageAgent.getInstance());
+  }
+
+  private ActivityFeedStore activityFeedStore;
 
-  private static ActivityFeedStore activityFeedStore;
+  private UserStore userStore;
 
-  private static UserStore userStore;
   /**
    * Returns the singleton instance of ConversationStore that should be shared between all servlet
    * classes. Do not call this function from a test; use getTestInstance() instead.
    */
   public static ConversationStore getInstance() {
-    if (instance == null) {
-      instance = new ConversationStore(PersistentStorageAgent.getInstance());
-    }
-    return instance;
+    return InstanceHolder.INSTANCE;
   }
 
   /**
@@ -67,13 +72,27 @@ public class ConversationStore {
    */
   private PersistentStorageAgent persistentStorageAgent;
 
-  /** The in-memory list of Conversations. */
-  private List<Conversation> conversations;
+  /**
+   * The in-memory list of Conversations. Copied on write, so it can be iterated while
+   * Conversations are added.
+   */
+  private volatile List<Conversation> conversations;
+
+  /** Index of the in-memory Conversations by title. Also used to reserve titles atomically. */
+  private volatile ConcurrentMap<String, Conversation> conversationsByTitle;
+
+  /** Index of the in-memory Conversations by ID. */
+  private volatile Map<UUID, Conversation> conversationsById;
+
+  /** When a Conversation was last added. */
+  private final AtomicReference<Instant> lastModified = new AtomicReference<>(Instant.EPOCH);
 
   /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
   private ConversationStore(PersistentStorageAgent persistentStorageAgent) {
     this.persistentStorageAgent = persistentStorageAgent;
-    conversations = new ArrayList<>();
+    conversations = new CopyOnWriteArrayList<>();
+    conversationsByTitle = new ConcurrentHashMap<>();
+    conversationsById = new ConcurrentHashMap<>();
     activityFeedStore = ActivityFeedStore.getInstance();
     userStore = UserStore.getInstance();
   }
@@ -85,7 +104,40 @@ public class ConversationStore {
 
   /** Add a new conversation to the current set of conversations known to the application. */
   public void addConversation(Conversation conversation) {
+    conversationsByTitle.put(conversation.getTitle(), conversation);
+    index(conversation);
+    persist(conversation);
+  }
+
+  /**
+   * Add a new conversation unless its title is already taken. Checking the title and reserving it
+   * happen as one step, so two requests creating the same title cannot both succeed.
+   *
+   * @return true if the conversation was added, false if the title was already taken
+   */
+  public boolean addConversationIfAbsent(Conversation conversation) {
+    if (conversationsByTitle.putIfAbsent(conversation.getTitle(), conversation) != null) {
+      return false;
+    }
+    index(conversation);
+    persist(conversation);
+    return true;
+  }
+
+  /** Adds a conversation whose title is already indexed to the in-memory list and ID index. */
+  private void index(Conversation conversation) {
+    conversationsById.put(conversation.getId(), conversation);
     conversations.add(conversation);
+    touch(Instant.now());
+  }
+
+  /** Moves the last modified time forward to the given time, unless it is already later. */
+  private void touch(Instant time) {
+    lastModified.accumulateAndGet(time, (current, next) -> next.isAfter(current) ? next : current);
+  }
+
+  /** Writes a newly added conversation through to storage and records its creation. */
+  private void persist(Conversation conversation) {
     persistentStorageAgent.writeThrough(conversation);
     User user = userStore.getUser(conversation.getOwnerId());
     if (user != null) {
@@ -95,25 +147,22 @@ public class ConversationStore {
     }
   }
 
+  /**
+   * Returns when the set of Conversations last changed. For Conversations that were loaded rather
+   * than added since the server started, this is the latest of their creation times.
+   */
+  public Instant getLastModified() {
+    return lastModified.get();
+  }
+
   /** Check whether a Conversation title is already known to the application. */
   public boolean isTitleTaken(String title) {
-    // This approach will be pretty slow if we have many Conversations.
-    for (Conversation conversation : conversations) {
-      if (conversation.getTitle().equals(title)) {
-        return true;
-      }
-    }
-    return false;
+    return conversationsByTitle.containsKey(title);
   }
 
   /** Find and return the Conversation with the given title. */
   public Conversation getConversationWithTitle(String title) {
-    for (Conversation conversation : conversations) {
-      if (conversation.getTitle().equals(title)) {
-        return conversation;
-      }
-    }
-    return null;
+    return conversationsByTitle.get(title);
   }
 
   /**
@@ -122,17 +171,25 @@ public class ConversationStore {
    * @return null if the UUID does not match any existing Conversation.
    */
   public Conversation getConversation(UUID id) {
-    for (Conversation conversation : conversations) {
-      if (conversation.getId().equals(id)) {
-        return conversation;
-      }
-    }
-    return null;
+    return conversationsById.get(id);
   }
 
   /** Sets the List of Conversations stored by this ConversationStore. */
   public void setConversations(List<Conversation> conversations) {
-    this.conversations = conversations;
+    ConcurrentMap<String, Conversation> byTitle = new ConcurrentHashMap<>();
+    Map<UUID, Conversation> byId = new ConcurrentHashMap<>();
+    Instant latest = Instant.EPOCH;
+    for (Conversation conversation : conversations) {
+      byTitle.put(conversation.getTitle(), conversation);
+      byId.put(conversation.getId(), conversation);
+      if (conversation.getCreationTime().isAfter(latest)) {
+        latest = conversation.getCreationTime();
+      }
+    }
+    this.conversations = new CopyOnWriteArrayList<>(conversations);
+    this.conversationsByTitle = byTitle;
+    this.conversationsById = byId;
+    this.lastModified.set(latest);
   }
 
   /**
@@ -0,0 +1,27 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.model.store.basic;
+
+import codeu.model.data.Message;
+
+/** Notified of each Message added to a MessageStore, for example to push it to waiting clients. */
+public interface MessageListener {
+
+  /**
+   * Called after the Message has been added, on the thread that added it. Implementations should
+   * return quickly and hand any slow work to another thread.
+   */
+  void messageAdded(Message message);
+}
@@ -18,12 +18,18 @@ import codeu.model.data.Activity;
 import codeu.model.data.Conversation;
 import codeu.model.data.Message;
 import codeu.model.data.User;
+import codeu.model.store.persistence.PersistentDataStoreException;
 import codeu.model.store.persistence.PersistentStorageAgent;
+import codeu.translation.PreTranslator;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Store class that uses in-memory data structures to hold values and automatically loads from and
@@ -32,24 +38,29 @@ import java.util.UUID;
  */
 public class MessageStore {
 
-  /** Singleton instance of MessageStore. */
-  private static MessageStore instance;
+  /** Holds the singleton instance of MessageStore, created on first use. */
+  private static class InstanceHolder {
+    private static final MessageStore INSTANCE =
+        new MessageStore(PersistentStorageAgent.getInstance());
+  }
+
+  private ActivityFeedStore activityFeedStore;
+
+  private UserStore userStore;
+
+  private ConversationStore conversationStore;
 
-  private static ActivityFeedStore activityFeedStore;
+  private PreTranslator preTranslator;
 
-  private static UserStore userStore;
+  /** Notified of each Message added. */
+  private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
 
-  private static ConversationStore conversationStore;
   /**
    * Returns the singleton instance of MessageStore that should be shared between all servlet
    * classes. Do not call this function from a test; use getTestInstance() instead.
    */
   public static MessageStore getInstance() {
-    if (instance == null) {
-      activityFeedStore = ActivityFeedStore.getInstance();
-      instance = new MessageStore(PersistentStorageAgent.getInstance());
-    }
-    return instance;
+    return InstanceHolder.INSTANCE;
   }
 
   /**
@@ -65,8 +76,7 @@ public class MessageStore {
     inst.setActivityFeedStore(activityFeedStore);
     inst.setConversationStore(conversationStore);
     inst.setUserStore(userStore);
-    return new MessageStore(persistentStorageAgent);
-
+    return inst;
   }
 
   /**
@@ -75,8 +85,11 @@ public class MessageStore {
    */
   private PersistentStorageAgent persistentStorageAgent;
 
-  /** The in-memory list of Messages. */
-  private List<Message> messages;
+  /**
+   * The in-memory Messages, as one append-only history per Conversation ID. A Conversation's
+   * history is loaded from storage the first time it is used and then kept here.
+   */
+  private volatile Map<UUID, ConversationHistory> histories;
 
   /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
   private MessageStore(PersistentStorageAgent persistentStorageAgent) {
@@ -84,14 +97,24 @@ public class MessageStore {
     activityFeedStore = ActivityFeedStore.getInstance();
     userStore = UserStore.getInstance();
     conversationStore = ConversationStore.getInstance();
-    messages = new ArrayList<>();
+    preTranslator = PreTranslator.getInstance();
+    histories = new ConcurrentHashMap<>();
   }
 
   /** Add a new message to the current set of messages known to the application. */
   public void addMessage(Message message) {
-    messages.add(message);
+    historyOf(message.getConversationId()).append(message);
     persistentStorageAgent.writeThrough(message);
     User user = userStore.getUser(message.getAuthorId());
+    preTranslator.messageAdded(message, user == null ? null : user.getLanguage());
+    for (MessageListener listener : listeners) {
+      try {
+        listener.messageAdded(message);
+      } catch (RuntimeException e) {
+        // the Message is already stored, so one failing listener shouldn't fail the request
+        System.err.println("Message listener failed: " + e.getMessage());
+      }
+    }
     Conversation conversation = conversationStore.getConversation(message.getConversationId());
     if (user != null && conversation != null ) {
       String event = user.getName() + " sent a message to the conversation: <a href= \"/chat/"
@@ -102,21 +125,135 @@ public class MessageStore {
 
   /** Access the current set of Messages within the given Conversation. */
   public List<Message> getMessagesInConversation(UUID conversationId) {
+    return historyOf(conversationId).getAll();
+  }
 
-    List<Message> messagesInConversation = new ArrayList<>();
-
+  /**
+   * Sets the List of Messages stored by this MessageStore. The Messages are indexed by Conversation
+   * in a single pass, keeping the order of the given List within each Conversation. Conversations
+   * that appear in the List are treated as fully loaded; any others are still loaded from storage
+   * when first used.
+   */
+  public void setMessages(List<Message> messages) {
+    Map<UUID, List<Message>> byConversation = new HashMap<>();
     for (Message message : messages) {
-      if (message.getConversationId().equals(conversationId)) {
-        messagesInConversation.add(message);
+      byConversation.computeIfAbsent(message.getConversationId(), id -> new ArrayList<>())
+          .add(message);
+    }
+    setHistories(byConversation);
+  }
+
+  /**
+   * Sets the Messages of the given Conversations, replacing everything this MessageStore holds.
+   * Each given Conversation is treated as fully loaded, even if its List is empty; any others are
+   * still loaded from storage when first used.
+   *
+   * @param messagesByConversation the Messages of each Conversation, oldest first
+   */
+  public void setHistories(Map<UUID, List<Message>> messagesByConversation) {
+    Map<UUID, ConversationHistory> index = new ConcurrentHashMap<>();
+    for (Map.Entry<UUID, List<Message>> entry : messagesByConversation.entrySet()) {
+      ConversationHistory history = new ConversationHistory();
+      history.load(entry.getValue());
+      index.put(entry.getKey(), history);
+    }
+    this.histories = index;
+  }
+
+  /**
+   * Access the Messages of every Conversation whose history has been loaded so far, oldest first.
+   * Conversations that have not been requested yet are left out.
+   */
+  public Map<UUID, List<Message>> getLoadedHistories() {
+    Map<UUID, List<Message>> loaded = new HashMap<>();
+    for (Map.Entry<UUID, ConversationHistory> entry : histories.entrySet()) {
+      if (entry.getValue().isLoaded()) {
+        loaded.put(entry.getKey(), entry.getValue().getAll());
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Returns the history of the given Conversation, loading it from storage the first time it is
+   * requested. Only callers asking for the same Conversation wait on a load.
+   */
+  private ConversationHistory historyOf(UUID conversationId) {
+    ConversationHistory history =
+        histories.computeIfAbsent(conversationId, id -> new ConversationHistory());
+    if (!history.isLoaded()) {
+      synchronized (history) {
+        if (!history.isLoaded()) {
+          try {
+            history.load(persistentStorageAgent.loadMessages(conversationId));
+          } catch (PersistentDataStoreException e) {
+            // leave the history unloaded so that the next request tries again
+            throw new RuntimeException(e);
+          }
+        }
       }
     }
+    return history;
+  }
 
-    return messagesInConversation;
+  /**
+   * Access the most recent Messages within the given Conversation, oldest first.
+   *
+   * @param limit the maximum number of Messages to return
+   */
+  public List<Message> getLatestMessages(UUID conversationId, int limit) {
+    ConversationHistory history = historyOf(conversationId);
+    long end = history.size();
+    return history.copy(end - limit, end);
   }
 
-  /** Sets the List of Messages stored by this MessageStore. */
-  public void setMessages(List<Message> messages) {
-    this.messages = messages;
+  /**
+   * Access the Messages sent just before the given Message within the given Conversation, oldest
+   * first.
+   *
+   * @param messageId the ID of the Message used as a cursor; it is not included in the result
+   * @param limit the maximum number of Messages to return
+   * @return an empty List if the cursor does not match a Message in the Conversation
+   */
+  public List<Message> getMessagesBefore(UUID conversationId, UUID messageId, int limit) {
+    ConversationHistory history = historyOf(conversationId);
+    int position = history.positionOf(messageId);
+    if (position < 0) {
+      return new ArrayList<>();
+    }
+    return history.copy((long) position - limit, position);
+  }
+
+  /**
+   * Access the Messages sent just after the given Message within the given Conversation, oldest
+   * first.
+   *
+   * @param messageId the ID of the Message used as a cursor; it is not included in the result
+   * @param limit the maximum number of Messages to return
+   * @return an empty List if the cursor does not match a Message in the Conversation
+   */
+  public List<Message> getMessagesAfter(UUID conversationId, UUID messageId, int limit) {
+    ConversationHistory history = historyOf(conversationId);
+    int position = history.positionOf(messageId);
+    if (position < 0) {
+      return new ArrayList<>();
+    }
+    return history.copy(position + 1L, position + 1L + limit);
+  }
+
+  /** Registers a listener to be notified of each Message added from now on. */
+  public void addMessageListener(MessageListener listener) {
+    listeners.add(listener);
+  }
+
+  /** Stops notifying a listener registered with addMessageListener. */
+  public void removeMessageListener(MessageListener listener) {
+    listeners.remove(listener);
+  }
+
+  /** Returns true if the given Message is in the given Conversation. */
+  public boolean containsMessage(UUID conversationId, UUID messageId) {
+    return historyOf(conversationId).positionOf(messageId) >= 0;
   }
 
   /**
@@ -142,4 +279,12 @@ public class MessageStore {
   public void setConversationStore(ConversationStore conversationStore) {
     this.conversationStore = conversationStore;
   }
+
+  /**
+   * Sets the PreTranslator used by this servlet. This function provides a common setup method for use
+   * by the test framework or the servlet's init() function.
+   */
+  public void setPreTranslator(PreTranslator preTranslator) {
+    this.preTranslator = preTranslator;
+  }
 }
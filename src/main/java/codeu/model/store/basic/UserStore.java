@@ -19,9 +19,11 @@ import codeu.model.data.User;
 import codeu.model.store.persistence.PersistentStorageAgent;
 
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Store class that uses in-memory data structures to hold values and automatically loads from and
@@ -30,19 +32,19 @@ import java.util.UUID;
  */
 public class UserStore {
 
-  /** Singleton instance of UserStore. */
-  private static UserStore instance;
+  /** Holds the singleton instance of UserStore, created on first use. */
+  private static class InstanceHolder {
+    private static final UserStore INSTANCE = new UserStore(PersistentStorageAgent.getInstance());
+  }
+
+  private ActivityFeedStore activityFeedStore;
 
-  private static ActivityFeedStore activityFeedStore;
   /**
    * Returns the singleton instance of UserStore that should be shared between all servlet classes.
    * Do not call this function from a test; use getTestInstance() instead.
    */
   public static UserStore getInstance() {
-    if (instance == null) {
-      instance = new UserStore(PersistentStorageAgent.getInstance());
-    }
-    return instance;
+    return InstanceHolder.INSTANCE;
   }
 
   /**
@@ -61,14 +63,22 @@ public class UserStore {
    */
   private PersistentStorageAgent persistentStorageAgent;
 
-  /** The in-memory list of Users. */
-  private List<User> users;
+  /** The in-memory list of Users. Copied on write, so it can be iterated while Users are added. */
+  private volatile List<User> users;
+
+  /** Index of the in-memory Users by username. */
+  private volatile Map<String, User> usersByName;
+
+  /** Index of the in-memory Users by ID. */
+  private volatile Map<UUID, User> usersById;
 
   /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
   private UserStore(PersistentStorageAgent persistentStorageAgent) {
     this.persistentStorageAgent = persistentStorageAgent;
     activityFeedStore = ActivityFeedStore.getInstance();
-    users = new ArrayList<>();
+    users = new CopyOnWriteArrayList<>();
+    usersByName = new ConcurrentHashMap<>();
+    usersById = new ConcurrentHashMap<>();
   }
 
   public List<User> getUsersList(){
@@ -81,13 +91,7 @@ public class UserStore {
    * @return null if username does not match any existing User.
    */
   public User getUser(String username) {
-    // This approach will be pretty slow if we have many users.
-    for (User user : users) {
-      if (user.getName().equals(username)) {
-        return user;
-      }
-    }
-    return null;
+    return usersByName.get(username);
   }
 
   /**
@@ -96,12 +100,7 @@ public class UserStore {
    * @return null if the UUID does not match any existing User.
    */
   public User getUser(UUID id) {
-    for (User user : users) {
-      if (user.getId().equals(id)) {
-        return user;
-      }
-    }
-    return null;
+    return usersById.get(id);
   }
 
   /**
@@ -109,35 +108,77 @@ public class UserStore {
    * to add a new user, not to update an existing user.
    */
   public void addUser(User user) {
-    users.add(user);
+    synchronized (this) {
+      users.add(user);
+      usersByName.put(user.getName(), user);
+      usersById.put(user.getId(), user);
+    }
+    persist(user);
+  }
+
+  /**
+   * Add a new user unless their username is already taken. Checking the username and reserving it
+   * happen as one step, so two requests registering the same username cannot both succeed.
+   *
+   * @return true if the user was added, false if the username was already taken
+   */
+  public boolean addUserIfAbsent(User user) {
+    synchronized (this) {
+      if (usersByName.putIfAbsent(user.getName(), user) != null) {
+        return false;
+      }
+      users.add(user);
+      usersById.put(user.getId(), user);
+    }
+    persist(user);
+    return true;
+  }
+
+  /** Writes a newly added user through to storage and records their joining. */
+  private void persist(User user) {
     persistentStorageAgent.writeThrough(user);
     activityFeedStore.addActivity(new Activity(user.getName() + " joined", Instant.now()));
-
   }
 
   /**
-   * Update an existing User.
+   * Update an existing User. If the given object is a different instance than the one held in
+   * memory, it replaces the old one in the list and in both indexes.
    */
   public void updateUser(User user) {
+    synchronized (this) {
+      User existing = usersById.get(user.getId());
+      if (existing != user) {
+        if (existing != null) {
+          users.remove(existing);
+          usersByName.remove(existing.getName());
+        }
+        users.add(user);
+        usersByName.put(user.getName(), user);
+        usersById.put(user.getId(), user);
+      }
+    }
     persistentStorageAgent.writeThrough(user);
   }
 
   /** Return true if the given username is known to the application. */
   public boolean isUserRegistered(String username) {
-    for (User user : users) {
-      if (user.getName().equals(username)) {
-        return true;
-      }
-    }
-    return false;
+    return usersByName.containsKey(username);
   }
 
   /**
    * Sets the List of Users stored by this UserStore. This should only be called once, when the data
    * is loaded from Datastore.
    */
-  public void setUsers(List<User> users) {
-    this.users = users;
+  public synchronized void setUsers(List<User> users) {
+    Map<String, User> byName = new ConcurrentHashMap<>();
+    Map<UUID, User> byId = new ConcurrentHashMap<>();
+    for (User user : users) {
+      byName.put(user.getName(), user);
+      byId.put(user.getId(), user);
+    }
+    this.users = new CopyOnWriteArrayList<>(users);
+    this.usersByName = byName;
+    this.usersById = byId;
   }
 
   /**
@@ -22,12 +22,21 @@ import codeu.model.store.persistence.PersistentDataStoreException;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Query.SortDirection;
 import org.json.JSONArray;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
 import java.util.*;
 
 /**
@@ -37,6 +46,31 @@ import java.util.*;
  */
 public class PersistentDataStore {
 
+  /**
+   * Format of the times stored in entities: ISO-8601 with a fraction of exactly nine digits.
+   * Datastore compares the strings, and {@link Instant#toString()} drops a zero fraction and
+   * shortens the rest, so "12:00:05Z" would sort after "12:00:05.300Z". With a fixed width, string
+   * order is time order.
+   */
+  private static final DateTimeFormatter TIME_FORMAT =
+      new DateTimeFormatterBuilder().appendInstant(9).toFormatter();
+
+  /**
+   * The properties, as {kind, property} pairs, whose times are queried or sorted on and so must be
+   * stored in {@link #TIME_FORMAT}.
+   */
+  private static final String[][] TIME_PROPERTIES = {
+    {"activity", "time"},
+    {"chat-conversations", "creation_time"},
+    {"chat-messages", "creation_time"}
+  };
+
+  /** Kind of the entities that record which stored times have been rewritten to a fixed width. */
+  private static final String MIGRATION_KIND = "migration";
+
+  /** The most entities Datastore accepts in one put. */
+  private static final int MAX_ENTITIES_PER_PUT = 500;
+
   // Handle to Google AppEngine's Datastore service.
   private DatastoreService datastore;
 
@@ -48,6 +82,60 @@ public class PersistentDataStore {
     datastore = DatastoreServiceFactory.getDatastoreService();
   }
 
+  /**
+   * Rewrites the times stored in the properties of {@link #TIME_PROPERTIES} in the fixed-width
+   * format, for entities written before it was used. Each property is only rewritten once; a marker
+   * entity records that it is done. This should be called on startup, before anything is loaded.
+   *
+   * @throws PersistentDataStoreException if an error was detected while rewriting
+   */
+  public void migrateTimes() throws PersistentDataStoreException {
+    for (String[] kindAndProperty : TIME_PROPERTIES) {
+      String kind = kindAndProperty[0];
+      String property = kindAndProperty[1];
+      Key marker =
+          KeyFactory.createKey(MIGRATION_KIND, "fixed-width-times:" + kind + "." + property);
+      try {
+        datastore.get(marker);
+        continue;
+      } catch (EntityNotFoundException e) {
+        // not rewritten yet
+      }
+      try {
+        List<Entity> rewritten = new ArrayList<>();
+        for (Entity entity : datastore.prepare(new Query(kind)).asIterable()) {
+          String stored = (String) entity.getProperty(property);
+          if (stored == null) {
+            continue;
+          }
+          String fixedWidth = toTimeString(Instant.parse(stored));
+          if (!fixedWidth.equals(stored)) {
+            entity.setProperty(property, fixedWidth);
+            rewritten.add(entity);
+          }
+          if (rewritten.size() == MAX_ENTITIES_PER_PUT) {
+            datastore.put(rewritten);
+            rewritten.clear();
+          }
+        }
+        if (!rewritten.isEmpty()) {
+          datastore.put(rewritten);
+        }
+        datastore.put(new Entity(marker));
+      } catch (Exception e) {
+        throw new PersistentDataStoreException(e);
+      }
+    }
+  }
+
+  /**
+   * Returns the time as it is stored in entities and compared in queries. See
+   * {@link #TIME_FORMAT}.
+   */
+  static String toTimeString(Instant time) {
+    return TIME_FORMAT.format(time);
+  }
+
   /**
    * Loads all User objects from the Datastore service and returns them in a List.
    *
@@ -101,11 +189,28 @@ public class PersistentDataStore {
    *     Datastore service
    */
   public List<Conversation> loadConversations() throws PersistentDataStoreException {
+    return loadConversationsCreatedAfter(null);
+  }
+
+  /**
+   * Loads the Conversation objects created strictly after the given time from the Datastore
+   * service and returns them in a List, sorted in ascending order by creation time.
+   *
+   * @param after the time to load from, or null to load every Conversation
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Conversation> loadConversationsCreatedAfter(Instant after)
+      throws PersistentDataStoreException {
 
     List<Conversation> conversations = new ArrayList<>();
 
-    // Retrieve all conversations from the datastore.
+    // Retrieve the conversations from the datastore.
     Query query = new Query("chat-conversations").addSort("creation_time", SortDirection.ASCENDING);
+    if (after != null) {
+      query.setFilter(
+          new FilterPredicate("creation_time", FilterOperator.GREATER_THAN, toTimeString(after)));
+    }
     PreparedQuery results = datastore.prepare(query);
 
     for (Entity entity : results.asIterable()) {
@@ -135,11 +240,28 @@ public class PersistentDataStore {
    *     Datastore service
    */
   public List<Message> loadMessages() throws PersistentDataStoreException {
+    return loadMessagesCreatedAfter(null);
+  }
+
+  /**
+   * Loads the Message objects created strictly after the given time, in every Conversation, from
+   * the Datastore service and returns them in a List, sorted in ascending order by creation time.
+   *
+   * @param after the time to load from, or null to load every Message
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Message> loadMessagesCreatedAfter(Instant after)
+      throws PersistentDataStoreException {
 
     List<Message> messages = new ArrayList<>();
 
-    // Retrieve all messages from the datastore.
+    // Retrieve the messages from the datastore.
     Query query = new Query("chat-messages").addSort("creation_time", SortDirection.ASCENDING);
+    if (after != null) {
+      query.setFilter(
+          new FilterPredicate("creation_time", FilterOperator.GREATER_THAN, toTimeString(after)));
+    }
     PreparedQuery results = datastore.prepare(query);
 
     for (Entity entity : results.asIterable()) {
@@ -149,7 +271,51 @@ public class PersistentDataStore {
         UUID authorUuid = UUID.fromString((String) entity.getProperty("author_uuid"));
         Instant creationTime = Instant.parse((String) entity.getProperty("creation_time"));
         String content = (String) entity.getProperty("content");
-        Message message = new Message(uuid, conversationUuid, authorUuid, content, creationTime);
+        String language = (String) entity.getProperty("language");
+        Message message =
+            new Message(uuid, conversationUuid, authorUuid, content, creationTime, language);
+        messages.add(message);
+      } catch (Exception e) {
+        // In a production environment, errors should be very rare. Errors which may
+        // occur include network errors, Datastore service errors, authorization errors,
+        // database entity definition mismatches, or service mismatches.
+        throw new PersistentDataStoreException(e);
+      }
+    }
+
+    return messages;
+  }
+
+  /**
+   * Loads the Message objects in one Conversation from the Datastore service and returns them in a
+   * List, sorted in ascending order by creation time.
+   *
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Message> loadMessages(UUID conversationId) throws PersistentDataStoreException {
+
+    List<Message> messages = new ArrayList<>();
+
+    // Retrieve the conversation's messages from the datastore. This query is served by the
+    // composite index declared in datastore-indexes.xml.
+    Query query =
+        new Query("chat-messages")
+            .setFilter(
+                new FilterPredicate(
+                    "conv_uuid", FilterOperator.EQUAL, conversationId.toString()))
+            .addSort("creation_time", SortDirection.ASCENDING);
+    PreparedQuery results = datastore.prepare(query);
+
+    for (Entity entity : results.asIterable()) {
+      try {
+        UUID uuid = UUID.fromString((String) entity.getProperty("uuid"));
+        UUID authorUuid = UUID.fromString((String) entity.getProperty("author_uuid"));
+        Instant creationTime = Instant.parse((String) entity.getProperty("creation_time"));
+        String content = (String) entity.getProperty("content");
+        String language = (String) entity.getProperty("language");
+        Message message =
+            new Message(uuid, conversationId, authorUuid, content, creationTime, language);
         messages.add(message);
       } catch (Exception e) {
         // In a production environment, errors should be very rare. Errors which may
@@ -170,18 +336,31 @@ public class PersistentDataStore {
    *     Datastore service
    */
   public List<Activity> loadActivities() throws PersistentDataStoreException {
+    return loadActivitiesAfter(null);
+  }
+
+  /**
+   * Loads the Activity objects that happened strictly after the given time from the Datastore
+   * service and returns them in a List, sorted in ascending order by time.
+   *
+   * @param after the time to load from, or null to load every Activity
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Activity> loadActivitiesAfter(Instant after) throws PersistentDataStoreException {
 
     List<Activity> activities = new ArrayList<>();
 
-    // Retrieve all activities from the datastore.
-    Query query = new Query("activity").addSort("time", SortDirection.ASCENDING);;
+    // Retrieve the activities from the datastore.
+    Query query = new Query("activity").addSort("time", SortDirection.ASCENDING);
+    if (after != null) {
+      query.setFilter(
+          new FilterPredicate("time", FilterOperator.GREATER_THAN, toTimeString(after)));
+    }
     PreparedQuery results = datastore.prepare(query);
     for (Entity entity : results.asIterable()) {
       try {
-        String event = (String) entity.getProperty("event");
-        Instant time = Instant.parse((String) entity.getProperty("time"));
-        Activity activity = new Activity(event, time);
-        activities.add(activity);
+        activities.add(toActivity(entity));
       } catch (Exception e) {
         // In a production environment, errors should be very rare. Errors which may
         // occur include network errors, Datastore service errors, authorization errors,
@@ -193,8 +372,151 @@ public class PersistentDataStore {
     return activities;
   }
 
+  /**
+   * Loads one page of Activity objects from the Datastore service and returns them in a List,
+   * sorted in {@link Activity#NEWEST_FIRST} order.
+   *
+   * <p>Datastore only sorts the page by time. Activities that happened at the same time are
+   * ordered by ID here instead, so every time shared by the activities at either end of the page
+   * is loaded in full; there are rarely more than a few of them.
+   *
+   * @param before the time of the last activity on the previous page, or null to load the most
+   *     recent activities
+   * @param beforeId the ID of the last activity on the previous page, or null to load only
+   *     activities that happened strictly before its time
+   * @param limit the maximum number of activities to load
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Activity> loadActivities(Instant before, UUID beforeId, int limit)
+      throws PersistentDataStoreException {
+
+    List<Activity> activities = new ArrayList<>();
+    if (before != null && beforeId != null) {
+      // the rest of the activities that happened at the cursor's own time
+      for (Activity activity : loadActivitiesAt(before)) {
+        if (activity.isOlderThan(before, beforeId)) {
+          activities.add(activity);
+        }
+      }
+      activities.sort(Activity.NEWEST_FIRST);
+      if (activities.size() >= limit) {
+        return new ArrayList<>(activities.subList(0, limit));
+      }
+    }
+
+    // Times are stored with a fixed width, so they sort in time order.
+    Query query = new Query("activity").addSort("time", SortDirection.DESCENDING);
+    if (before != null) {
+      query.setFilter(new FilterPredicate("time", FilterOperator.LESS_THAN, toTimeString(before)));
+    }
+    int remaining = limit - activities.size();
+    List<Activity> older = new ArrayList<>();
+    PreparedQuery results = datastore.prepare(query);
+    for (Entity entity : results.asIterable(FetchOptions.Builder.withLimit(remaining))) {
+      try {
+        older.add(toActivity(entity));
+      } catch (Exception e) {
+        // In a production environment, errors should be very rare. Errors which may
+        // occur include network errors, Datastore service errors, authorization errors,
+        // database entity definition mismatches, or service mismatches.
+        throw new PersistentDataStoreException(e);
+      }
+    }
+    if (older.size() == remaining && !older.isEmpty()) {
+      // the limit may have cut through the activities at the oldest time, in Datastore's order
+      Instant oldest = older.get(older.size() - 1).getTime();
+      older.removeIf(activity -> activity.getTime().equals(oldest));
+      older.addAll(loadActivitiesAt(oldest));
+    }
+    older.sort(Activity.NEWEST_FIRST);
+    activities.addAll(older);
+    if (activities.size() > limit) {
+      activities = new ArrayList<>(activities.subList(0, limit));
+    }
+    return activities;
+  }
+
+  /** Loads every Activity that happened at exactly the given time, in no particular order. */
+  private List<Activity> loadActivitiesAt(Instant time) throws PersistentDataStoreException {
+    List<Activity> activities = new ArrayList<>();
+    Query query =
+        new Query("activity")
+            .setFilter(new FilterPredicate("time", FilterOperator.EQUAL, toTimeString(time)));
+    PreparedQuery results = datastore.prepare(query);
+    for (Entity entity : results.asIterable()) {
+      try {
+        activities.add(toActivity(entity));
+      } catch (Exception e) {
+        // In a production environment, errors should be very rare. Errors which may
+        // occur include network errors, Datastore service errors, authorization errors,
+        // database entity definition mismatches, or service mismatches.
+        throw new PersistentDataStoreException(e);
+      }
+    }
+    return activities;
+  }
+
+  /**
+   * Builds an Activity from its entity. Activities saved before they had IDs are given one derived
+   * from their entity key, so that it stays the same each time they are loaded.
+   */
+  private static Activity toActivity(Entity entity) {
+    String event = (String) entity.getProperty("event");
+    Instant time = Instant.parse((String) entity.getProperty("time"));
+    String uuid = (String) entity.getProperty("uuid");
+    UUID id =
+        uuid != null
+            ? UUID.fromString(uuid)
+            : UUID.nameUUIDFromBytes(entity.getKey().toString().getBytes(StandardCharsets.UTF_8));
+    return new Activity(id, event, time);
+  }
+
   /** Write a User object to the Datastore service. */
   public void writeThrough(User user) {
+    datastore.put(toEntity(user));
+  }
+
+  /** Write a Message object to the Datastore service. */
+  public void writeThrough(Message message) {
+    datastore.put(toEntity(message));
+  }
+
+  /** Write a Conversation object to the Datastore service. */
+  public void writeThrough(Conversation conversation) {
+    datastore.put(toEntity(conversation));
+  }
+
+  /** Write an Activity object to the Datastore service. */
+  public void writeThrough(Activity activity) {
+    datastore.put(toEntity(activity));
+  }
+
+  /**
+   * Write a batch of User, Conversation, Message and Activity objects to the Datastore service in a
+   * single call.
+   *
+   * @throws IllegalArgumentException if the batch contains an object of any other type
+   */
+  public void writeBatch(List<Object> objects) {
+    List<Entity> entities = new ArrayList<>(objects.size());
+    for (Object object : objects) {
+      if (object instanceof User) {
+        entities.add(toEntity((User) object));
+      } else if (object instanceof Conversation) {
+        entities.add(toEntity((Conversation) object));
+      } else if (object instanceof Message) {
+        entities.add(toEntity((Message) object));
+      } else if (object instanceof Activity) {
+        entities.add(toEntity((Activity) object));
+      } else {
+        throw new IllegalArgumentException("Can't write object of type " + object.getClass());
+      }
+    }
+    datastore.put(entities);
+  }
+
+  private static Entity toEntity(User user) {
     Entity userEntity = new Entity("chat-users", user.getId().toString());
     userEntity.setProperty("uuid", user.getId().toString());
     userEntity.setProperty("username", user.getName());
@@ -205,37 +527,36 @@ public class PersistentDataStore {
     userEntity.setProperty("friends", friendsJSON);
 
     userEntity.setProperty("language", user.getLanguage());
-
-    datastore.put(userEntity);
+    return userEntity;
   }
 
-  /** Write a Message object to the Datastore service. */
-  public void writeThrough(Message message) {
+  private static Entity toEntity(Message message) {
     Entity messageEntity = new Entity("chat-messages", message.getId().toString());
     messageEntity.setProperty("uuid", message.getId().toString());
     messageEntity.setProperty("conv_uuid", message.getConversationId().toString());
     messageEntity.setProperty("author_uuid", message.getAuthorId().toString());
     messageEntity.setProperty("content", message.getContent());
-    messageEntity.setProperty("creation_time", message.getCreationTime().toString());
-    datastore.put(messageEntity);
+    messageEntity.setProperty("creation_time", toTimeString(message.getCreationTime()));
+    if (message.getLanguage() != null) {
+      messageEntity.setProperty("language", message.getLanguage());
+    }
+    return messageEntity;
   }
 
-  /** Write a Conversation object to the Datastore service. */
-  public void writeThrough(Conversation conversation) {
+  private static Entity toEntity(Conversation conversation) {
     Entity conversationEntity = new Entity("chat-conversations", conversation.getId().toString());
     conversationEntity.setProperty("uuid", conversation.getId().toString());
     conversationEntity.setProperty("owner_uuid", conversation.getOwnerId().toString());
     conversationEntity.setProperty("title", conversation.getTitle());
-    conversationEntity.setProperty("creation_time", conversation.getCreationTime().toString());
-    datastore.put(conversationEntity);
+    conversationEntity.setProperty("creation_time", toTimeString(conversation.getCreationTime()));
+    return conversationEntity;
   }
 
-
-  /** Write a Activity object to the Datastore service. */
-  public void writeThrough(Activity activity) {
-    Entity activityEntity = new Entity("activity");
+  private static Entity toEntity(Activity activity) {
+    Entity activityEntity = new Entity("activity", activity.getId().toString());
+    activityEntity.setProperty("uuid", activity.getId().toString());
     activityEntity.setProperty("event", activity.getEvent());
-    activityEntity.setProperty("time", activity.getTime().toString());
-    datastore.put(activityEntity);
+    activityEntity.setProperty("time", toTimeString(activity.getTime()));
+    return activityEntity;
   }
 }
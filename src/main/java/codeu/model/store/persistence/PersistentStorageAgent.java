@@ -19,31 +19,38 @@ import codeu.model.data.Conversation;
 import codeu.model.data.Message;
 import codeu.model.data.User;
 import codeu.model.store.persistence.PersistentDataStore;
+import java.time.Instant;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This class is the interface between the application and PersistentDataStore, which handles
- * interactions with Google App Engine's Datastore service. Currently this class simply passes
- * function calls through to PersistentDataStore, but this could be modified to make asynchronous
- * calls or to point to a different backend storage system.
+ * interactions with Google App Engine's Datastore service. By default this class simply passes
+ * function calls through to PersistentDataStore. If write-behind is enabled, writes are instead
+ * queued and sent to Datastore in batches by a background thread; see {@link #enableWriteBehind}.
  *
  * <p>This is a singleton; the single instance is accessed through getInstance().
  */
 public class PersistentStorageAgent {
 
-  private static PersistentStorageAgent instance;
+  /** Holds the singleton instance of PersistentStorageAgent, created on first use. */
+  private static class InstanceHolder {
+    private static final PersistentStorageAgent INSTANCE =
+        new PersistentStorageAgent(new PersistentDataStore());
+  }
 
   private final PersistentDataStore persistentDataStore;
 
+  /** Queue that writes are sent through when write-behind is enabled, or null if it is not. */
+  private volatile WriteBehindQueue writeBehind;
+
   /**
    * Access the persistent storage agent, in order to perform object-level loads and/or stores. Do
    * not call this function from a test; use getTestInstance() instead.
    */
   public static PersistentStorageAgent getInstance() {
-    if (instance == null) {
-      instance = new PersistentStorageAgent(new PersistentDataStore());
-    }
-    return instance;
+    return InstanceHolder.INSTANCE;
   }
 
   /**
@@ -60,6 +67,16 @@ public class PersistentStorageAgent {
     this.persistentDataStore = persistentDataStore;
   }
 
+  /**
+   * Rewrites times stored by earlier versions so that Datastore compares them in time order. Call
+   * this once on startup, before loading anything.
+   *
+   * @throws PersistentDataStoreException if an error was detected while rewriting
+   */
+  public void migrateTimes() throws PersistentDataStoreException {
+    persistentDataStore.migrateTimes();
+  }
+
   /**
    * Retrieve all User objects from the Datastore service. The returned list may be empty.
    *
@@ -80,6 +97,18 @@ public class PersistentStorageAgent {
     return persistentDataStore.loadConversations();
   }
 
+  /**
+   * Retrieve the Conversation objects created strictly after the given time from the Datastore
+   * service, oldest first. The returned list may be empty.
+   *
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Conversation> loadConversationsCreatedAfter(Instant after)
+      throws PersistentDataStoreException {
+    return persistentDataStore.loadConversationsCreatedAfter(after);
+  }
+
   /**
    * Retrieve all Message objects from the Datastore service. The returned list may be empty.
    *
@@ -90,6 +119,29 @@ public class PersistentStorageAgent {
     return persistentDataStore.loadMessages();
   }
 
+  /**
+   * Retrieve the Message objects in one Conversation from the Datastore service, oldest first. The
+   * returned list may be empty.
+   *
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Message> loadMessages(UUID conversationId) throws PersistentDataStoreException {
+    return persistentDataStore.loadMessages(conversationId);
+  }
+
+  /**
+   * Retrieve the Message objects created strictly after the given time, in every Conversation,
+   * from the Datastore service, oldest first. The returned list may be empty.
+   *
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Message> loadMessagesCreatedAfter(Instant after)
+      throws PersistentDataStoreException {
+    return persistentDataStore.loadMessagesCreatedAfter(after);
+  }
+
   /**
    * Retrieve all Activity objects from the Datastore service. The returned list may be empty.
    *
@@ -100,23 +152,172 @@ public class PersistentStorageAgent {
     return persistentDataStore.loadActivities();
   }
 
+  /**
+   * Retrieve the Activity objects that happened strictly after the given time from the Datastore
+   * service, oldest first. The returned list may be empty.
+   *
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Activity> loadActivitiesAfter(Instant after) throws PersistentDataStoreException {
+    return persistentDataStore.loadActivitiesAfter(after);
+  }
+
+  /**
+   * Retrieve one page of Activity objects from the Datastore service, newest first. The returned
+   * list may be empty.
+   *
+   * @param before the time of the last activity on the previous page, or null to load the most
+   *     recent activities
+   * @param beforeId the ID of the last activity on the previous page, or null to load only
+   *     activities that happened strictly before its time
+   * @param limit the maximum number of activities to load
+   * @throws PersistentDataStoreException if an error was detected during the load from the
+   *     Datastore service
+   */
+  public List<Activity> loadActivities(Instant before, UUID beforeId, int limit)
+      throws PersistentDataStoreException {
+    return persistentDataStore.loadActivities(before, beforeId, limit);
+  }
+
+  /**
+   * Queues writes and sends them to Datastore in batches instead of writing each one on the
+   * calling thread. A batch is flushed once batchSize writes are waiting or flushIntervalMillis
+   * has passed, whichever comes first. Writes that are still queued when the server stops are lost
+   * unless {@link #shutdown()} is called, so only enable this alongside a shutdown hook.
+   *
+   * <p>On App Engine, the thread factory must create background threads, which are only available
+   * with manual or basic scaling.
+   *
+   * @param maxQueueDepth the most writes that may be waiting at once; once reached, the calling
+   *     thread flushes the queue before adding to it
+   * @param batchSize the most writes sent to Datastore in one call
+   * @param flushIntervalMillis the longest a write waits before it is flushed
+   * @param threadFactory creates the thread that flushes the queue
+   */
+  public synchronized void enableWriteBehind(
+      int maxQueueDepth, int batchSize, long flushIntervalMillis, ThreadFactory threadFactory) {
+    if (writeBehind != null) {
+      throw new IllegalStateException("Write-behind is already enabled.");
+    }
+    writeBehind =
+        new WriteBehindQueue(
+            persistentDataStore, maxQueueDepth, batchSize, flushIntervalMillis, threadFactory);
+  }
+
+  /** Returns true if writes are queued and sent to Datastore in batches. */
+  public boolean isWriteBehindEnabled() {
+    return writeBehind != null;
+  }
+
+  /** Writes everything that is waiting in the write-behind queue, if there is one. */
+  public void flush() {
+    WriteBehindQueue queue = writeBehind;
+    if (queue != null) {
+      queue.flush();
+    }
+  }
+
+  /**
+   * Flushes the write-behind queue and stops its thread. Writes made after this go straight to
+   * Datastore.
+   */
+  public synchronized void shutdown() {
+    WriteBehindQueue queue = writeBehind;
+    if (queue == null) {
+      return;
+    }
+    try {
+      queue.close();
+    } finally {
+      writeBehind = null;
+    }
+  }
+
+  /** Returns the number of writes waiting in the write-behind queue. */
+  public int getWriteBehindDepth() {
+    WriteBehindQueue queue = writeBehind;
+    return queue == null ? 0 : queue.getDepth();
+  }
+
+  /**
+   * Returns how long the oldest write in the write-behind queue has been waiting, in milliseconds.
+   */
+  public long getWriteBehindLagMillis() {
+    WriteBehindQueue queue = writeBehind;
+    return queue == null ? 0 : queue.getLagMillis();
+  }
+
+  /**
+   * Returns how long the oldest write in the most recently flushed batch had been waiting, in
+   * milliseconds.
+   */
+  public long getLastFlushLagMillis() {
+    WriteBehindQueue queue = writeBehind;
+    return queue == null ? 0 : queue.getLastFlushLagMillis();
+  }
+
+  /** Returns the number of writes the write-behind queue has flushed. */
+  public long getWriteBehindFlushedCount() {
+    WriteBehindQueue queue = writeBehind;
+    return queue == null ? 0 : queue.getFlushedCount();
+  }
+
+  /** Returns the number of batches the write-behind queue has written. */
+  public long getWriteBehindBatchCount() {
+    WriteBehindQueue queue = writeBehind;
+    return queue == null ? 0 : queue.getBatchCount();
+  }
+
+  /** Returns the number of batches the write-behind queue failed to write. */
+  public long getWriteBehindFailedBatchCount() {
+    WriteBehindQueue queue = writeBehind;
+    return queue == null ? 0 : queue.getFailedBatchCount();
+  }
+
+  /** Returns the number of writes the write-behind queue gave up on after repeated failures. */
+  public long getWriteBehindDroppedCount() {
+    WriteBehindQueue queue = writeBehind;
+    return queue == null ? 0 : queue.getDroppedCount();
+  }
+
   /** Write a User object to the Datastore service. */
   public void writeThrough(User user) {
-    persistentDataStore.writeThrough(user);
+    WriteBehindQueue queue = writeBehind;
+    if (queue != null) {
+      queue.enqueue(user);
+    } else {
+      persistentDataStore.writeThrough(user);
+    }
   }
 
-  /** Write a Message object to the Datastore service. */
+  /** Write a Conversation object to the Datastore service. */
   public void writeThrough(Conversation conversation) {
-    persistentDataStore.writeThrough(conversation);
+    WriteBehindQueue queue = writeBehind;
+    if (queue != null) {
+      queue.enqueue(conversation);
+    } else {
+      persistentDataStore.writeThrough(conversation);
+    }
   }
 
-  /** Write a Conversation object to the Datastore service. */
+  /** Write a Message object to the Datastore service. */
   public void writeThrough(Message message) {
-    persistentDataStore.writeThrough(message);
+    WriteBehindQueue queue = writeBehind;
+    if (queue != null) {
+      queue.enqueue(message);
+    } else {
+      persistentDataStore.writeThrough(message);
+    }
   }
 
-  /** Write a Activity object to the Datastore service. */
+  /** Write an Activity object to the Datastore service. */
   public void writeThrough(Activity activity) {
-    persistentDataStore.writeThrough(activity);
+    WriteBehindQueue queue = writeBehind;
+    if (queue != null) {
+      queue.enqueue(activity);
+    } else {
+      persistentDataStore.writeThrough(activity);
+    }
   }
 }
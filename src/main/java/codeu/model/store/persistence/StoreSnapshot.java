@@ -0,0 +1,274 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.model.store.persistence;
+
+import codeu.model.data.Activity;
+import codeu.model.data.Conversation;
+import codeu.model.data.Message;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A copy of the in-memory stores that can be written to and read back from local disk, so that a
+ * restarting server only needs to ask Datastore for what changed since the snapshot was taken.
+ *
+ * <p>The file is a fixed binary layout: IDs are stored as two longs and times as seconds plus
+ * nanoseconds, so reading it back needs no string parsing. Users are not included; they can change
+ * after they are created, so they are always loaded from Datastore.
+ */
+public class StoreSnapshot {
+
+  /** Marks a file as a snapshot written by this class. */
+  private static final int MAGIC = 0x436f6455;
+
+  /** Layout version; bump it whenever the layout changes so that old files are ignored. */
+  static final int VERSION = 3;
+
+  private final List<Conversation> conversations;
+  private final List<Activity> activities;
+  private final boolean olderActivitiesInStorage;
+  private final Map<UUID, List<Message>> histories;
+
+  /**
+   * Constructs a new StoreSnapshot.
+   *
+   * @param conversations every Conversation, oldest first
+   * @param activities the recent Activities held in memory, oldest first
+   * @param olderActivitiesInStorage true if Datastore holds Activities older than the given ones
+   * @param histories the Messages of each Conversation whose history is loaded, oldest first
+   */
+  public StoreSnapshot(
+      List<Conversation> conversations,
+      List<Activity> activities,
+      boolean olderActivitiesInStorage,
+      Map<UUID, List<Message>> histories) {
+    this.conversations = conversations;
+    this.activities = activities;
+    this.olderActivitiesInStorage = olderActivitiesInStorage;
+    this.histories = histories;
+  }
+
+  /** Returns every Conversation, oldest first. */
+  public List<Conversation> getConversations() {
+    return conversations;
+  }
+
+  /** Returns the recent Activities, oldest first. */
+  public List<Activity> getActivities() {
+    return activities;
+  }
+
+  /** Returns true if Datastore holds Activities older than the ones in this snapshot. */
+  public boolean hasOlderActivitiesInStorage() {
+    return olderActivitiesInStorage;
+  }
+
+  /** Returns the Messages of each Conversation whose history is in this snapshot, oldest first. */
+  public Map<UUID, List<Message>> getHistories() {
+    return histories;
+  }
+
+  /**
+   * Returns the creation time of the newest Conversation, Message or Activity in this snapshot.
+   * Anything created strictly after it must be loaded from Datastore to bring the snapshot up to
+   * date.
+   */
+  public Instant getWatermark() {
+    Instant watermark = Instant.EPOCH;
+    for (Conversation conversation : conversations) {
+      watermark = latest(watermark, conversation.getCreationTime());
+    }
+    for (Activity activity : activities) {
+      watermark = latest(watermark, activity.getTime());
+    }
+    for (List<Message> messages : histories.values()) {
+      for (Message message : messages) {
+        watermark = latest(watermark, message.getCreationTime());
+      }
+    }
+    return watermark;
+  }
+
+  /**
+   * Writes this snapshot to the given file. The file is replaced in one step, so a crash part of
+   * the way through leaves the previous snapshot in place.
+   */
+  public void writeTo(Path path) throws IOException {
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+      write(out);
+    }
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads a snapshot from the given file.
+   *
+   * @throws IOException if the file can't be read or was not written by this version of the
+   *     class
+   */
+  public static StoreSnapshot readFrom(Path path) throws IOException {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+      return read(in);
+    }
+  }
+
+  void write(OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+
+    out.writeInt(conversations.size());
+    for (Conversation conversation : conversations) {
+      writeUuid(out, conversation.getId());
+      writeUuid(out, conversation.getOwnerId());
+      writeString(out, conversation.getTitle());
+      writeInstant(out, conversation.getCreationTime());
+    }
+
+    out.writeBoolean(olderActivitiesInStorage);
+    out.writeInt(activities.size());
+    for (Activity activity : activities) {
+      writeUuid(out, activity.getId());
+      writeString(out, activity.getEvent());
+      writeInstant(out, activity.getTime());
+    }
+
+    out.writeInt(histories.size());
+    for (Map.Entry<UUID, List<Message>> entry : histories.entrySet()) {
+      writeUuid(out, entry.getKey());
+      out.writeInt(entry.getValue().size());
+      for (Message message : entry.getValue()) {
+        writeUuid(out, message.getId());
+        writeUuid(out, message.getAuthorId());
+        writeString(out, message.getContent());
+        writeInstant(out, message.getCreationTime());
+        writeNullableString(out, message.getLanguage());
+      }
+    }
+    out.flush();
+  }
+
+  static StoreSnapshot read(InputStream stream) throws IOException {
+    DataInputStream in = new DataInputStream(stream);
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a snapshot file.");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported snapshot version " + version + ".");
+    }
+
+    int conversationCount = in.readInt();
+    List<Conversation> conversations = new ArrayList<>(conversationCount);
+    for (int i = 0; i < conversationCount; i++) {
+      UUID id = readUuid(in);
+      UUID owner = readUuid(in);
+      String title = readString(in);
+      Instant creation = readInstant(in);
+      conversations.add(new Conversation(id, owner, title, creation));
+    }
+
+    boolean olderActivitiesInStorage = in.readBoolean();
+    int activityCount = in.readInt();
+    List<Activity> activities = new ArrayList<>(activityCount);
+    for (int i = 0; i < activityCount; i++) {
+      UUID id = readUuid(in);
+      String event = readString(in);
+      Instant time = readInstant(in);
+      activities.add(new Activity(id, event, time));
+    }
+
+    int historyCount = in.readInt();
+    Map<UUID, List<Message>> histories = new HashMap<>();
+    for (int i = 0; i < historyCount; i++) {
+      UUID conversationId = readUuid(in);
+      int messageCount = in.readInt();
+      List<Message> messages = new ArrayList<>(messageCount);
+      for (int j = 0; j < messageCount; j++) {
+        UUID id = readUuid(in);
+        UUID author = readUuid(in);
+        String content = readString(in);
+        Instant creation = readInstant(in);
+        String language = readNullableString(in);
+        messages.add(new Message(id, conversationId, author, content, creation, language));
+      }
+      histories.put(conversationId, messages);
+    }
+
+    return new StoreSnapshot(conversations, activities, olderActivitiesInStorage, histories);
+  }
+
+  private static Instant latest(Instant a, Instant b) {
+    return b.isAfter(a) ? b : a;
+  }
+
+  private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+    out.writeLong(uuid.getMostSignificantBits());
+    out.writeLong(uuid.getLeastSignificantBits());
+  }
+
+  private static UUID readUuid(DataInputStream in) throws IOException {
+    return new UUID(in.readLong(), in.readLong());
+  }
+
+  private static void writeInstant(DataOutputStream out, Instant instant) throws IOException {
+    out.writeLong(instant.getEpochSecond());
+    out.writeInt(instant.getNano());
+  }
+
+  private static Instant readInstant(DataInputStream in) throws IOException {
+    return Instant.ofEpochSecond(in.readLong(), in.readInt());
+  }
+
+  // DataOutputStream.writeUTF is limited to 64KB, which a long message could exceed.
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      writeString(out, value);
+    }
+  }
+
+  private static String readNullableString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? readString(in) : null;
+  }
+}
@@ -0,0 +1,290 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.model.store.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of pending writes that are flushed to PersistentDataStore in batches, either when
+ * enough writes are waiting or when the flush interval passes, whichever comes first.
+ *
+ * <p>Writes are flushed in the order they were queued, so a later write to an entity is never
+ * overwritten by an earlier one. When the queue is full, the caller flushes it and waits for room,
+ * so a burst of writes slows down the requests making them instead of growing the queue without
+ * bound or jumping ahead of it.
+ *
+ * <p>A failed batch is set aside and retried before anything else, up to {@value #MAX_ATTEMPTS}
+ * times. After that its writes are tried one at a time, and any that still fail are logged, counted
+ * and dropped, so that one bad write can't hold up everything queued behind it.
+ */
+class WriteBehindQueue {
+
+  /** How many times a batch is written before its writes are tried one at a time. */
+  static final int MAX_ATTEMPTS = 5;
+
+  /** A queued write and the time it was queued, used to measure queue lag. */
+  private static class PendingWrite {
+    final Object object;
+    final long queuedAtNanos;
+    int attempts;
+
+    PendingWrite(Object object) {
+      this.object = object;
+      this.queuedAtNanos = System.nanoTime();
+    }
+  }
+
+  private final PersistentDataStore persistentDataStore;
+  private final int batchSize;
+  private final BlockingDeque<PendingWrite> queue;
+  private final ScheduledExecutorService flusher;
+
+  /** Serializes flushes so that batches reach Datastore in queue order. */
+  private final Object flushLock = new Object();
+
+  /**
+   * The batch that failed in the last flush, which the next flush retries before taking anything
+   * from the queue, or null. Written under flushLock; read without it for the metrics.
+   */
+  private volatile List<PendingWrite> failedBatch;
+
+  /** True while a size-triggered flush is waiting to run on the flusher thread. */
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+  /** Guards closed, so that no write is queued after close() has started. */
+  private final Object closeLock = new Object();
+
+  private boolean closed;
+
+  private final AtomicLong flushedCount = new AtomicLong();
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong failedBatchCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private volatile long lastFlushLagMillis;
+
+  /**
+   * Constructs a new WriteBehindQueue and starts its flusher thread.
+   *
+   * @param persistentDataStore the store that batches are written to
+   * @param maxQueueDepth the most writes that may be queued at once, besides a batch set aside
+   *     after failing
+   * @param batchSize the most writes sent to Datastore in one call; also the queue depth that
+   *     triggers a flush
+   * @param flushIntervalMillis the longest a write waits before it is flushed
+   * @param threadFactory creates the flusher thread
+   */
+  WriteBehindQueue(
+      PersistentDataStore persistentDataStore,
+      int maxQueueDepth,
+      int batchSize,
+      long flushIntervalMillis,
+      ThreadFactory threadFactory) {
+    this.persistentDataStore = persistentDataStore;
+    this.batchSize = batchSize;
+    this.queue = new LinkedBlockingDeque<>(maxQueueDepth);
+    this.flusher = new ScheduledThreadPoolExecutor(1, threadFactory);
+    flusher.scheduleWithFixedDelay(
+        this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues a User, Conversation, Message or Activity to be written. If the queue is full, this
+   * flushes it and waits until there is room. While Datastore is failing, each flush retries the
+   * failed batch until it is written or given up on, so the wait is bounded.
+   */
+  void enqueue(Object object) {
+    PendingWrite write = new PendingWrite(object);
+    while (!offer(write)) {
+      if (isClosed()) {
+        // close() writes what was queued before this; wait for it so this write lands last
+        flush(true);
+        persistentDataStore.writeBatch(Collections.singletonList(object));
+        return;
+      }
+      flushQuietly();
+    }
+  }
+
+  /**
+   * Queues a write unless the queue is full or closed, and schedules a flush if a batch is ready.
+   * Returns true if the write was queued.
+   */
+  private boolean offer(PendingWrite write) {
+    synchronized (closeLock) {
+      if (closed || !queue.offerLast(write)) {
+        return false;
+      }
+      if (queue.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+        flusher.execute(() -> {
+          flushScheduled.set(false);
+          flushQuietly();
+        });
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Writes everything that is queued, in batches. If a batch fails it is set aside to be retried
+   * first by the next flush, unless it has failed MAX_ATTEMPTS times already.
+   */
+  void flush() {
+    flush(false);
+  }
+
+  /**
+   * Writes everything that is queued, in batches. When closing, no later flush will retry a failed
+   * batch, so it is retried right away instead of being reported, and nothing is thrown.
+   */
+  private void flush(boolean closing) {
+    synchronized (flushLock) {
+      while (true) {
+        List<PendingWrite> batch = failedBatch;
+        failedBatch = null;
+        if (batch == null) {
+          batch = new ArrayList<>(batchSize);
+          if (queue.drainTo(batch, batchSize) == 0) {
+            return;
+          }
+        }
+        List<Object> objects = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+          objects.add(write.object);
+        }
+        while (true) {
+          try {
+            persistentDataStore.writeBatch(objects);
+            flushedCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+            break;
+          } catch (RuntimeException e) {
+            failedBatchCount.incrementAndGet();
+            // the oldest write has been in every attempt at this batch
+            if (++batch.get(0).attempts >= MAX_ATTEMPTS) {
+              writeSeparately(batch);
+              break;
+            }
+            if (!closing) {
+              failedBatch = batch;
+              throw e;
+            }
+          }
+        }
+        lastFlushLagMillis =
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.get(0).queuedAtNanos);
+      }
+    }
+  }
+
+  /**
+   * Stops the flusher thread and writes everything that is still queued. A batch that fails is
+   * retried and then written one write at a time, as any batch is, so one failure doesn't lose
+   * the writes behind it; nothing is thrown. Writes made after this go straight to Datastore.
+   */
+  void close() {
+    synchronized (closeLock) {
+      closed = true;
+    }
+    flusher.shutdown();
+    try {
+      flusher.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush(true);
+  }
+
+  private boolean isClosed() {
+    synchronized (closeLock) {
+      return closed;
+    }
+  }
+
+  /** Returns the number of writes waiting to be flushed, including a failed batch. */
+  int getDepth() {
+    List<PendingWrite> failed = failedBatch;
+    return queue.size() + (failed == null ? 0 : failed.size());
+  }
+
+  /** Returns how long the oldest waiting write has been queued, or 0 if none are waiting. */
+  long getLagMillis() {
+    List<PendingWrite> failed = failedBatch;
+    PendingWrite oldest = failed == null ? queue.peekFirst() : failed.get(0);
+    if (oldest == null) {
+      return 0;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.queuedAtNanos);
+  }
+
+  /** Returns how long the oldest write in the most recent batch had been queued. */
+  long getLastFlushLagMillis() {
+    return lastFlushLagMillis;
+  }
+
+  /** Returns the number of writes flushed so far. */
+  long getFlushedCount() {
+    return flushedCount.get();
+  }
+
+  /** Returns the number of batches written so far. */
+  long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /** Returns the number of batches that failed. */
+  long getFailedBatchCount() {
+    return failedBatchCount.get();
+  }
+
+  /** Returns the number of writes dropped after failing MAX_ATTEMPTS times in a batch and alone. */
+  long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      System.err.println("Write-behind flush failed; " + getDepth() + " writes still queued.");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Writes each write of a batch that keeps failing on its own, so that only the writes that fail
+   * by themselves are lost. Those are logged and dropped.
+   */
+  private void writeSeparately(List<PendingWrite> batch) {
+    for (PendingWrite write : batch) {
+      try {
+        persistentDataStore.writeBatch(Collections.singletonList(write.object));
+        flushedCount.incrementAndGet();
+      } catch (RuntimeException e) {
+        droppedCount.incrementAndGet();
+        System.err.println("Write-behind gave up on " + write.object + ": " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+import java.time.Clock;
+
+/**
+ * Stops calls to a failing remote service for a while, so that callers fall back right away
+ * instead of each waiting for a call that is likely to fail.
+ *
+ * <p>After failureThreshold consecutive failures the breaker opens and rejects calls for
+ * openMillis. Once that time has passed a single trial call is let through: if it succeeds the
+ * breaker closes, and if it fails the breaker opens again.
+ */
+class CircuitBreaker {
+
+  private final int failureThreshold;
+  private final long openMillis;
+  private final Clock clock;
+
+  /** Number of failures since the last success. Guarded by this. */
+  private int consecutiveFailures;
+
+  /** Time until which calls are rejected, or 0 if the breaker is closed. Guarded by this. */
+  private long openUntilMillis;
+
+  /** True while the trial call after an open period is in flight. Guarded by this. */
+  private boolean trialInFlight;
+
+  CircuitBreaker(int failureThreshold, long openMillis, Clock clock) {
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.clock = clock;
+  }
+
+  /** Returns true if a call may be made now. Every allowed call must report its outcome. */
+  synchronized boolean allowRequest() {
+    if (openUntilMillis == 0) {
+      return true;
+    }
+    if (clock.millis() < openUntilMillis || trialInFlight) {
+      return false;
+    }
+    trialInFlight = true;
+    return true;
+  }
+
+  /** Records that an allowed call succeeded. */
+  synchronized void recordSuccess() {
+    consecutiveFailures = 0;
+    openUntilMillis = 0;
+    trialInFlight = false;
+  }
+
+  /** Records that an allowed call failed. */
+  synchronized void recordFailure() {
+    consecutiveFailures++;
+    if (trialInFlight || consecutiveFailures >= failureThreshold) {
+      openUntilMillis = clock.millis() + openMillis;
+    }
+    trialInFlight = false;
+  }
+
+  /** Returns true if calls are currently being rejected. */
+  synchronized boolean isOpen() {
+    return openUntilMillis != 0 && (clock.millis() < openUntilMillis || trialInFlight);
+  }
+}
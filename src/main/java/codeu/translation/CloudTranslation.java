@@ -0,0 +1,121 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.translate.Detection;
+import com.google.cloud.translate.Translate;
+import com.google.cloud.translate.Translate.TranslateOption;
+import com.google.cloud.translate.TranslateOptions;
+import com.google.cloud.translate.Translation;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Access to the Google Cloud Translation API through a single client shared by the whole server.
+ * Building a client is not free, and the client is safe to use from many threads at once.
+ *
+ * <p>The API key is read from the {@value #API_KEY_PROPERTY} system property, or failing that the
+ * {@value #API_KEY_ENVIRONMENT_VARIABLE} environment variable, so that it never has to be checked
+ * into the repository.
+ *
+ * <p>Calls fail fast rather than retrying: TranslationService gives each page a time budget and
+ * falls back to the original text, which a retry with backoff would blow through. It only starts a
+ * call when {@link #MAX_CALL_MILLIS} is left in the budget, so the timeouts are kept well inside it.
+ */
+public class CloudTranslation implements Translator {
+
+  /** System property holding the Translation API key. */
+  public static final String API_KEY_PROPERTY = "codeu.translate.apiKey";
+
+  /** Environment variable holding the Translation API key, if the system property is not set. */
+  public static final String API_KEY_ENVIRONMENT_VARIABLE = "TRANSLATE_API_KEY";
+
+  /** How long to wait to connect to the Translation API. */
+  private static final int CONNECT_TIMEOUT_MILLIS = 250;
+
+  /** How long to wait for a response from the Translation API. */
+  private static final int READ_TIMEOUT_MILLIS = 750;
+
+  /** The longest a single call can take before it times out. */
+  static final long MAX_CALL_MILLIS = CONNECT_TIMEOUT_MILLIS + READ_TIMEOUT_MILLIS;
+
+  /** Holds the singleton instance of CloudTranslation, created on first use. */
+  private static class InstanceHolder {
+    private static final CloudTranslation INSTANCE = new CloudTranslation(createClient());
+  }
+
+  /** Returns the singleton instance of CloudTranslation that should be shared by all callers. */
+  public static CloudTranslation getInstance() {
+    return InstanceHolder.INSTANCE;
+  }
+
+  private final Translate translate;
+
+  /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
+  private CloudTranslation(Translate translate) {
+    this.translate = translate;
+  }
+
+  @Override
+  public String detectLanguage(String text) {
+    return translate.detect(text).getLanguage();
+  }
+
+  @Override
+  public List<String> detectLanguages(List<String> texts) {
+    List<String> languages = new ArrayList<>(texts.size());
+    for (Detection detection : translate.detect(texts)) {
+      languages.add(detection.getLanguage());
+    }
+    return languages;
+  }
+
+  @Override
+  public List<String> translate(List<String> texts, String sourceLanguage, String targetLanguage) {
+    List<String> translatedTexts = new ArrayList<>(texts.size());
+    List<Translation> translations =
+        translate.translate(
+            texts,
+            TranslateOption.sourceLanguage(sourceLanguage),
+            TranslateOption.targetLanguage(targetLanguage),
+            TranslateOption.model("nmt"));
+    for (Translation translation : translations) {
+      translatedTexts.add(translation.getTranslatedText());
+    }
+    return translatedTexts;
+  }
+
+  private static Translate createClient() {
+    TranslateOptions.Builder options =
+        TranslateOptions.newBuilder()
+            .setTransportOptions(
+                HttpTransportOptions.newBuilder()
+                    .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                    .setReadTimeout(READ_TIMEOUT_MILLIS)
+                    .build())
+            .setRetrySettings(ServiceOptions.getNoRetrySettings());
+    String apiKey = System.getProperty(API_KEY_PROPERTY);
+    if (apiKey == null || apiKey.isEmpty()) {
+      apiKey = System.getenv(API_KEY_ENVIRONMENT_VARIABLE);
+    }
+    // without a key, the application's default credentials are used
+    if (apiKey != null && !apiKey.isEmpty()) {
+      options.setApiKey(apiKey);
+    }
+    return options.build().getService();
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translator that never leaves the server, for developing and load-testing without a Translation
+ * API key. It "translates" by tagging each text with the target language, and can be made to take
+ * a fixed time per request to stand in for network latency.
+ *
+ * <p>Detection is a rough guess from common words, which is enough to exercise every path through
+ * TranslationService.
+ */
+public class FakeTranslator implements Translator {
+
+  private final long latencyMillis;
+
+  /**
+   * Constructs a new FakeTranslator.
+   *
+   * @param latencyMillis how long each request takes
+   */
+  public FakeTranslator(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  @Override
+  public String detectLanguage(String text) {
+    pause();
+    return guessLanguage(text);
+  }
+
+  @Override
+  public List<String> detectLanguages(List<String> texts) {
+    pause();
+    List<String> languages = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      languages.add(guessLanguage(text));
+    }
+    return languages;
+  }
+
+  @Override
+  public List<String> translate(List<String> texts, String sourceLanguage, String targetLanguage) {
+    pause();
+    List<String> translated = new ArrayList<>(texts.size());
+    for (String text : texts) {
+      translated.add("[" + targetLanguage + "] " + text);
+    }
+    return translated;
+  }
+
+  private static String guessLanguage(String text) {
+    String lower = " " + text.toLowerCase() + " ";
+    if (lower.contains(" el ") || lower.contains(" hola") || lower.contains(" que ")) {
+      return "es";
+    }
+    if (lower.contains(" le ") || lower.contains(" bonjour") || lower.contains(" est ")) {
+      return "fr";
+    }
+    return "en";
+  }
+
+  private void pause() {
+    if (latencyMillis <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.MILLISECONDS.sleep(latencyMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
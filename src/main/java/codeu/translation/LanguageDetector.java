@@ -0,0 +1,26 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+/** Detects the language a piece of text is written in. */
+public interface LanguageDetector {
+
+  /**
+   * Returns the code of the language the text is written in, such as "en" or "es".
+   *
+   * @throws RuntimeException if the language could not be detected
+   */
+  String detectLanguage(String text);
+}
@@ -0,0 +1,270 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects the language of a text locally, without a call to the Translation API, by comparing its
+ * character n-grams with profiles of a few common languages.
+ *
+ * <p>Each profile counts the 1-, 2- and 3-letter sequences in a sample of text in that language. A
+ * text is scored against each profile as the log-probability of its n-grams, naive-Bayes style.
+ * Short texts, and texts whose best two scores are close, are reported as not confident so that the
+ * caller can ask the Translation API instead.
+ *
+ * <p>A close relative of a profiled language, like Afrikaans to Dutch, can beat every other profile
+ * by a clear margin without being that language at all. So a few such relatives have reference
+ * profiles that are scored but never reported confidently, and a text that fits even its best
+ * profile poorly on average, as one in an unrelated language does, is not confident either.
+ *
+ * <p>This is a singleton; the profiles are loaded once and the instance is safe to share.
+ */
+public class NgramLanguageDetector implements LanguageDetector {
+
+  /** Languages with a profile, each loaded from ngram/&lt;code&gt;.txt next to this class. */
+  static final List<String> LANGUAGES = Arrays.asList("en", "es", "fr", "de", "it", "pt", "nl");
+
+  /**
+   * Languages close to one in LANGUAGES, with a profile only so that their texts are not mistaken
+   * for it. A guess of one of these is never confident.
+   */
+  static final List<String> REFERENCE_LANGUAGES = Arrays.asList("da", "no", "sv", "af");
+
+  /** Every language with a profile: LANGUAGES, then REFERENCE_LANGUAGES. */
+  private static final List<String> PROFILES = new ArrayList<>();
+
+  static {
+    PROFILES.addAll(LANGUAGES);
+    PROFILES.addAll(REFERENCE_LANGUAGES);
+  }
+
+  /** Longest n-gram used. */
+  private static final int MAX_N = 3;
+
+  /** Fewer n-grams than this is too little text to trust a local guess. */
+  static final int MIN_NGRAMS = 30;
+
+  /** Smallest average score margin per n-gram, between the best two languages, to trust. */
+  static final double MIN_MARGIN_PER_NGRAM = 0.12;
+
+  /** Lowest average log-probability per n-gram, under the best profile, of a text to trust. */
+  static final double MIN_LOG_PROBABILITY_PER_NGRAM = -5.75;
+
+  /** Smoothing added to every n-gram count, so that unseen n-grams don't rule a language out. */
+  private static final double SMOOTHING = 0.5;
+
+  /** Holds the singleton instance of NgramLanguageDetector, created on first use. */
+  private static class InstanceHolder {
+    private static final NgramLanguageDetector INSTANCE = new NgramLanguageDetector();
+  }
+
+  /** Returns the singleton instance of NgramLanguageDetector. */
+  public static NgramLanguageDetector getInstance() {
+    return InstanceHolder.INSTANCE;
+  }
+
+  /** The result of detecting a text's language locally. */
+  public static class Guess {
+    private final String language;
+    private final boolean confident;
+
+    Guess(String language, boolean confident) {
+      this.language = language;
+      this.confident = confident;
+    }
+
+    /** Returns the code of the most likely language, or null if the text has no letters. */
+    public String getLanguage() {
+      return language;
+    }
+
+    /** Returns true if the guess is reliable enough to use without asking the Translation API. */
+    public boolean isConfident() {
+      return confident;
+    }
+  }
+
+  /** Log-probability of each known n-gram in each language, indexed like PROFILES. */
+  private final Map<String, double[]> logProbabilities = new HashMap<>();
+
+  /** Log-probability of an unseen n-gram of each length in each language. */
+  private final double[][] unseenLogProbabilities = new double[MAX_N + 1][];
+
+  /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
+  private NgramLanguageDetector() {
+    List<Map<String, Integer>> counts = new ArrayList<>();
+    for (String language : PROFILES) {
+      Map<String, Integer> languageCounts = new HashMap<>();
+      forEachNgram(
+          normalize(readProfile(language)),
+          ngram -> languageCounts.merge(ngram, 1, Integer::sum));
+      counts.add(languageCounts);
+    }
+
+    // totals and vocabulary sizes are kept per n-gram length, so each length is its own model
+    long[][] totals = new long[MAX_N + 1][PROFILES.size()];
+    int[] vocabulary = new int[MAX_N + 1];
+    Map<String, Boolean> seen = new HashMap<>();
+    for (int i = 0; i < PROFILES.size(); i++) {
+      for (Map.Entry<String, Integer> entry : counts.get(i).entrySet()) {
+        int n = entry.getKey().length();
+        totals[n][i] += entry.getValue();
+        if (seen.put(entry.getKey(), Boolean.TRUE) == null) {
+          vocabulary[n]++;
+        }
+      }
+    }
+
+    for (int n = 1; n <= MAX_N; n++) {
+      unseenLogProbabilities[n] = new double[PROFILES.size()];
+      for (int i = 0; i < PROFILES.size(); i++) {
+        unseenLogProbabilities[n][i] =
+            Math.log(SMOOTHING / (totals[n][i] + SMOOTHING * vocabulary[n]));
+      }
+    }
+    for (String ngram : seen.keySet()) {
+      int n = ngram.length();
+      double[] scores = new double[PROFILES.size()];
+      for (int i = 0; i < PROFILES.size(); i++) {
+        int count = counts.get(i).getOrDefault(ngram, 0);
+        scores[i] = Math.log((count + SMOOTHING) / (totals[n][i] + SMOOTHING * vocabulary[n]));
+      }
+      logProbabilities.put(ngram, scores);
+    }
+  }
+
+  /**
+   * Returns the most likely language of the text, even if the guess is not confident.
+   *
+   * @throws IllegalArgumentException if the text has no letters
+   */
+  @Override
+  public String detectLanguage(String text) {
+    String language = guess(text).getLanguage();
+    if (language == null) {
+      throw new IllegalArgumentException("Text has no letters to detect a language from.");
+    }
+    return language;
+  }
+
+  /** Guesses the language of the text and how reliable that guess is. */
+  public Guess guess(String text) {
+    double[] scores = new double[PROFILES.size()];
+    int[] ngramCount = new int[1];
+    forEachNgram(normalize(text), ngram -> {
+      ngramCount[0]++;
+      double[] known = logProbabilities.get(ngram);
+      double[] add = known != null ? known : unseenLogProbabilities[ngram.length()];
+      for (int i = 0; i < scores.length; i++) {
+        scores[i] += add[i];
+      }
+    });
+    if (ngramCount[0] == 0) {
+      return new Guess(null, false);
+    }
+
+    int best = 0;
+    int second = -1;
+    for (int i = 1; i < scores.length; i++) {
+      if (scores[i] > scores[best]) {
+        second = best;
+        best = i;
+      } else if (second < 0 || scores[i] > scores[second]) {
+        second = i;
+      }
+    }
+    double margin = (scores[best] - scores[second]) / ngramCount[0];
+    double fit = scores[best] / ngramCount[0];
+    boolean confident =
+        best < LANGUAGES.size()
+            && ngramCount[0] >= MIN_NGRAMS
+            && margin >= MIN_MARGIN_PER_NGRAM
+            && fit >= MIN_LOG_PROBABILITY_PER_NGRAM;
+    return new Guess(PROFILES.get(best), confident);
+  }
+
+  private interface NgramConsumer {
+    void accept(String ngram);
+  }
+
+  /** Calls the consumer with every 1- to MAX_N-gram of a normalized text. */
+  private static void forEachNgram(String normalized, NgramConsumer consumer) {
+    for (int start = 0; start < normalized.length(); start++) {
+      for (int n = 1; n <= MAX_N && start + n <= normalized.length(); n++) {
+        String ngram = normalized.substring(start, start + n);
+        // a gram of only the word separator carries no information
+        if (!ngram.equals(" ")) {
+          consumer.accept(ngram);
+        }
+      }
+    }
+  }
+
+  /**
+   * Lowercases the text and reduces it to words of letters separated by single spaces, with a
+   * space at each end. HTML tags, which Messages may contain after cleaning, are dropped.
+   */
+  static String normalize(String text) {
+    StringBuilder normalized = new StringBuilder(text.length() + 2);
+    normalized.append(' ');
+    boolean inTag = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '<') {
+        inTag = true;
+      } else if (c == '>' && inTag) {
+        inTag = false;
+      } else if (!inTag && Character.isLetter(c)) {
+        normalized.append(Character.toLowerCase(c));
+        continue;
+      }
+      if (normalized.charAt(normalized.length() - 1) != ' ') {
+        normalized.append(' ');
+      }
+    }
+    if (normalized.charAt(normalized.length() - 1) != ' ') {
+      normalized.append(' ');
+    }
+    return normalized.toString();
+  }
+
+  private static String readProfile(String language) {
+    String resource = "ngram/" + language + ".txt";
+    try (InputStream in = NgramLanguageDetector.class.getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IllegalStateException("Missing language profile " + resource);
+      }
+      StringBuilder text = new StringBuilder();
+      Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+      char[] buffer = new char[4096];
+      for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+        text.append(buffer, 0, read);
+      }
+      return text.toString();
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't read language profile " + resource, e);
+    }
+  }
+}
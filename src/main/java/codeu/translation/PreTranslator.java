@@ -0,0 +1,243 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+import codeu.model.data.Message;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Translates each new Message into the languages of the users active in its Conversation as soon
+ * as it is sent, so that the first viewer in each language finds the translation already cached.
+ *
+ * <p>The languages of each Conversation are collected as users send and view Messages in it, and
+ * forgotten once nobody has been active in it for {@link #IDLE_MILLIS}. The translations run on a small pool of background threads with a bounded queue; when the queue is
+ * full, new work is dropped and those Messages are translated when they are first shown instead.
+ *
+ * <p>Nothing is translated until {@link #start} is called. This is a singleton; the single instance
+ * is accessed through getInstance().
+ */
+public class PreTranslator {
+
+  /** How long a Conversation's languages are kept after the last activity in it. */
+  static final long IDLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /** How often Conversations that have gone idle are looked for. */
+  static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /** Holds the singleton instance of PreTranslator, created on first use. */
+  private static class InstanceHolder {
+    private static final PreTranslator INSTANCE = new PreTranslator(Clock.systemUTC());
+  }
+
+  /**
+   * Returns the singleton instance of PreTranslator that should be shared between all servlet
+   * classes. Do not call this function from a test; use getTestInstance() instead.
+   */
+  public static PreTranslator getInstance() {
+    return InstanceHolder.INSTANCE;
+  }
+
+  /** Instance getter function used for testing. */
+  public static PreTranslator getTestInstance() {
+    return new PreTranslator(Clock.systemUTC());
+  }
+
+  /**
+   * Instance getter function used for testing idle Conversations.
+   *
+   * @param clock the clock used to tell when a Conversation has gone idle
+   */
+  static PreTranslator getTestInstance(Clock clock) {
+    return new PreTranslator(clock);
+  }
+
+  /** The languages of the users active in a Conversation, and when one last was. */
+  private static class Participants {
+    final Set<String> languages = ConcurrentHashMap.newKeySet();
+    volatile long lastActiveMillis;
+  }
+
+  /** Languages of the users active in each Conversation, keyed by Conversation ID. */
+  private final Map<UUID, Participants> participantsByConversation = new ConcurrentHashMap<>();
+
+  private final Clock clock;
+  private final AtomicLong nextSweepMillis = new AtomicLong();
+
+  private volatile TranslationService translationService;
+  private volatile ThreadPoolExecutor executor;
+
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong shed = new AtomicLong();
+  private final AtomicLong translated = new AtomicLong();
+
+  /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
+  private PreTranslator(Clock clock) {
+    this.clock = clock;
+    nextSweepMillis.set(clock.millis() + SWEEP_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Starts translating new Messages in the background.
+   *
+   * <p>On App Engine, the thread factory must create background threads, which are only available
+   * with manual or basic scaling.
+   *
+   * @param translationService the service that translates and caches each Message
+   * @param threads the number of background threads
+   * @param queueCapacity the most Messages that may wait to be translated
+   * @param threadFactory creates the background threads
+   */
+  public synchronized void start(
+      TranslationService translationService,
+      int threads,
+      int queueCapacity,
+      ThreadFactory threadFactory) {
+    if (executor != null) {
+      throw new IllegalStateException("PreTranslator is already started.");
+    }
+    this.translationService = translationService;
+    executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            threadFactory,
+            (task, pool) -> shed.incrementAndGet());
+  }
+
+  /** Stops translating, letting queued translations finish for up to the given time. */
+  public synchronized void shutdown(long timeout, TimeUnit unit) {
+    if (executor == null) {
+      return;
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    executor.shutdownNow();
+    executor = null;
+  }
+
+  /** Records that a user with the given language is active in a Conversation. */
+  public void noteParticipant(UUID conversationId, String language) {
+    if (language == null) {
+      return;
+    }
+    long now = clock.millis();
+    sweepIfDue(now);
+    // computed in place so that a sweep can't remove the entry between the update and the add
+    participantsByConversation.compute(
+        conversationId,
+        (id, participants) -> {
+          if (participants == null) {
+            participants = new Participants();
+          }
+          participants.languages.add(language);
+          participants.lastActiveMillis = now;
+          return participants;
+        });
+  }
+
+  /**
+   * Records the author's language and queues the Message to be translated into the languages of
+   * everyone else active in its Conversation.
+   */
+  public void messageAdded(Message message, String authorLanguage) {
+    noteParticipant(message.getConversationId(), authorLanguage);
+    ThreadPoolExecutor pool = executor;
+    if (pool == null) {
+      return;
+    }
+    List<String> targets = targetLanguages(message);
+    if (targets.isEmpty()) {
+      return;
+    }
+    submitted.incrementAndGet();
+    pool.execute(() -> translate(message, targets));
+  }
+
+  /** Returns the number of Messages queued for translation. */
+  public long getSubmittedCount() {
+    return submitted.get();
+  }
+
+  /** Returns the number of Messages dropped because the queue was full. */
+  public long getShedCount() {
+    return shed.get();
+  }
+
+  /** Returns the number of translations made ahead of time. */
+  public long getTranslatedCount() {
+    return translated.get();
+  }
+
+  /** Returns the number of Conversations whose languages are being kept. */
+  public int getConversationCount() {
+    return participantsByConversation.size();
+  }
+
+  /** Returns the number of Messages waiting to be translated. */
+  public int getQueueDepth() {
+    ThreadPoolExecutor pool = executor;
+    return pool == null ? 0 : pool.getQueue().size();
+  }
+
+  private List<String> targetLanguages(Message message) {
+    Participants participants = participantsByConversation.get(message.getConversationId());
+    if (participants == null) {
+      return Collections.emptyList();
+    }
+    List<String> targets = new ArrayList<>(participants.languages);
+    targets.remove(message.getLanguage());
+    return targets;
+  }
+
+  private void translate(Message message, List<String> targets) {
+    translated.addAndGet(translationService.translateInBackground(message, targets));
+  }
+
+  /**
+   * Forgets the languages of Conversations that have gone idle, at most once per sweep interval.
+   * Only the caller that advances the next sweep time does the sweep.
+   */
+  private void sweepIfDue(long now) {
+    long due = nextSweepMillis.get();
+    if (now < due || !nextSweepMillis.compareAndSet(due, now + SWEEP_INTERVAL_MILLIS)) {
+      return;
+    }
+    for (UUID conversationId : participantsByConversation.keySet()) {
+      participantsByConversation.computeIfPresent(
+          conversationId,
+          (id, participants) ->
+              now - participants.lastActiveMillis >= IDLE_MILLIS ? null : participants);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+/** The text of a Message as shown to a viewer, and the language it was originally written in. */
+public class TranslatedText {
+  private final String sourceLanguage;
+  private final String text;
+  private final boolean translated;
+
+  /**
+   * Constructs a new TranslatedText.
+   *
+   * @param sourceLanguage the code of the language the Message was written in
+   * @param text the text to show
+   * @param translated true if text was translated, false if it is the original content
+   */
+  public TranslatedText(String sourceLanguage, String text, boolean translated) {
+    this.sourceLanguage = sourceLanguage;
+    this.text = text;
+    this.translated = translated;
+  }
+
+  /** Returns the code of the language the Message was written in. */
+  public String getSourceLanguage() {
+    return sourceLanguage;
+  }
+
+  /** Returns the text to show. */
+  public String getText() {
+    return text;
+  }
+
+  /** Returns true if the text was translated, false if it is the original content. */
+  public boolean isTranslated() {
+    return translated;
+  }
+}
@@ -0,0 +1,150 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of Message translations, keyed by Message ID and target language. A Message's
+ * content never changes, so entries never go stale; the least recently used ones are evicted once
+ * the cache is full. It's a singleton so all servlet classes and JSPs share the same instance.
+ */
+public class TranslationCache {
+
+  /** Number of translations kept by default. */
+  public static final int DEFAULT_CAPACITY = 10000;
+
+  /** Holds the singleton instance of TranslationCache, created on first use. */
+  private static class InstanceHolder {
+    private static final TranslationCache INSTANCE = new TranslationCache(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Returns the singleton instance of TranslationCache that should be shared between all servlet
+   * classes. Do not call this function from a test; use getTestInstance() instead.
+   */
+  public static TranslationCache getInstance() {
+    return InstanceHolder.INSTANCE;
+  }
+
+  /**
+   * Instance getter function used for testing.
+   *
+   * @param capacity the number of translations to keep
+   */
+  public static TranslationCache getTestInstance(int capacity) {
+    return new TranslationCache(capacity);
+  }
+
+  /** Key of a cached translation. */
+  private static class Key {
+    private final UUID messageId;
+    private final String language;
+
+    Key(UUID messageId, String language) {
+      this.messageId = messageId;
+      this.language = language;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return messageId.equals(key.messageId) && Objects.equals(language, key.language);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * messageId.hashCode() + Objects.hashCode(language);
+    }
+  }
+
+  private final int capacity;
+
+  /** Translations in least to most recently used order. Guarded by this. */
+  private final LinkedHashMap<Key, TranslatedText> translations;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
+  private TranslationCache(int capacity) {
+    this.capacity = capacity;
+    translations =
+        new LinkedHashMap<Key, TranslatedText>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Key, TranslatedText> eldest) {
+            if (size() > TranslationCache.this.capacity) {
+              evictions.incrementAndGet();
+              return true;
+            }
+            return false;
+          }
+        };
+  }
+
+  /**
+   * Returns the cached translation of a Message into the given language, or null if there is none.
+   */
+  public TranslatedText get(UUID messageId, String language) {
+    TranslatedText translation;
+    synchronized (this) {
+      translation = translations.get(new Key(messageId, language));
+    }
+    if (translation == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return translation;
+  }
+
+  /** Caches the translation of a Message into the given language. */
+  public synchronized void put(UUID messageId, String language, TranslatedText translation) {
+    translations.put(new Key(messageId, language), translation);
+  }
+
+  /** Returns the number of translations currently cached. */
+  public synchronized int size() {
+    return translations.size();
+  }
+
+  /** Returns the most translations this cache keeps. */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** Returns the number of lookups that found a cached translation. */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /** Returns the number of lookups that found nothing. */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /** Returns the number of translations dropped to make room for newer ones. */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+}
@@ -0,0 +1,461 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+import codeu.model.data.Message;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Translates the Messages shown on a chat page into the viewer's language. Rather than one remote
+ * call per Message, the untranslated Messages on a page are grouped by source language and sent in
+ * as few batched requests as the Translation API's limits allow. Results are cached, so each
+ * Message is only translated into each language once.
+ *
+ * <p>Translation never holds up a page for long. Each page gets a time budget, and a call to the
+ * Translation API is only started while there is still time for it to time out within the budget;
+ * the Messages not yet translated by then are shown in their original text. After repeated failures a
+ * circuit breaker stops calling the Translation API for a while, so pages fall back right away.
+ *
+ * <p>Background work, such as translating new Messages ahead of time, goes through
+ * {@link #translateInBackground} instead. It has no page budget, and its own breaker and counters,
+ * so its failures never pause translation for pages or show up as Messages shown untranslated.
+ *
+ * <p>Languages are detected locally with an {@link NgramLanguageDetector} where it is confident,
+ * so only short or ambiguous texts need a detection call to the Translation API.
+ *
+ * <p>Set the {@value #FAKE_TRANSLATOR_PROPERTY} system property to use a {@link FakeTranslator}
+ * instead of the Translation API, for example when load testing offline.
+ *
+ * <p>This is a singleton; the single instance is accessed through getInstance().
+ */
+public class TranslationService implements LanguageDetector {
+
+  /** System property that replaces the Translation API with a local FakeTranslator. */
+  public static final String FAKE_TRANSLATOR_PROPERTY = "codeu.translate.fake";
+
+  /** System property setting the FakeTranslator's latency per request, in milliseconds. */
+  public static final String FAKE_LATENCY_PROPERTY = "codeu.translate.fakeLatencyMillis";
+
+  /** How long translating one page may take before the rest falls back to the original text. */
+  static final long PAGE_BUDGET_MILLIS = 1500;
+
+  /** Consecutive failed calls that stop calls to the Translation API for a while. */
+  static final int FAILURE_THRESHOLD = 3;
+
+  /** How long calls to the Translation API are stopped after repeated failures. */
+  static final long OPEN_MILLIS = 30000;
+
+  /** The most texts the Translation API accepts in one request. */
+  static final int MAX_TEXTS_PER_REQUEST = 128;
+
+  /** The most characters the Translation API recommends sending in one request. */
+  static final int MAX_CHARS_PER_REQUEST = 5000;
+
+  /** Holds the singleton instance of TranslationService, created on first use. */
+  private static class InstanceHolder {
+    private static final TranslationService INSTANCE =
+        new TranslationService(
+            createTranslator(),
+            TranslationCache.getInstance(),
+            NgramLanguageDetector.getInstance(),
+            PAGE_BUDGET_MILLIS,
+            CloudTranslation.MAX_CALL_MILLIS,
+            Clock.systemUTC());
+  }
+
+  /**
+   * Returns the singleton instance of TranslationService that should be shared between all servlet
+   * classes. Do not call this function from a test; use getTestInstance() instead.
+   */
+  public static TranslationService getInstance() {
+    return InstanceHolder.INSTANCE;
+  }
+
+  /**
+   * Instance getter function used for testing. Supply a fake or mock Translator. Every language is
+   * detected by the Translator; there is no local detection.
+   *
+   * @param translator the Translator used for remote calls
+   * @param translationCache the cache consulted before translating
+   */
+  public static TranslationService getTestInstance(
+      Translator translator, TranslationCache translationCache) {
+    return new TranslationService(
+        translator, translationCache, null, PAGE_BUDGET_MILLIS, 0, Clock.systemUTC());
+  }
+
+  /**
+   * Instance getter function used for testing local language detection.
+   *
+   * @param translator the Translator used for remote calls
+   * @param translationCache the cache consulted before translating
+   * @param localDetector the detector tried before asking the Translator
+   */
+  static TranslationService getTestInstance(
+      Translator translator,
+      TranslationCache translationCache,
+      NgramLanguageDetector localDetector) {
+    return new TranslationService(
+        translator, translationCache, localDetector, PAGE_BUDGET_MILLIS, 0, Clock.systemUTC());
+  }
+
+  /**
+   * Instance getter function used for testing time budgets and the circuit breaker.
+   *
+   * @param translator the Translator used for remote calls
+   * @param translationCache the cache consulted before translating
+   * @param pageBudgetMillis how long translating one page may take
+   * @param maxCallMillis the longest one call to the Translator can take
+   * @param clock the clock used to measure the budget and breaker timeout
+   */
+  static TranslationService getTestInstance(
+      Translator translator, TranslationCache translationCache, long pageBudgetMillis,
+      long maxCallMillis, Clock clock) {
+    return new TranslationService(
+        translator, translationCache, null, pageBudgetMillis, maxCallMillis, clock);
+  }
+
+  private final Translator translator;
+  private final TranslationCache translationCache;
+  private final NgramLanguageDetector localDetector;
+  private final long pageBudgetMillis;
+  private final long maxCallMillis;
+  private final Clock clock;
+
+  /** The breaker and counters of one kind of caller. */
+  private static class Calls {
+    final CircuitBreaker circuitBreaker;
+    final AtomicLong failedCalls = new AtomicLong();
+    final AtomicLong fallbacks = new AtomicLong();
+
+    Calls(Clock clock) {
+      circuitBreaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS, clock);
+    }
+  }
+
+  /** Calls made while rendering a page or sending a Message. */
+  private final Calls pageCalls;
+
+  /** Calls made by background work, kept apart so they never hold up pages. */
+  private final Calls backgroundCalls;
+
+  private final AtomicLong localDetections = new AtomicLong();
+
+  /** This class is a singleton, so its constructor is private. Call getInstance() instead. */
+  private TranslationService(
+      Translator translator,
+      TranslationCache translationCache,
+      NgramLanguageDetector localDetector,
+      long pageBudgetMillis,
+      long maxCallMillis,
+      Clock clock) {
+    this.translator = translator;
+    this.translationCache = translationCache;
+    this.localDetector = localDetector;
+    this.pageBudgetMillis = pageBudgetMillis;
+    this.maxCallMillis = maxCallMillis;
+    this.clock = clock;
+    pageCalls = new Calls(clock);
+    backgroundCalls = new Calls(clock);
+  }
+
+  /**
+   * Detects the language of a single text, such as a Message being sent. The Translation API is
+   * only asked if the text can't be detected locally with confidence.
+   *
+   * @throws IllegalStateException if calls to the Translation API are stopped after repeated
+   *     failures
+   * @throws RuntimeException if the language could not be detected
+   */
+  @Override
+  public String detectLanguage(String text) {
+    return detectLanguage(text, pageCalls);
+  }
+
+  /**
+   * Translates a page of Messages into the given language. Messages that could not be translated
+   * within the page's time budget, or whose translation failed, are returned in their original
+   * text, and are translated again the next time they are shown.
+   *
+   * @param messages the Messages on the page
+   * @param targetLanguage the code of the viewer's language
+   * @return the text to show for each Message, in the same order as the Messages
+   */
+  public List<TranslatedText> translatePage(List<Message> messages, String targetLanguage) {
+    return translate(messages, targetLanguage, clock.millis() + pageBudgetMillis, pageCalls);
+  }
+
+  /**
+   * Translates a Message into each of the given languages ahead of time, caching the results for
+   * the pages that show it later. The Message's language is detected first if it isn't known. This
+   * runs without a page budget and counts its failures separately from pages.
+   *
+   * @param message the Message to translate
+   * @param targetLanguages the codes of the languages to translate it into
+   * @return the number of translations made
+   */
+  public int translateInBackground(Message message, List<String> targetLanguages) {
+    Message source = message;
+    if (source.getLanguage() == null) {
+      // detect once here rather than once per target language
+      try {
+        String language = detectLanguage(message.getContent(), backgroundCalls);
+        source =
+            new Message(
+                message.getId(),
+                message.getConversationId(),
+                message.getAuthorId(),
+                message.getContent(),
+                message.getCreationTime(),
+                language);
+      } catch (RuntimeException e) {
+        return 0;
+      }
+    }
+    List<Message> page = Collections.singletonList(source);
+    int translated = 0;
+    for (String target : targetLanguages) {
+      if (target.equals(source.getLanguage())) {
+        continue;
+      }
+      if (translate(page, target, Long.MAX_VALUE, backgroundCalls).get(0).isTranslated()) {
+        translated++;
+      }
+    }
+    return translated;
+  }
+
+  /**
+   * Returns the number of calls to the Translation API made for pages or sent Messages that
+   * failed.
+   */
+  public long getFailedCallCount() {
+    return pageCalls.failedCalls.get();
+  }
+
+  /** Returns the number of Messages shown in their original text because translation failed. */
+  public long getFallbackCount() {
+    return pageCalls.fallbacks.get();
+  }
+
+  /** Returns the number of texts whose language was detected without the Translation API. */
+  public long getLocalDetectionCount() {
+    return localDetections.get();
+  }
+
+  /** Returns true if calls to the Translation API for pages are paused after repeated failures. */
+  public boolean isCircuitOpen() {
+    return pageCalls.circuitBreaker.isOpen();
+  }
+
+  /** Returns the number of calls to the Translation API made by background work that failed. */
+  public long getBackgroundFailedCallCount() {
+    return backgroundCalls.failedCalls.get();
+  }
+
+  /** Returns the number of background translations that failed, to be made when first shown. */
+  public long getBackgroundFallbackCount() {
+    return backgroundCalls.fallbacks.get();
+  }
+
+  /** Returns true if background calls to the Translation API are paused after repeated failures. */
+  public boolean isBackgroundCircuitOpen() {
+    return backgroundCalls.circuitBreaker.isOpen();
+  }
+
+  private String detectLanguage(String text, Calls calls) {
+    String local = detectLocally(text);
+    if (local != null) {
+      return local;
+    }
+    if (!calls.circuitBreaker.allowRequest()) {
+      throw new IllegalStateException("Translation API calls are paused after repeated failures.");
+    }
+    try {
+      String language = translator.detectLanguage(text);
+      calls.circuitBreaker.recordSuccess();
+      return language;
+    } catch (RuntimeException e) {
+      recordFailure(e, calls);
+      throw e;
+    }
+  }
+
+  /**
+   * Translates Messages into the given language, starting no call that could end after the
+   * deadline, and recording the outcome of each call with the given caller's breaker and counters.
+   */
+  private List<TranslatedText> translate(
+      List<Message> messages, String targetLanguage, long deadline, Calls calls) {
+    TranslatedText[] results = new TranslatedText[messages.size()];
+
+    // Messages sent before languages were stored at write time still need detecting
+    String[] sourceLanguages = new String[messages.size()];
+    List<Integer> undetected = new ArrayList<>();
+    for (int i = 0; i < messages.size(); i++) {
+      Message message = messages.get(i);
+      results[i] = translationCache.get(message.getId(), targetLanguage);
+      if (results[i] == null) {
+        sourceLanguages[i] = message.getLanguage();
+        if (sourceLanguages[i] == null) {
+          sourceLanguages[i] = detectLocally(message.getContent());
+        }
+        if (sourceLanguages[i] == null) {
+          undetected.add(i);
+        }
+      }
+    }
+    for (List<Integer> batch : batches(messages, undetected)) {
+      if (!mayCall(deadline, calls)) {
+        break;
+      }
+      try {
+        List<String> detected = translator.detectLanguages(contentsOf(messages, batch));
+        calls.circuitBreaker.recordSuccess();
+        for (int j = 0; j < batch.size(); j++) {
+          sourceLanguages[batch.get(j)] = detected.get(j);
+        }
+      } catch (RuntimeException e) {
+        recordFailure(e, calls);
+      }
+    }
+
+    Map<String, List<Integer>> bySourceLanguage = new LinkedHashMap<>();
+    for (int i = 0; i < messages.size(); i++) {
+      if (results[i] != null || sourceLanguages[i] == null) {
+        continue;
+      }
+      Message message = messages.get(i);
+      if (sourceLanguages[i].equals(targetLanguage)) {
+        results[i] = new TranslatedText(sourceLanguages[i], message.getContent(), false);
+        translationCache.put(message.getId(), targetLanguage, results[i]);
+      } else {
+        bySourceLanguage.computeIfAbsent(sourceLanguages[i], language -> new ArrayList<>()).add(i);
+      }
+    }
+
+    translate:
+    for (Map.Entry<String, List<Integer>> entry : bySourceLanguage.entrySet()) {
+      String sourceLanguage = entry.getKey();
+      for (List<Integer> batch : batches(messages, entry.getValue())) {
+        if (!mayCall(deadline, calls)) {
+          break translate;
+        }
+        List<String> translated;
+        try {
+          translated =
+              translator.translate(contentsOf(messages, batch), sourceLanguage, targetLanguage);
+          calls.circuitBreaker.recordSuccess();
+        } catch (RuntimeException e) {
+          recordFailure(e, calls);
+          continue;
+        }
+        for (int j = 0; j < batch.size(); j++) {
+          Message message = messages.get(batch.get(j));
+          TranslatedText result = new TranslatedText(sourceLanguage, translated.get(j), true);
+          results[batch.get(j)] = result;
+          translationCache.put(message.getId(), targetLanguage, result);
+        }
+      }
+    }
+
+    // anything left over is shown as written, and not cached so that it's tried again later
+    for (int i = 0; i < messages.size(); i++) {
+      if (results[i] == null) {
+        results[i] = new TranslatedText(sourceLanguages[i], messages.get(i).getContent(), false);
+        calls.fallbacks.incrementAndGet();
+      }
+    }
+    return Arrays.asList(results);
+  }
+
+  /** Returns the language of the text if it can be detected locally with confidence, else null. */
+  private String detectLocally(String text) {
+    if (localDetector == null) {
+      return null;
+    }
+    NgramLanguageDetector.Guess guess = localDetector.guess(text);
+    if (!guess.isConfident()) {
+      return null;
+    }
+    localDetections.incrementAndGet();
+    return guess.getLanguage();
+  }
+
+  /**
+   * Returns true if a call that takes as long as it possibly can would still end within the page's
+   * budget, and the caller's breaker allows a call.
+   */
+  private boolean mayCall(long deadline, Calls calls) {
+    return clock.millis() + maxCallMillis <= deadline && calls.circuitBreaker.allowRequest();
+  }
+
+  private void recordFailure(RuntimeException e, Calls calls) {
+    calls.circuitBreaker.recordFailure();
+    calls.failedCalls.incrementAndGet();
+    System.err.println("Translation API call failed: " + e.getMessage());
+  }
+
+  /**
+   * Returns the Translator selected by system properties: the Translation API by default, or a
+   * local FakeTranslator.
+   */
+  private static Translator createTranslator() {
+    if (Boolean.getBoolean(FAKE_TRANSLATOR_PROPERTY)) {
+      return new FakeTranslator(Long.getLong(FAKE_LATENCY_PROPERTY, 0L));
+    }
+    return CloudTranslation.getInstance();
+  }
+
+  /**
+   * Splits the Messages at the given positions into batches that fit in one request. A Message
+   * that is too long on its own is sent in a batch by itself.
+   */
+  static List<List<Integer>> batches(List<Message> messages, List<Integer> positions) {
+    List<List<Integer>> batches = new ArrayList<>();
+    List<Integer> batch = new ArrayList<>();
+    int chars = 0;
+    for (int position : positions) {
+      int length = messages.get(position).getContent().length();
+      if (!batch.isEmpty()
+          && (batch.size() == MAX_TEXTS_PER_REQUEST || chars + length > MAX_CHARS_PER_REQUEST)) {
+        batches.add(batch);
+        batch = new ArrayList<>();
+        chars = 0;
+      }
+      batch.add(position);
+      chars += length;
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  private static List<String> contentsOf(List<Message> messages, List<Integer> positions) {
+    List<String> contents = new ArrayList<>(positions.size());
+    for (int position : positions) {
+      contents.add(messages.get(position).getContent());
+    }
+    return contents;
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.translation;
+
+import java.util.List;
+
+/** Detects the language of texts and translates them, a batch at a time. */
+public interface Translator extends LanguageDetector {
+
+  /**
+   * Returns the code of the language each text is written in, in the same order as the texts.
+   *
+   * @throws RuntimeException if the languages could not be detected
+   */
+  List<String> detectLanguages(List<String> texts);
+
+  /**
+   * Translates texts written in one language into another.
+   *
+   * @param texts the texts to translate, all written in sourceLanguage
+   * @param sourceLanguage the code of the language the texts are written in
+   * @param targetLanguage the code of the language to translate into
+   * @return the translated texts, in the same order as the given texts
+   * @throws RuntimeException if the texts could not be translated
+   */
+  List<String> translate(List<String> texts, String sourceLanguage, String targetLanguage);
+}
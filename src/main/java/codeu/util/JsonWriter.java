@@ -0,0 +1,195 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes JSON straight to a Writer, one token at a time, so that a response is never built up as
+ * a string first. Strings are copied to the Writer in runs between the characters that need
+ * escaping, without allocating.
+ *
+ * <p>Calls are checked only as far as needed to place commas and colons; it is up to the caller
+ * to write a well-formed document.
+ */
+public class JsonWriter {
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  // what has been written in each open object or array
+  private static final byte EMPTY_ARRAY = 1;
+  private static final byte NONEMPTY_ARRAY = 2;
+  private static final byte EMPTY_OBJECT = 3;
+  private static final byte NONEMPTY_OBJECT = 4;
+  private static final byte AFTER_NAME = 5;
+
+  private final Writer out;
+  private byte[] scopes = new byte[8];
+  private int depth;
+
+  public JsonWriter(Writer out) {
+    this.out = out;
+  }
+
+  public JsonWriter beginObject() throws IOException {
+    beforeValue();
+    push(EMPTY_OBJECT);
+    out.write('{');
+    return this;
+  }
+
+  public JsonWriter endObject() throws IOException {
+    pop(EMPTY_OBJECT, NONEMPTY_OBJECT);
+    out.write('}');
+    return this;
+  }
+
+  public JsonWriter beginArray() throws IOException {
+    beforeValue();
+    push(EMPTY_ARRAY);
+    out.write('[');
+    return this;
+  }
+
+  public JsonWriter endArray() throws IOException {
+    pop(EMPTY_ARRAY, NONEMPTY_ARRAY);
+    out.write(']');
+    return this;
+  }
+
+  /** Writes the name of the next member of the current object. */
+  public JsonWriter name(String name) throws IOException {
+    byte scope = depth == 0 ? 0 : scopes[depth - 1];
+    if (scope == NONEMPTY_OBJECT) {
+      out.write(',');
+    } else if (scope != EMPTY_OBJECT) {
+      throw new IllegalStateException("A name must be written inside an object.");
+    }
+    writeString(name);
+    out.write(':');
+    scopes[depth - 1] = AFTER_NAME;
+    return this;
+  }
+
+  /** Writes a string, or null if it is null. */
+  public JsonWriter value(String value) throws IOException {
+    if (value == null) {
+      return nullValue();
+    }
+    beforeValue();
+    writeString(value);
+    return this;
+  }
+
+  public JsonWriter value(long value) throws IOException {
+    beforeValue();
+    out.write(Long.toString(value));
+    return this;
+  }
+
+  public JsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    out.write(value ? "true" : "false");
+    return this;
+  }
+
+  public JsonWriter nullValue() throws IOException {
+    beforeValue();
+    out.write("null");
+    return this;
+  }
+
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  private void beforeValue() throws IOException {
+    if (depth == 0) {
+      return;
+    }
+    switch (scopes[depth - 1]) {
+      case EMPTY_ARRAY:
+        scopes[depth - 1] = NONEMPTY_ARRAY;
+        break;
+      case NONEMPTY_ARRAY:
+        out.write(',');
+        break;
+      case AFTER_NAME:
+        scopes[depth - 1] = NONEMPTY_OBJECT;
+        break;
+      default:
+        throw new IllegalStateException("A value inside an object must follow a name.");
+    }
+  }
+
+  private void push(byte scope) {
+    if (depth == scopes.length) {
+      scopes = Arrays.copyOf(scopes, depth * 2);
+    }
+    scopes[depth++] = scope;
+  }
+
+  private void pop(byte empty, byte nonempty) {
+    byte scope = depth == 0 ? 0 : scopes[depth - 1];
+    if (scope != empty && scope != nonempty) {
+      throw new IllegalStateException("Nothing to close here.");
+    }
+    depth--;
+  }
+
+  /**
+   * Writes a quoted string. Besides what JSON requires, the line and paragraph separators are
+   * escaped so that the output is also valid JavaScript.
+   */
+  private void writeString(String value) throws IOException {
+    out.write('"');
+    int copiedTo = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c >= ' ' && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+        continue;
+      }
+      out.write(value, copiedTo, i - copiedTo);
+      copiedTo = i + 1;
+      switch (c) {
+        case '"':
+          out.write("\\\"");
+          break;
+        case '\\':
+          out.write("\\\\");
+          break;
+        case '\n':
+          out.write("\\n");
+          break;
+        case '\r':
+          out.write("\\r");
+          break;
+        case '\t':
+          out.write("\\t");
+          break;
+        default:
+          out.write("\\u");
+          out.write(HEX_DIGITS[c >> 12]);
+          out.write(HEX_DIGITS[(c >> 8) & 0xf]);
+          out.write(HEX_DIGITS[(c >> 4) & 0xf]);
+          out.write(HEX_DIGITS[c & 0xf]);
+      }
+    }
+    out.write(value, copiedTo, value.length() - copiedTo);
+    out.write('"');
+  }
+}
@@ -1,65 +1,230 @@
 package codeu.util;
 
-import java.util.List;
-import java.util.ArrayList;
-import java.util.regex.*;
 import org.jsoup.Jsoup;
-import codeu.model.data.Message;
+import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Document.OutputSettings;
+import org.jsoup.safety.Cleaner;
 import org.jsoup.safety.Whitelist;
 
 public class MessageCleaner {
 
-	public static String clean(String messageContent){
-		//adjusted settings for cleaning done by Jsoup
-		OutputSettings settings = new OutputSettings();
-		settings.prettyPrint(false);
+  // this removes all HTML tags except for text nodes (a, b, blockquote, li, ol)
+  // reference for this whitelist can be found here: https://jsoup.org/apidocs/org/jsoup/safety/Whitelist.html#basic--
+  // The Cleaner only reads its Whitelist, so one instance is shared by every request thread.
+  private static final Cleaner CLEANER = new Cleaner(createWhitelist());
 
-		// this removes all HTML tags except for text nodes (a, b, blockquote, li, ol)
-    // reference for this whitelist can be found here: https://jsoup.org/apidocs/org/jsoup/safety/Whitelist.html#basic--
+  // OutputSettings holds a CharsetEncoder, which must not be shared between threads.
+  private static final ThreadLocal<OutputSettings> OUTPUT_SETTINGS =
+      ThreadLocal.withInitial(() -> new OutputSettings().prettyPrint(false));
+
+  public static String clean(String messageContent) {
+    String cleanedMessageContent;
+    if (isPlainText(messageContent)) {
+      cleanedMessageContent = escapePlainText(messageContent);
+    } else {
+      Document clean = CLEANER.clean(Jsoup.parseBodyFragment(messageContent, ""));
+      clean.outputSettings(OUTPUT_SETTINGS.get());
+      cleanedMessageContent = clean.body().html();
+    }
+
+    // this updates urls to be hyperlink references
+    return replaceUrls(cleanedMessageContent);
+  }
+
+  private static Whitelist createWhitelist() {
     Whitelist list = Whitelist.basic();
 
     // Divs will serve as the way of adding color styling for the text.
     // A colored section will be indicated by a div with the class tag of the appropriate color.
     list.addTags("div");
     list.addAttributes("div", "class");
+    return list;
+  }
 
-    String cleanedMessageContent = Jsoup.clean(messageContent, "", list, settings);
-    
-    // this updates urls to be hyperlink references
-    cleanedMessageContent = replaceUrls(cleanedMessageContent);
-
-    return cleanedMessageContent;
-
-	}
-
-  public static String replaceUrls(String text){
-	  String newText = text;
-	  ArrayList<String> containedUrls = new ArrayList<String>();
-		// regular expression taken from https://stackoverflow.com/questions/5713558/detect-and-extract-url-from-a-string
-		// matches with ftp, http, https, and www prefixed urls
-		Pattern pattern = Pattern.compile(
-		   "(?:^|[\\W])((ht|f)tp(s?):\\/\\/|www\\.)"
-		            + "(([\\w\\-]+\\.){1,}?([\\w\\-.~]+\\/?)*"
-		            + "[\\p{Alnum}.,%_=?&#\\-+()\\[\\]\\*$~@!:/{};']*)",
-		            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
-		Matcher urlMatcher = pattern.matcher(text);
-
-		while (urlMatcher.find())
-		{
-		    containedUrls.add(text.substring(urlMatcher.start(0),
-		            urlMatcher.end(0)));
-		}
-
-		// iterate backwards over containedUrls to update the text with <a></a> tags
-		for (int i = containedUrls.size()-1; i >=0; i--){
-		  int index = text.lastIndexOf(containedUrls.get(i));
-		  //remove this instance of the url from the original text:
-		  text = text.substring(0,index) + text.substring(index + containedUrls.get(i).length());
-		  //update the instance of the url in the new text:
-		  newText = newText.substring(0,index) + "<a href='" + containedUrls.get(i) + "'>" 
-		          + containedUrls.get(i) + "</a>" + newText.substring(index + containedUrls.get(i).length());
-		}
-		return newText;
+  /**
+   * Returns true if Jsoup would read the text as a single text node: there are no tags or
+   * character references, and none of the characters its parser drops or treats as end of input.
+   */
+  static boolean isPlainText(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '<' || c == '&' || c == '\u0000' || c == '\uffff') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Escapes plain text exactly as Jsoup outputs a text node, without parsing it. */
+  static String escapePlainText(String text) {
+    StringBuilder escaped = null;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      String entity = c == '>' ? "&gt;" : c == '\u00a0' ? "&nbsp;" : null;
+      if (entity != null) {
+        if (escaped == null) {
+          escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+        }
+        escaped.append(entity);
+      } else if (escaped != null) {
+        escaped.append(c);
+      }
+    }
+    return escaped == null ? text : escaped.toString();
+  }
+
+  /**
+   * Wraps each url in the text in an <a></a> tag. The text is scanned once and copied into a single
+   * builder, so a message with many links costs no more than one pass over it.
+   */
+  public static String replaceUrls(String text) {
+    UrlScanner scanner = new UrlScanner(text);
+    if (!scanner.find()) {
+      return text;
+    }
+    StringBuilder newText = new StringBuilder(text.length() + 64);
+    int copiedTo = 0;
+    do {
+      String url = text.substring(scanner.start(), scanner.end());
+      newText.append(text, copiedTo, scanner.start())
+          .append("<a href='").append(url).append("'>")
+          .append(url).append("</a>");
+      copiedTo = scanner.end();
+    } while (scanner.find());
+    newText.append(text, copiedTo, text.length());
+    return newText.toString();
+  }
+
+  /**
+   * Finds urls the way this regular expression, taken from
+   * https://stackoverflow.com/questions/5713558/detect-and-extract-url-from-a-string, used to:
+   *
+   * <pre>{@code
+   * (?:^|[\W])((ht|f)tp(s?):\/\/|www\.)(([\w\-]+\.){1,}?([\w\-.~]+\/?)*
+   *     [\p{Alnum}.,%_=?&#\-+()\[\]\*$~@!:/{};']*)
+   * }</pre>
+   *
+   * <p>with CASE_INSENSITIVE and MULTILINE. That is: the start of a line or one non-word character,
+   * then an ftp, http or www prefix, then a name ending in a dot, then as many url characters as
+   * follow. java.util.regex recursed once per path segment on that pattern, so a long enough url
+   * overflowed the request thread's stack. This scanner visits each character a bounded number of
+   * times and uses no recursion, so it runs in time linear in the length of the text.
+   */
+  private static class UrlScanner {
+    private final String text;
+    private int position;
+    private int start;
+    private int end;
+
+    /** Names starting before this index are known to run into a character other than a dot. */
+    private int noDotBefore;
+
+    UrlScanner(String text) {
+      this.text = text;
+    }
+
+    /** Finds the next url after the previous one, returning false if there are no more. */
+    boolean find() {
+      for (int i = position; i < text.length(); i++) {
+        int urlEnd = -1;
+        if (isLineStart(i)) {
+          urlEnd = urlEnd(i);
+        }
+        if (urlEnd < 0 && !isWordChar(text.charAt(i))) {
+          urlEnd = urlEnd(i + 1);
+        }
+        if (urlEnd >= 0) {
+          start = i;
+          end = urlEnd;
+          position = urlEnd;
+          return true;
+        }
+      }
+      position = text.length();
+      return false;
+    }
+
+    /** Returns the index where the last url found starts, including the character before it. */
+    int start() {
+      return start;
+    }
+
+    /** Returns the index just past the last url found. */
+    int end() {
+      return end;
+    }
+
+    /** Returns the end of the url whose prefix starts at the given index, or -1 if there is none. */
+    private int urlEnd(int prefixStart) {
+      int nameStart = prefixEnd(prefixStart);
+      if (nameStart < 0 || nameStart < noDotBefore) {
+        return -1;
+      }
+      int i = nameStart;
+      while (i < text.length() && isNameChar(text.charAt(i))) {
+        i++;
+      }
+      if (i == nameStart || i == text.length() || text.charAt(i) != '.') {
+        // every name starting between here and i runs into the same character
+        noDotBefore = i;
+        return -1;
+      }
+      i++;
+      while (i < text.length() && isUrlChar(text.charAt(i))) {
+        i++;
+      }
+      return i;
+    }
+
+    /** Returns the index just past an ftp, http or www prefix at the given index, or -1. */
+    private int prefixEnd(int i) {
+      int scheme = -1;
+      if (text.regionMatches(true, i, "http", 0, 4)) {
+        scheme = i + 4;
+      } else if (text.regionMatches(true, i, "ftp", 0, 3)) {
+        scheme = i + 3;
+      }
+      if (scheme >= 0) {
+        if (text.regionMatches(true, scheme, "s", 0, 1)
+            && text.regionMatches(scheme + 1, "://", 0, 3)) {
+          return scheme + 4;
+        }
+        if (text.regionMatches(scheme, "://", 0, 3)) {
+          return scheme + 3;
+        }
+      }
+      if (text.regionMatches(true, i, "www.", 0, 4)) {
+        return i + 4;
+      }
+      return -1;
+    }
+
+    /**
+     * Returns true if the index is at the start of the text or just after a line terminator, as ^
+     * matches in MULTILINE mode.
+     */
+    private boolean isLineStart(int i) {
+      if (i == 0) {
+        return true;
+      }
+      char previous = text.charAt(i - 1);
+      if (previous == '\r') {
+        return text.charAt(i) != '\n';
+      }
+      return previous == '\n' || previous == '\u0085' || previous == '\u2028'
+          || previous == '\u2029';
+    }
+
+    private static boolean isWordChar(char c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    private static boolean isNameChar(char c) {
+      return isWordChar(c) || c == '-';
+    }
+
+    private static boolean isUrlChar(char c) {
+      return isWordChar(c) || ".,%=?&#-+()[]*$~@!:/{};'".indexOf(c) >= 0;
+    }
   }
-}
\ No newline at end of file
+}
@@ -54,6 +54,12 @@
             %>
               </ul>
             <%
+              Activity olderCursor = (Activity) request.getAttribute("olderCursor");
+              if (olderCursor != null) {
+            %>
+              <p><a href="/activityfeed?before=<%= olderCursor.getTime() %>&beforeId=<%= olderCursor.getId() %>">Older activity</a></p>
+            <%
+              }
             }
             %>
     </body>
@@ -3,6 +3,10 @@
 <%@ page import = "codeu.model.store.basic.UserStore" %> 
 <%@ page import = "codeu.model.data.Conversation " %>
 <%@ page import = "codeu.model.store.basic.ConversationStore" %>
+<%@ page import = "codeu.model.store.persistence.PersistentStorageAgent" %>
+<%@ page import = "codeu.translation.PreTranslator" %>
+<%@ page import = "codeu.translation.TranslationCache" %>
+<%@ page import = "codeu.translation.TranslationService" %>
 
 <!DOCTYPE html>
 <html>
@@ -52,6 +56,34 @@
    	</p>
 	<p> Number of Conversations: <%= conversations.size() %> </p>
 
+	<% PersistentStorageAgent storageAgent = PersistentStorageAgent.getInstance(); %>
+	<% if (storageAgent.isWriteBehindEnabled()) { %>
+	<p> Writes waiting for Datastore: <%= storageAgent.getWriteBehindDepth() %>
+	  (oldest <%= storageAgent.getWriteBehindLagMillis() %> ms) </p>
+	<p> Writes flushed: <%= storageAgent.getWriteBehindFlushedCount() %>
+	  in <%= storageAgent.getWriteBehindBatchCount() %> batches,
+	  <%= storageAgent.getWriteBehindFailedBatchCount() %> failed,
+	  <%= storageAgent.getWriteBehindDroppedCount() %> writes dropped </p>
+	<% } %>
+
+	<% TranslationCache translationCache = TranslationCache.getInstance(); %>
+	<p> Cached translations: <%= translationCache.size() %> of <%= translationCache.getCapacity() %>
+	  (<%= translationCache.getHitCount() %> hits, <%= translationCache.getMissCount() %> misses,
+	  <%= translationCache.getEvictionCount() %> evicted) </p>
+	<% TranslationService translationService = TranslationService.getInstance(); %>
+	<p> Failed translation calls: <%= translationService.getFailedCallCount() %>,
+	  messages shown untranslated: <%= translationService.getFallbackCount() %>,
+	  languages detected locally: <%= translationService.getLocalDetectionCount() %>
+	  <% if (translationService.isCircuitOpen()) { %> (translation paused after repeated failures) <% } %> </p>
+	<% PreTranslator preTranslator = PreTranslator.getInstance(); %>
+	<p> Messages pre-translated: <%= preTranslator.getSubmittedCount() %>
+	  (<%= preTranslator.getTranslatedCount() %> translations, <%= preTranslator.getQueueDepth() %> waiting,
+	  <%= preTranslator.getShedCount() %> dropped,
+	  <%= preTranslator.getConversationCount() %> conversations tracked) </p>
+	<p> Failed background translation calls: <%= translationService.getBackgroundFailedCallCount() %>,
+	  translations left for later: <%= translationService.getBackgroundFallbackCount() %>
+	  <% if (translationService.isBackgroundCircuitOpen()) { %> (background translation paused after repeated failures) <% } %> </p>
+
     </div>
         </body>
 </html>
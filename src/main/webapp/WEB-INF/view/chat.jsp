@@ -14,26 +14,22 @@
   limitations under the License.
 --%>
 <%@ page import="java.util.List" %>
+<%@ page import="java.util.UUID" %>
 <%@ page import="codeu.model.data.Conversation" %>
 <%@ page import="codeu.model.data.Message" %>
 <%@ page import="codeu.model.data.User" %>
 <%@ page import="codeu.model.store.basic.UserStore" %>
-<%@ page import="com.google.cloud.translate.Translate" %>
-<%@ page import="com.google.cloud.translate.Translate.TranslateOption" %>
-<%@ page import="com.google.cloud.translate.TranslateOptions" %>
-<%@ page import="com.google.cloud.translate.Translation" %>
-<%@ page import="com.google.cloud.translate.Language" %>
-<%@ page import="com.google.cloud.translate.Detection" %>
+<%@ page import="codeu.translation.TranslatedText" %>
 
 
 <%
-// Puposely left in a compiler error to remind us to set this before deployment.
-// Change this before deploying, but don't check this into GitHub!
-String APIKEY = YOUR_API_KEY_HERE;
 Conversation conversation = (Conversation) request.getAttribute("conversation");
 List<Message> messages = (List<Message>) request.getAttribute("messages");
 User user = (User) request.getAttribute("user");
-Translate translate = TranslateOptions.newBuilder().setApiKey(APIKEY).build().getService();
+UUID olderCursor = (UUID) request.getAttribute("olderCursor");
+Integer limit = (Integer) request.getAttribute("limit");
+List<TranslatedText> translations = (List<TranslatedText>) request.getAttribute("translations");
+boolean streaming = Boolean.TRUE.equals(request.getAttribute("streaming"));
 %>
 
 <!DOCTYPE html>
@@ -84,23 +80,22 @@ Translate translate = TranslateOptions.newBuilder().setApiKey(APIKEY).build().ge
     <h1><%= conversation.getTitle() %>
       <a href="" style="float: right">&#8635;</a></h1>
     <div id="chat">
-      <ul>
+    <% if (olderCursor != null) { %>
+      <p><a href="/chat/<%= conversation.getTitle() %>?before=<%= olderCursor %>&limit=<%= limit %>">Load older messages</a></p>
+    <% } %>
+      <ul id="messages">
     <%
-      for (Message message : messages) {
+      for (int i = 0; i < messages.size(); i++) {
+        Message message = messages.get(i);
         String messageContent = "";
         String author = UserStore.getInstance()
           .getUser(message.getAuthorId()).getName();
-        if (user != null){
-          Detection detection = translate.detect(message.getContent());
-          if(detection.getLanguage().equals(user.getLanguage())) {
-            messageContent = message.getContent();
-          }
-          else{
-            TranslateOption srcLang = TranslateOption.sourceLanguage(detection.getLanguage());
-            TranslateOption tgtLang = TranslateOption.targetLanguage(user.getLanguage());
-            TranslateOption model = TranslateOption.model("nmt");
-            Translation translation = translate.translate(message.getContent(), srcLang, tgtLang, model);
-            messageContent = "[Translated from " + detection.getLanguage() + "] " + translation.getTranslatedText();
+        if (translations != null){
+          TranslatedText translation = translations.get(i);
+          if (translation.isTranslated()) {
+            messageContent = "[Translated from " + translation.getSourceLanguage() + "] " + translation.getText();
+          } else {
+            messageContent = translation.getText();
           }
         }else{
         messageContent = message.getContent();
@@ -112,9 +107,152 @@ Translate translate = TranslateOptions.newBuilder().setApiKey(APIKEY).build().ge
     %>
       </ul>
     </div>
+    <% if (request.getParameter("before") == null) { %>
+    <script>
+      // streams the Messages sent after the last one shown, or long-polls for them where the
+      // server has streams off or the browser has no EventSource, and appends them as they arrive
+      (function() {
+        var after = '<%= messages.isEmpty() ? "" : messages.get(messages.size() - 1).getId() %>';
+        var list = document.getElementById('messages');
+        var shown = {};
+
+        function appendMessage(message) {
+          // a reconnecting stream may send a Message again
+          if (shown[message.id]) {
+            return;
+          }
+          shown[message.id] = true;
+          var item = document.createElement('li');
+          var author = document.createElement('strong');
+          author.textContent = message.author + ':';
+          item.appendChild(author);
+          var prefix = message.translatedFrom
+              ? '[Translated from ' + message.translatedFrom + '] ' : '';
+          // content was cleaned when it was sent, as it is when the page is rendered
+          item.insertAdjacentHTML('beforeend', ' ' + prefix + message.content);
+          list.appendChild(item);
+        }
+
+        function poll() {
+          var request = new XMLHttpRequest();
+          request.open('GET', location.pathname + '?after=' + encodeURIComponent(after));
+          request.onload = function() {
+            if (request.status !== 200) {
+              setTimeout(poll, 5000);
+              return;
+            }
+            var messages = JSON.parse(request.responseText).messages;
+            if (messages.length > 0) {
+              messages.forEach(appendMessage);
+              after = messages[messages.length - 1].id;
+              scrollChat();
+            }
+            poll();
+          };
+          request.onerror = function() {
+            setTimeout(poll, 5000);
+          };
+          request.send();
+        }
+
+        function stream() {
+          var path = location.pathname.replace(/^\/chat\//, '/stream/');
+          var source = new EventSource(path + '?after=' + encodeURIComponent(after));
+          var opened = false;
+          var fellBack = false;
+          function fallBack() {
+            if (!fellBack) {
+              fellBack = true;
+              source.close();
+              poll();
+            }
+          }
+          source.onopen = function() {
+            opened = true;
+          };
+          source.onmessage = function(event) {
+            var message = JSON.parse(event.data);
+            appendMessage(message);
+            after = message.id;
+            scrollChat();
+          };
+          source.onerror = function() {
+            // the browser reconnects by itself unless the server refused the stream
+            if (source.readyState === EventSource.CLOSED) {
+              fallBack();
+            }
+          };
+          // the server opens a stream straight away unless its responses are buffered
+          setTimeout(function() {
+            if (!opened) {
+              fallBack();
+            }
+          }, 10000);
+        }
+
+        // sends the form to the messages API in the background and shows the stored Message
+        // straight away. Only if the request never reached the server is the form sent the
+        // ordinary way; a Message the server answered for may already be stored, so sending it
+        // again could post it twice, and the server's error is shown instead.
+        function send(form) {
+          var input = form.elements.message;
+          var error = document.getElementById('sendError');
+          function done() {
+            input.disabled = false;
+            input.focus();
+          }
+          var request = new XMLHttpRequest();
+          request.open('POST', location.pathname.replace(/^\/chat\//, '/api/messages/'));
+          request.setRequestHeader('Content-Type', 'application/x-www-form-urlencoded');
+          request.onload = function() {
+            if (request.status !== 201) {
+              var reason;
+              try {
+                reason = JSON.parse(request.responseText).error;
+              } catch (e) {
+                // not the API's JSON error, such as a proxy's error page
+              }
+              error.textContent = reason || 'Your message could not be sent. Please try again.';
+              error.hidden = false;
+              done();
+              return;
+            }
+            error.hidden = true;
+            appendMessage(JSON.parse(request.responseText));
+            scrollChat();
+            input.value = '';
+            done();
+          };
+          request.onerror = function() {
+            // disabled fields are left out of a submitted form
+            input.disabled = false;
+            form.submit();
+          };
+          request.send('message=' + encodeURIComponent(input.value));
+          // keeps the text from being sent twice while the request is out
+          input.disabled = true;
+        }
+
+        document.addEventListener('submit', function(event) {
+          var form = event.target;
+          if (form.id === 'messageForm' && form.elements.message.value !== '') {
+            event.preventDefault();
+            send(form);
+          }
+        });
+
+        if (<%= streaming %> && window.EventSource) {
+          stream();
+        } else {
+          poll();
+        }
+      })();
+    </script>
+    <% } %>
     <hr/>
     <% if (request.getSession().getAttribute("user") != null) { %>
-    <form action="/chat/<%= conversation.getTitle() %>" method="POST">
+    <form id="messageForm" action="/chat/<%= conversation.getTitle() %>" method="POST">
+      <p id="sendError" class="red" hidden></p>
       <div id="messageSubmitContainer">
         <input type="text" name="message">
         <button type="submit">Send</button>
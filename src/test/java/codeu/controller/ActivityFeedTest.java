@@ -9,6 +9,8 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.UUID;
 
 /**
  * Created by CostaA17 on 5/17/18.
@@ -39,6 +41,33 @@ public class ActivityFeedTest {
     @Test
     public void testDoGet() throws IOException, ServletException {
         activityServlet.doGet(mockRequest, mockResponse);
+        Mockito.verify(mockStore).getFeedBefore(null, null, ActivityFeedServlet.PAGE_SIZE);
+        Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
+    }
+
+    @Test
+    public void testDoGet_before() throws IOException, ServletException {
+        Mockito.when(mockRequest.getParameter("before")).thenReturn("2018-05-23T08:10:56.124Z");
+
+        activityServlet.doGet(mockRequest, mockResponse);
+
+        Mockito.verify(mockStore)
+                .getFeedBefore(
+                        Instant.parse("2018-05-23T08:10:56.124Z"), null, ActivityFeedServlet.PAGE_SIZE);
+        Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
+    }
+
+    @Test
+    public void testDoGet_beforeId() throws IOException, ServletException {
+        UUID beforeId = UUID.randomUUID();
+        Mockito.when(mockRequest.getParameter("before")).thenReturn("2018-05-23T08:10:56.124Z");
+        Mockito.when(mockRequest.getParameter("beforeId")).thenReturn(beforeId.toString());
+
+        activityServlet.doGet(mockRequest, mockResponse);
+
+        Mockito.verify(mockStore)
+                .getFeedBefore(
+                        Instant.parse("2018-05-23T08:10:56.124Z"), beforeId, ActivityFeedServlet.PAGE_SIZE);
         Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
     }
 
@@ -21,11 +21,20 @@ import codeu.model.store.basic.ActivityFeedStore;
 import codeu.model.store.basic.ConversationStore;
 import codeu.model.store.basic.MessageStore;
 import codeu.model.store.basic.UserStore;
+import codeu.translation.LanguageDetector;
+import codeu.translation.PreTranslator;
+import codeu.translation.TranslatedText;
+import codeu.translation.TranslationService;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -48,6 +57,10 @@ public class ChatServletTest {
   private MessageStore mockMessageStore;
   private UserStore mockUserStore;
   private ActivityFeedStore mockActivityFeedStore;
+  private LanguageDetector mockLanguageDetector;
+  private TranslationService mockTranslationService;
+  private PreTranslator mockPreTranslator;
+  private NewMessageNotifier newMessageNotifier;
 
   @Before
   public void setup() {
@@ -73,6 +86,18 @@ public class ChatServletTest {
 
     mockActivityFeedStore = Mockito.mock(ActivityFeedStore.class);
     mockUserStore.setActivityFeedStore(mockActivityFeedStore);
+
+    mockLanguageDetector = Mockito.mock(LanguageDetector.class);
+    chatServlet.setLanguageDetector(mockLanguageDetector);
+
+    mockTranslationService = Mockito.mock(TranslationService.class);
+    chatServlet.setTranslationService(mockTranslationService);
+
+    mockPreTranslator = Mockito.mock(PreTranslator.class);
+    chatServlet.setPreTranslator(mockPreTranslator);
+
+    newMessageNotifier = new NewMessageNotifier();
+    chatServlet.setNewMessageNotifier(newMessageNotifier);
   }
 
   @Test
@@ -93,16 +118,213 @@ public class ChatServletTest {
             UUID.randomUUID(),
             "test message",
             Instant.now()));
-    Mockito.when(mockMessageStore.getMessagesInConversation(fakeConversationId))
+    Mockito.when(
+            mockMessageStore.getLatestMessages(
+                fakeConversationId, ChatServlet.DEFAULT_PAGE_SIZE + 1))
         .thenReturn(fakeMessageList);
 
     chatServlet.doGet(mockRequest, mockResponse);
 
     Mockito.verify(mockRequest).setAttribute("conversation", fakeConversation);
     Mockito.verify(mockRequest).setAttribute("messages", fakeMessageList);
+    Mockito.verify(mockRequest).setAttribute("olderCursor", null);
+    Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
+  }
+
+  @Test
+  public void testDoGet_translatesForLoggedInUser() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+
+    User fakeUser =
+        new User(
+            UUID.randomUUID(),
+            "test_username",
+            "$2a$10$bBiLUAVmUFK6Iwg5rmpBUOIBW6rIMhU1eKfi3KR60V9UXaYTwPfHy",
+             Instant.now(), "random bio", "es");
+    Mockito.when(mockUserStore.getUser("test_username")).thenReturn(fakeUser);
+
+    UUID fakeConversationId = UUID.randomUUID();
+    Conversation fakeConversation =
+        new Conversation(fakeConversationId, UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+
+    List<Message> fakeMessageList = new ArrayList<>();
+    fakeMessageList.add(
+        new Message(
+            UUID.randomUUID(),
+            fakeConversationId,
+            UUID.randomUUID(),
+            "test message",
+            Instant.now(),
+            "en"));
+    Mockito.when(
+            mockMessageStore.getLatestMessages(
+                fakeConversationId, ChatServlet.DEFAULT_PAGE_SIZE + 1))
+        .thenReturn(fakeMessageList);
+
+    List<TranslatedText> fakeTranslations = new ArrayList<>();
+    fakeTranslations.add(new TranslatedText("en", "mensaje de prueba", true));
+    Mockito.when(mockTranslationService.translatePage(fakeMessageList, "es"))
+        .thenReturn(fakeTranslations);
+
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockRequest).setAttribute("user", fakeUser);
+    Mockito.verify(mockRequest).setAttribute("translations", fakeTranslations);
+    Mockito.verify(mockPreTranslator).noteParticipant(fakeConversationId, "es");
+    Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
+  }
+
+  @Test
+  public void testDoGet_notModified() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+    User fakeUser =
+        new User(
+            UUID.randomUUID(),
+            "test_username",
+            "$2a$10$bBiLUAVmUFK6Iwg5rmpBUOIBW6rIMhU1eKfi3KR60V9UXaYTwPfHy",
+             Instant.now(), "random bio", "es");
+    Mockito.when(mockUserStore.getUser("test_username")).thenReturn(fakeUser);
+
+    UUID fakeConversationId = UUID.randomUUID();
+    Conversation fakeConversation =
+        new Conversation(fakeConversationId, UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+    Message lastMessage =
+        new Message(
+            UUID.randomUUID(), fakeConversationId, UUID.randomUUID(), "test message",
+            Instant.now(), "es");
+    Mockito.when(mockMessageStore.getLatestMessages(fakeConversationId, 1))
+        .thenReturn(Arrays.asList(lastMessage));
+    Mockito.when(
+            mockMessageStore.getLatestMessages(
+                fakeConversationId, ChatServlet.DEFAULT_PAGE_SIZE + 1))
+        .thenReturn(Arrays.asList(lastMessage));
+    Mockito.when(mockTranslationService.translatePage(Arrays.asList(lastMessage), "es"))
+        .thenReturn(Arrays.asList(new TranslatedText("es", "test message", false)));
+
+    chatServlet.doGet(mockRequest, mockResponse);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(mockResponse).setHeader(Mockito.eq("ETag"), etag.capture());
+    Mockito.when(mockRequest.getHeader("If-None-Match")).thenReturn(etag.getValue());
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Mockito.verify(mockTranslationService, Mockito.times(1))
+        .translatePage(Mockito.anyList(), Mockito.anyString());
+    Mockito.verify(mockRequestDispatcher, Mockito.times(1)).forward(mockRequest, mockResponse);
+  }
+
+  @Test
+  public void testDoGet_newMessageChangesEtag() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    UUID fakeConversationId = UUID.randomUUID();
+    Conversation fakeConversation =
+        new Conversation(fakeConversationId, UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+
+    chatServlet.doGet(mockRequest, mockResponse);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(mockResponse).setHeader(Mockito.eq("ETag"), etag.capture());
+    Mockito.when(mockRequest.getHeader("If-None-Match")).thenReturn(etag.getValue());
+    Mockito.when(mockMessageStore.getLatestMessages(fakeConversationId, 1))
+        .thenReturn(
+            Arrays.asList(
+                new Message(
+                    UUID.randomUUID(), fakeConversationId, UUID.randomUUID(), "new message",
+                    Instant.now())));
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse, Mockito.never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Mockito.verify(mockRequestDispatcher, Mockito.times(2)).forward(mockRequest, mockResponse);
+  }
+
+  @Test
+  public void testDoGet_untranslatedPageIsNotTagged() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+    User fakeUser =
+        new User(
+            UUID.randomUUID(),
+            "test_username",
+            "$2a$10$bBiLUAVmUFK6Iwg5rmpBUOIBW6rIMhU1eKfi3KR60V9UXaYTwPfHy",
+             Instant.now(), "random bio", "es");
+    Mockito.when(mockUserStore.getUser("test_username")).thenReturn(fakeUser);
+
+    UUID fakeConversationId = UUID.randomUUID();
+    Conversation fakeConversation =
+        new Conversation(fakeConversationId, UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+    List<Message> fakeMessageList =
+        Arrays.asList(
+            new Message(
+                UUID.randomUUID(), fakeConversationId, UUID.randomUUID(), "test message",
+                Instant.now(), "en"));
+    Mockito.when(
+            mockMessageStore.getLatestMessages(
+                fakeConversationId, ChatServlet.DEFAULT_PAGE_SIZE + 1))
+        .thenReturn(fakeMessageList);
+    // the translation failed, so the original text is shown this time
+    Mockito.when(mockTranslationService.translatePage(fakeMessageList, "es"))
+        .thenReturn(Arrays.asList(new TranslatedText("en", "test message", false)));
+
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse, Mockito.never())
+        .setHeader(Mockito.eq("ETag"), Mockito.anyString());
+    Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
+  }
+
+  @Test
+  public void testDoGet_pagesBeforeCursor() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+
+    UUID fakeConversationId = UUID.randomUUID();
+    Conversation fakeConversation =
+        new Conversation(fakeConversationId, UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+
+    UUID cursor = UUID.randomUUID();
+    Mockito.when(mockRequest.getParameter("before")).thenReturn(cursor.toString());
+    Mockito.when(mockRequest.getParameter("limit")).thenReturn("2");
+
+    List<Message> fakeMessageList = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      fakeMessageList.add(
+          new Message(
+              UUID.randomUUID(),
+              fakeConversationId,
+              UUID.randomUUID(),
+              "test message " + i,
+              Instant.ofEpochMilli(i)));
+    }
+    Mockito.when(mockMessageStore.getMessagesBefore(fakeConversationId, cursor, 3))
+        .thenReturn(fakeMessageList);
+
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockRequest)
+        .setAttribute("messages", fakeMessageList.subList(1, 3));
+    Mockito.verify(mockRequest).setAttribute("olderCursor", fakeMessageList.get(1).getId());
     Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
   }
 
+  @Test
+  public void testParseLimit() {
+    Assert.assertEquals(ChatServlet.DEFAULT_PAGE_SIZE, ChatServlet.parseLimit(null));
+    Assert.assertEquals(ChatServlet.DEFAULT_PAGE_SIZE, ChatServlet.parseLimit("abc"));
+    Assert.assertEquals(ChatServlet.DEFAULT_PAGE_SIZE, ChatServlet.parseLimit("-5"));
+    Assert.assertEquals(20, ChatServlet.parseLimit("20"));
+    Assert.assertEquals(ChatServlet.MAX_PAGE_SIZE, ChatServlet.parseLimit("100000"));
+  }
+
   @Test
   public void testDoGet_badConversation() throws IOException, ServletException {
     Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/bad_conversation");
@@ -422,4 +644,164 @@ public class ChatServletTest {
 
     Mockito.verify(mockResponse).sendRedirect("/chat/test_conversation");
   }
+
+  @Test
+  public void testDoPost_StoresDetectedLanguage() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+
+    User fakeUser =
+        new User(
+            UUID.randomUUID(),
+            "test_username",
+            "$2a$10$bBiLUAVmUFK6Iwg5rmpBUOIBW6rIMhU1eKfi3KR60V9UXaYTwPfHy",
+             Instant.now(), "random bio", "en");
+    Mockito.when(mockUserStore.getUser("test_username")).thenReturn(fakeUser);
+
+    Conversation fakeConversation =
+        new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+
+    Mockito.when(mockRequest.getParameter("message")).thenReturn("Hola a todos.");
+    Mockito.when(mockLanguageDetector.detectLanguage("Hola a todos.")).thenReturn("es");
+
+    chatServlet.doPost(mockRequest, mockResponse);
+
+    ArgumentCaptor<Message> messageArgumentCaptor = ArgumentCaptor.forClass(Message.class);
+    Mockito.verify(mockMessageStore).addMessage(messageArgumentCaptor.capture());
+    Assert.assertEquals("es", messageArgumentCaptor.getValue().getLanguage());
+  }
+
+  @Test
+  public void testDoPost_DetectionFailureStillStoresMessage() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+
+    User fakeUser =
+        new User(
+            UUID.randomUUID(),
+            "test_username",
+            "$2a$10$bBiLUAVmUFK6Iwg5rmpBUOIBW6rIMhU1eKfi3KR60V9UXaYTwPfHy",
+             Instant.now(), "random bio", "en");
+    Mockito.when(mockUserStore.getUser("test_username")).thenReturn(fakeUser);
+
+    Conversation fakeConversation =
+        new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+
+    Mockito.when(mockRequest.getParameter("message")).thenReturn("Test message.");
+    Mockito.when(mockLanguageDetector.detectLanguage("Test message."))
+        .thenThrow(new RuntimeException("Translation API unavailable"));
+
+    chatServlet.doPost(mockRequest, mockResponse);
+
+    ArgumentCaptor<Message> messageArgumentCaptor = ArgumentCaptor.forClass(Message.class);
+    Mockito.verify(mockMessageStore).addMessage(messageArgumentCaptor.capture());
+    Assert.assertNull(messageArgumentCaptor.getValue().getLanguage());
+    Mockito.verify(mockResponse).sendRedirect("/chat/test_conversation");
+  }
+
+  @Test
+  public void testDoGet_pollAnswersRightAwayWithNewMessages() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Conversation fakeConversation =
+        new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+    User fakeAuthor =
+        new User(UUID.randomUUID(), "test_author", "password_hash", Instant.now(), "bio", "en");
+    Mockito.when(mockUserStore.getUser(fakeAuthor.getId())).thenReturn(fakeAuthor);
+
+    UUID lastSeenId = UUID.randomUUID();
+    Message newMessage =
+        new Message(
+            UUID.randomUUID(), fakeConversation.getId(), fakeAuthor.getId(), "new", Instant.now());
+    Mockito.when(mockRequest.getParameter("after")).thenReturn(lastSeenId.toString());
+    Mockito.when(mockMessageStore.containsMessage(fakeConversation.getId(), lastSeenId))
+        .thenReturn(true);
+    Mockito.when(
+            mockMessageStore.getMessagesAfter(
+                fakeConversation.getId(), lastSeenId, ChatServlet.MAX_PAGE_SIZE))
+        .thenReturn(Arrays.asList(newMessage));
+    StringWriter body = new StringWriter();
+    Mockito.when(mockResponse.getWriter()).thenReturn(new PrintWriter(body));
+
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockRequest, Mockito.never()).startAsync();
+    Mockito.verify(mockResponse).setContentType("application/json");
+    Assert.assertTrue(body.toString().contains("\"id\":\"" + newMessage.getId() + "\""));
+    Assert.assertTrue(body.toString().contains("\"author\":\"test_author\""));
+    Assert.assertTrue(body.toString().contains("\"content\":\"new\""));
+  }
+
+  @Test
+  public void testDoGet_pollWaitsWithoutNewMessages() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Conversation fakeConversation =
+        new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+
+    UUID lastSeenId = UUID.randomUUID();
+    Mockito.when(mockRequest.getParameter("after")).thenReturn(lastSeenId.toString());
+    Mockito.when(mockMessageStore.containsMessage(fakeConversation.getId(), lastSeenId))
+        .thenReturn(true);
+    Mockito.when(
+            mockMessageStore.getMessagesAfter(
+                fakeConversation.getId(), lastSeenId, ChatServlet.MAX_PAGE_SIZE))
+        .thenReturn(new ArrayList<>());
+    Mockito.when(mockRequest.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+    Mockito.when(mockRequest.isAsyncSupported()).thenReturn(true);
+    AsyncContext mockAsyncContext = Mockito.mock(AsyncContext.class);
+    Mockito.when(mockRequest.startAsync()).thenReturn(mockAsyncContext);
+
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockAsyncContext).setTimeout(ChatServlet.POLL_TIMEOUT_MILLIS);
+    Assert.assertEquals(1, newMessageNotifier.getWaitingCount());
+    Mockito.verify(mockResponse, Mockito.never()).getWriter();
+  }
+
+  @Test
+  public void testDoGet_pollAnswersAfterWaiting() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Conversation fakeConversation =
+        new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+
+    // an empty cursor means the client has seen no messages yet
+    Mockito.when(mockRequest.getParameter("after")).thenReturn("");
+    Mockito.when(
+            mockMessageStore.getLatestMessages(fakeConversation.getId(), ChatServlet.MAX_PAGE_SIZE))
+        .thenReturn(new ArrayList<>());
+    Mockito.when(mockRequest.getDispatcherType()).thenReturn(DispatcherType.ASYNC);
+    Mockito.when(mockRequest.isAsyncSupported()).thenReturn(true);
+    StringWriter body = new StringWriter();
+    Mockito.when(mockResponse.getWriter()).thenReturn(new PrintWriter(body));
+
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockRequest, Mockito.never()).startAsync();
+    Assert.assertEquals("{\"messages\":[]}", body.toString());
+  }
+
+  @Test
+  public void testDoGet_pollUnknownCursor() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/chat/test_conversation");
+    Conversation fakeConversation =
+        new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(fakeConversation);
+    Mockito.when(mockRequest.getParameter("after")).thenReturn(UUID.randomUUID().toString());
+
+    chatServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse)
+        .sendError(Mockito.eq(HttpServletResponse.SC_BAD_REQUEST), Mockito.anyString());
+    Mockito.verify(mockRequest, Mockito.never()).startAsync();
+  }
 }
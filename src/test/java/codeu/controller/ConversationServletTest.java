@@ -60,6 +60,7 @@ public class ConversationServletTest {
         .thenReturn(mockRequestDispatcher);
 
     mockConversationStore = Mockito.mock(ConversationStore.class);
+    Mockito.when(mockConversationStore.getLastModified()).thenReturn(Instant.ofEpochMilli(1000));
     conversationServlet.setConversationStore(mockConversationStore);
 
     mockUserStore = Mockito.mock(UserStore.class);
@@ -82,6 +83,49 @@ public class ConversationServletTest {
     Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
   }
 
+  @Test
+  public void testDoGet_notModified() throws IOException, ServletException {
+    Mockito.when(mockConversationStore.getAllConversations()).thenReturn(new ArrayList<>());
+
+    conversationServlet.doGet(mockRequest, mockResponse);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(mockResponse).setHeader(Mockito.eq("ETag"), etag.capture());
+    Mockito.when(mockRequest.getHeader("If-None-Match")).thenReturn(etag.getValue());
+    conversationServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Mockito.verify(mockRequestDispatcher, Mockito.times(1)).forward(mockRequest, mockResponse);
+  }
+
+  @Test
+  public void testDoGet_notModifiedSince() throws IOException, ServletException {
+    Mockito.when(mockConversationStore.getAllConversations()).thenReturn(new ArrayList<>());
+    Mockito.when(mockRequest.getDateHeader("If-Modified-Since")).thenReturn(1000L);
+
+    conversationServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Mockito.verify(mockRequestDispatcher, Mockito.never()).forward(mockRequest, mockResponse);
+  }
+
+  @Test
+  public void testDoGet_etagDependsOnViewer() throws IOException, ServletException {
+    Mockito.when(mockConversationStore.getAllConversations()).thenReturn(new ArrayList<>());
+    conversationServlet.doGet(mockRequest, mockResponse);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    Mockito.verify(mockResponse).setHeader(Mockito.eq("ETag"), etag.capture());
+
+    Mockito.when(mockRequest.getHeader("If-None-Match")).thenReturn(etag.getValue());
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+    Mockito.when(mockUserStore.getUser("test_username"))
+        .thenReturn(
+            new User(UUID.randomUUID(), "test_username", "password", Instant.now(), "", "en"));
+    conversationServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse, Mockito.never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    Mockito.verify(mockRequestDispatcher, Mockito.times(2)).forward(mockRequest, mockResponse);
+  }
+
   @Test
   public void testDoPost_UserNotLoggedIn() throws IOException, ServletException {
     Mockito.when(mockSession.getAttribute("user")).thenReturn(null);
@@ -89,7 +133,7 @@ public class ConversationServletTest {
     conversationServlet.doPost(mockRequest, mockResponse);
 
     Mockito.verify(mockConversationStore, Mockito.never())
-        .addConversation(Mockito.any(Conversation.class));
+        .addConversationIfAbsent(Mockito.any(Conversation.class));
     Mockito.verify(mockResponse).sendRedirect("/conversations");
   }
 
@@ -101,7 +145,7 @@ public class ConversationServletTest {
     conversationServlet.doPost(mockRequest, mockResponse);
 
     Mockito.verify(mockConversationStore, Mockito.never())
-        .addConversation(Mockito.any(Conversation.class));
+        .addConversationIfAbsent(Mockito.any(Conversation.class));
     Mockito.verify(mockResponse).sendRedirect("/conversations");
   }
 
@@ -122,7 +166,7 @@ public class ConversationServletTest {
     conversationServlet.doPost(mockRequest, mockResponse);
 
     Mockito.verify(mockConversationStore, Mockito.never())
-        .addConversation(Mockito.any(Conversation.class));
+        .addConversationIfAbsent(Mockito.any(Conversation.class));
     Mockito.verify(mockRequest).setAttribute("error", "Please enter only letters and numbers with no spaces.");
     Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
   }
@@ -141,7 +185,8 @@ public class ConversationServletTest {
 
     Mockito.when(mockUserStore.getUser("test_username")).thenReturn(fakeUser);
 
-    Mockito.when(mockConversationStore.isTitleTaken("test_conversation")).thenReturn(true);
+    Mockito.when(mockConversationStore.addConversationIfAbsent(Mockito.any(Conversation.class)))
+        .thenReturn(false);
 
     conversationServlet.doPost(mockRequest, mockResponse);
 
@@ -164,13 +209,15 @@ public class ConversationServletTest {
 
     Mockito.when(mockUserStore.getUser("test_username")).thenReturn(fakeUser);
 
-    Mockito.when(mockConversationStore.isTitleTaken("test_conversation")).thenReturn(false);
+    Mockito.when(mockConversationStore.addConversationIfAbsent(Mockito.any(Conversation.class)))
+        .thenReturn(true);
 
     conversationServlet.doPost(mockRequest, mockResponse);
 
     ArgumentCaptor<Conversation> conversationArgumentCaptor =
         ArgumentCaptor.forClass(Conversation.class);
-    Mockito.verify(mockConversationStore).addConversation(conversationArgumentCaptor.capture());
+    Mockito.verify(mockConversationStore)
+        .addConversationIfAbsent(conversationArgumentCaptor.capture());
     Assert.assertEquals(conversationArgumentCaptor.getValue().getTitle(), "test_conversation");
 
     Mockito.verify(mockResponse).sendRedirect("/chat/test_conversation");
@@ -0,0 +1,258 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.controller;
+
+import codeu.model.data.Conversation;
+import codeu.model.data.Message;
+import codeu.model.data.User;
+import codeu.model.store.basic.ConversationStore;
+import codeu.model.store.basic.MessageStore;
+import codeu.model.store.basic.UserStore;
+import codeu.translation.LanguageDetector;
+import codeu.translation.PreTranslator;
+import codeu.translation.TranslatedText;
+import codeu.translation.TranslationService;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class MessageApiServletTest {
+
+  private MessageApiServlet messageApiServlet;
+  private HttpServletRequest mockRequest;
+  private HttpSession mockSession;
+  private HttpServletResponse mockResponse;
+  private StringWriter responseBody;
+  private ConversationStore mockConversationStore;
+  private MessageStore mockMessageStore;
+  private UserStore mockUserStore;
+  private LanguageDetector mockLanguageDetector;
+  private TranslationService mockTranslationService;
+  private PreTranslator mockPreTranslator;
+  private final Conversation CONVERSATION =
+      new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+  private final User USER =
+      new User(
+          UUID.randomUUID(),
+          "test_username",
+          "$2a$10$bBiLUAVmUFK6Iwg5rmpBUOIBW6rIMhU1eKfi3KR60V9UXaYTwPfHy",
+          Instant.now(),
+          "random bio",
+          "es");
+
+  @Before
+  public void setup() throws IOException {
+    messageApiServlet = new MessageApiServlet();
+
+    mockRequest = Mockito.mock(HttpServletRequest.class);
+    mockSession = Mockito.mock(HttpSession.class);
+    Mockito.when(mockRequest.getSession()).thenReturn(mockSession);
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/api/messages/test_conversation");
+
+    mockResponse = Mockito.mock(HttpServletResponse.class);
+    responseBody = new StringWriter();
+    Mockito.when(mockResponse.getWriter()).thenReturn(new PrintWriter(responseBody));
+
+    mockConversationStore = Mockito.mock(ConversationStore.class);
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(CONVERSATION);
+    messageApiServlet.setConversationStore(mockConversationStore);
+
+    mockMessageStore = Mockito.mock(MessageStore.class);
+    messageApiServlet.setMessageStore(mockMessageStore);
+
+    mockUserStore = Mockito.mock(UserStore.class);
+    Mockito.when(mockUserStore.getUser("test_username")).thenReturn(USER);
+    Mockito.when(mockUserStore.getUser(USER.getId())).thenReturn(USER);
+    messageApiServlet.setUserStore(mockUserStore);
+
+    mockLanguageDetector = Mockito.mock(LanguageDetector.class);
+    messageApiServlet.setLanguageDetector(mockLanguageDetector);
+
+    mockTranslationService = Mockito.mock(TranslationService.class);
+    messageApiServlet.setTranslationService(mockTranslationService);
+
+    mockPreTranslator = Mockito.mock(PreTranslator.class);
+    messageApiServlet.setPreTranslator(mockPreTranslator);
+  }
+
+  private List<Message> messages(int count) {
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      messages.add(
+          new Message(
+              UUID.randomUUID(),
+              CONVERSATION.getId(),
+              USER.getId(),
+              "message " + i,
+              Instant.now(),
+              "en"));
+    }
+    return messages;
+  }
+
+  private JSONObject responseJson() {
+    return new JSONObject(responseBody.toString());
+  }
+
+  @Test
+  public void testDoGet_latestPage() throws IOException, ServletException {
+    List<Message> latest = messages(ChatServlet.DEFAULT_PAGE_SIZE + 1);
+    Mockito.when(
+            mockMessageStore.getLatestMessages(
+                CONVERSATION.getId(), ChatServlet.DEFAULT_PAGE_SIZE + 1))
+        .thenReturn(latest);
+
+    messageApiServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_OK);
+    Mockito.verify(mockResponse).setContentType("application/json");
+    JSONArray messagesJson = responseJson().getJSONArray("messages");
+    Assert.assertEquals(ChatServlet.DEFAULT_PAGE_SIZE, messagesJson.length());
+    // the oldest message fetched only shows that there is more history
+    Assert.assertEquals(
+        latest.get(1).getId().toString(), messagesJson.getJSONObject(0).getString("id"));
+    Assert.assertEquals("test_username", messagesJson.getJSONObject(0).getString("author"));
+    Assert.assertTrue(responseJson().getBoolean("hasMore"));
+  }
+
+  @Test
+  public void testDoGet_newerThanCursor() throws IOException, ServletException {
+    UUID cursor = UUID.randomUUID();
+    Mockito.when(mockRequest.getParameter("after")).thenReturn(cursor.toString());
+    Mockito.when(mockRequest.getParameter("limit")).thenReturn("2");
+    Mockito.when(mockMessageStore.containsMessage(CONVERSATION.getId(), cursor)).thenReturn(true);
+    List<Message> newer = messages(2);
+    Mockito.when(mockMessageStore.getMessagesAfter(CONVERSATION.getId(), cursor, 3))
+        .thenReturn(newer);
+
+    messageApiServlet.doGet(mockRequest, mockResponse);
+
+    JSONArray messagesJson = responseJson().getJSONArray("messages");
+    Assert.assertEquals(2, messagesJson.length());
+    Assert.assertEquals("message 1", messagesJson.getJSONObject(1).getString("content"));
+    Assert.assertFalse(responseJson().getBoolean("hasMore"));
+  }
+
+  @Test
+  public void testDoGet_translatesForLoggedInUser() throws IOException, ServletException {
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+    List<Message> latest = messages(1);
+    Mockito.when(
+            mockMessageStore.getLatestMessages(
+                CONVERSATION.getId(), ChatServlet.DEFAULT_PAGE_SIZE + 1))
+        .thenReturn(latest);
+    Mockito.when(mockTranslationService.translatePage(latest, "es"))
+        .thenReturn(Arrays.asList(new TranslatedText("en", "mensaje 0", true)));
+
+    messageApiServlet.doGet(mockRequest, mockResponse);
+
+    JSONObject messageJson = responseJson().getJSONArray("messages").getJSONObject(0);
+    Assert.assertEquals("mensaje 0", messageJson.getString("content"));
+    Assert.assertEquals("en", messageJson.getString("translatedFrom"));
+    Mockito.verify(mockPreTranslator).noteParticipant(CONVERSATION.getId(), "es");
+  }
+
+  @Test
+  public void testDoGet_unknownCursor() throws IOException, ServletException {
+    Mockito.when(mockRequest.getParameter("before")).thenReturn("not-a-message-id");
+
+    messageApiServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+    Assert.assertEquals("Unknown message cursor.", responseJson().getString("error"));
+  }
+
+  @Test
+  public void testDoGet_beforeAndAfter() throws IOException, ServletException {
+    UUID cursor = UUID.randomUUID();
+    Mockito.when(mockRequest.getParameter("before")).thenReturn(cursor.toString());
+    Mockito.when(mockRequest.getParameter("after")).thenReturn(cursor.toString());
+    Mockito.when(mockMessageStore.containsMessage(CONVERSATION.getId(), cursor)).thenReturn(true);
+
+    messageApiServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+    Assert.assertEquals(
+        "Page with before or after, not both.", responseJson().getString("error"));
+    Mockito.verify(mockMessageStore, Mockito.never())
+        .getMessagesAfter(Mockito.any(), Mockito.any(), Mockito.anyInt());
+  }
+
+  @Test
+  public void testDoGet_unknownConversation() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/api/messages/bad_conversation");
+
+    messageApiServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_NOT_FOUND);
+  }
+
+  @Test
+  public void testDoPost_returnsStoredMessage() throws IOException, ServletException {
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+    Mockito.when(mockRequest.getParameter("message"))
+        .thenReturn("Test message <script>alert(1)</script>");
+    Mockito.when(mockLanguageDetector.detectLanguage(Mockito.anyString())).thenReturn("en");
+
+    messageApiServlet.doPost(mockRequest, mockResponse);
+
+    ArgumentCaptor<Message> messageArgumentCaptor = ArgumentCaptor.forClass(Message.class);
+    Mockito.verify(mockMessageStore).addMessage(messageArgumentCaptor.capture());
+    Message stored = messageArgumentCaptor.getValue();
+    Assert.assertEquals("Test message ", stored.getContent());
+    Assert.assertEquals("en", stored.getLanguage());
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_CREATED);
+    Assert.assertEquals(stored.getId().toString(), responseJson().getString("id"));
+    Assert.assertEquals("Test message ", responseJson().getString("content"));
+  }
+
+  @Test
+  public void testDoPost_userNotLoggedIn() throws IOException, ServletException {
+    Mockito.when(mockRequest.getParameter("message")).thenReturn("Test message");
+
+    messageApiServlet.doPost(mockRequest, mockResponse);
+
+    Mockito.verify(mockMessageStore, Mockito.never()).addMessage(Mockito.any(Message.class));
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+  }
+
+  @Test
+  public void testDoPost_emptyMessage() throws IOException, ServletException {
+    Mockito.when(mockSession.getAttribute("user")).thenReturn("test_username");
+    Mockito.when(mockRequest.getParameter("message")).thenReturn("  ");
+
+    messageApiServlet.doPost(mockRequest, mockResponse);
+
+    Mockito.verify(mockMessageStore, Mockito.never()).addMessage(Mockito.any(Message.class));
+    Mockito.verify(mockResponse).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+  }
+}
@@ -0,0 +1,340 @@
+package codeu.controller;
+
+import codeu.model.data.Message;
+import codeu.model.data.User;
+import codeu.model.store.basic.UserStore;
+import codeu.translation.TranslatedText;
+import codeu.translation.TranslationCache;
+import codeu.translation.TranslationService;
+import codeu.translation.Translator;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class MessageStreamHubTest {
+
+  private static final int BUFFER_CAPACITY = 3;
+
+  /** Collects what is written, and can pretend the client is not reading. */
+  private static class FakeOutputStream extends ServletOutputStream {
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    boolean ready = true;
+    WriteListener listener;
+
+    @Override
+    public boolean isReady() {
+      return ready;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener listener) {
+      this.listener = listener;
+      try {
+        listener.onWritePossible();
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    @Override
+    public void write(int b) {
+      written.write(b);
+    }
+
+    String text() {
+      return new String(written.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private MessageStreamHub hub;
+  private UserStore mockUserStore;
+  private TranslationService mockTranslationService;
+  private ScheduledThreadPoolExecutor executor;
+  private final UUID CONVERSATION_ID = UUID.randomUUID();
+  private final User AUTHOR =
+      new User(UUID.randomUUID(), "test_author", "password", Instant.now(), "", "en");
+
+  @Before
+  public void setup() {
+    mockUserStore = Mockito.mock(UserStore.class);
+    Mockito.when(mockUserStore.getUser(AUTHOR.getId())).thenReturn(AUTHOR);
+    mockTranslationService = Mockito.mock(TranslationService.class);
+    // runs events straight away; heartbeats are only sent when a test asks for them
+    executor = new ScheduledThreadPoolExecutor(1) {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    };
+    hub = new MessageStreamHub(
+        mockUserStore, mockTranslationService, executor, executor, BUFFER_CAPACITY, 3600000);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private Message messageIn(UUID conversationId, String content) {
+    return new Message(
+        UUID.randomUUID(), conversationId, AUTHOR.getId(), content, Instant.now(), "en");
+  }
+
+  private AsyncContext contextWriting(FakeOutputStream out) throws IOException {
+    AsyncContext context = Mockito.mock(AsyncContext.class);
+    ServletResponse response = Mockito.mock(ServletResponse.class);
+    Mockito.when(context.getResponse()).thenReturn(response);
+    Mockito.when(response.getOutputStream()).thenReturn(out);
+    return context;
+  }
+
+  private String event(Message message) {
+    return new String(
+        hub.toEvents(Collections.singletonList(message), null).get(0), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testToEvents_format() {
+    Message message = messageIn(CONVERSATION_ID, "line one\nline two");
+
+    String event = event(message);
+
+    Assert.assertTrue(event.startsWith("id: " + message.getId() + "\ndata: {"));
+    Assert.assertTrue(event.endsWith("}\n\n"));
+    Assert.assertTrue(event.contains("\"author\":\"test_author\""));
+    // the line break inside the content is escaped, so the event has no blank line in it
+    Assert.assertEquals(event.length() - 2, event.indexOf("\n\n"));
+  }
+
+  @Test
+  public void testMessageAdded_sendsToStreamsOnThatConversation() throws IOException {
+    FakeOutputStream out = new FakeOutputStream();
+    FakeOutputStream elsewhere = new FakeOutputStream();
+    hub.subscribe(CONVERSATION_ID, null, contextWriting(out)).start(Collections.emptyList());
+    hub.subscribe(UUID.randomUUID(), null, contextWriting(elsewhere))
+        .start(Collections.emptyList());
+    Message message = messageIn(CONVERSATION_ID, "hello");
+
+    hub.messageAdded(message);
+
+    Assert.assertEquals(":\n\n" + event(message), out.text());
+    Assert.assertEquals(":\n\n", elsewhere.text());
+  }
+
+  @Test
+  public void testStart_missedMessagesComeFirst() throws IOException {
+    FakeOutputStream out = new FakeOutputStream();
+    MessageStreamHub.Subscriber subscriber =
+        hub.subscribe(CONVERSATION_ID, null, contextWriting(out));
+    Message missed = messageIn(CONVERSATION_ID, "missed");
+    Message sentWhileStarting = messageIn(CONVERSATION_ID, "new");
+
+    hub.messageAdded(sentWhileStarting);
+    Assert.assertEquals("", out.text());
+    subscriber.start(hub.toEvents(Collections.singletonList(missed), null));
+
+    Assert.assertEquals(event(missed) + event(sentWhileStarting), out.text());
+  }
+
+  @Test
+  public void testCatchUp_endsStreamWithoutNewMessages() throws IOException {
+    FakeOutputStream out = new FakeOutputStream();
+    AsyncContext context = contextWriting(out);
+    MessageStreamHub.Subscriber subscriber = hub.subscribe(CONVERSATION_ID, null, context);
+    Message missed = messageIn(CONVERSATION_ID, "missed");
+
+    // a newer Message would skip the ones the client has yet to catch up on
+    hub.messageAdded(messageIn(CONVERSATION_ID, "new"));
+    subscriber.catchUp(hub.toEvents(Collections.singletonList(missed), null));
+
+    Assert.assertEquals(event(missed), out.text());
+    Mockito.verify(context).complete();
+    Assert.assertEquals(0, hub.getSubscriberCount());
+  }
+
+  @Test
+  public void testSlowStream_bufferedThenWritten() throws IOException {
+    FakeOutputStream out = new FakeOutputStream();
+    hub.subscribe(CONVERSATION_ID, null, contextWriting(out)).start(Collections.emptyList());
+    out.ready = false;
+    Message first = messageIn(CONVERSATION_ID, "first");
+    Message second = messageIn(CONVERSATION_ID, "second");
+
+    hub.messageAdded(first);
+    hub.messageAdded(second);
+    Assert.assertEquals(":\n\n", out.text());
+    out.ready = true;
+    out.listener.onWritePossible();
+
+    Assert.assertEquals(":\n\n" + event(first) + event(second), out.text());
+  }
+
+  @Test
+  public void testSlowStream_droppedWhenBufferFills() throws IOException {
+    FakeOutputStream out = new FakeOutputStream();
+    AsyncContext context = contextWriting(out);
+    hub.subscribe(CONVERSATION_ID, null, context).start(Collections.emptyList());
+    out.ready = false;
+
+    for (int i = 0; i <= BUFFER_CAPACITY; i++) {
+      hub.messageAdded(messageIn(CONVERSATION_ID, "message " + i));
+    }
+
+    Mockito.verify(context).complete();
+    Assert.assertEquals(1, hub.getDroppedCount());
+    Assert.assertEquals(0, hub.getSubscriberCount());
+  }
+
+  @Test
+  public void testHeartbeat_onlyOnIdleStreams() throws IOException {
+    FakeOutputStream idle = new FakeOutputStream();
+    FakeOutputStream behind = new FakeOutputStream();
+    hub.subscribe(CONVERSATION_ID, null, contextWriting(idle)).start(Collections.emptyList());
+    hub.subscribe(CONVERSATION_ID, null, contextWriting(behind)).start(Collections.emptyList());
+    behind.ready = false;
+    Message message = messageIn(CONVERSATION_ID, "hello");
+    hub.messageAdded(message);
+
+    hub.sendHeartbeats();
+    behind.ready = true;
+    behind.listener.onWritePossible();
+
+    Assert.assertEquals(":\n\n" + event(message) + ":\n\n", idle.text());
+    Assert.assertEquals(":\n\n" + event(message), behind.text());
+  }
+
+  @Test
+  public void testComplete_removesStream() throws IOException {
+    AsyncContext context = contextWriting(new FakeOutputStream());
+    hub.subscribe(CONVERSATION_ID, null, context);
+    ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+    Mockito.verify(context).addListener(listener.capture());
+
+    listener.getValue().onComplete(new AsyncEvent(context));
+
+    Assert.assertEquals(0, hub.getSubscriberCount());
+    Assert.assertEquals(0, hub.getConversationCount());
+  }
+
+  @Test
+  public void testComplete_keepsOtherStreamsOnConversation() throws IOException {
+    AsyncContext finished = contextWriting(new FakeOutputStream());
+    hub.subscribe(CONVERSATION_ID, null, finished);
+    hub.subscribe(CONVERSATION_ID, null, contextWriting(new FakeOutputStream()));
+    ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+    Mockito.verify(finished).addListener(listener.capture());
+
+    listener.getValue().onComplete(new AsyncEvent(finished));
+
+    Assert.assertEquals(1, hub.getSubscriberCount());
+    Assert.assertEquals(1, hub.getConversationCount());
+  }
+
+  @Test
+  public void testMessageAdded_translatesOncePerLanguage() throws IOException {
+    FakeOutputStream first = new FakeOutputStream();
+    FakeOutputStream second = new FakeOutputStream();
+    FakeOutputStream untranslated = new FakeOutputStream();
+    hub.subscribe(CONVERSATION_ID, "es", contextWriting(first)).start(Collections.emptyList());
+    hub.subscribe(CONVERSATION_ID, "es", contextWriting(second)).start(Collections.emptyList());
+    hub.subscribe(CONVERSATION_ID, null, contextWriting(untranslated))
+        .start(Collections.emptyList());
+    Message message = messageIn(CONVERSATION_ID, "hello");
+    List<TranslatedText> translation = Arrays.asList(new TranslatedText("en", "hola", true));
+    Mockito.when(
+            mockTranslationService.translatePage(Collections.singletonList(message), "es"))
+        .thenReturn(translation);
+
+    hub.messageAdded(message);
+
+    Mockito.verify(mockTranslationService, Mockito.times(1))
+        .translatePage(Collections.singletonList(message), "es");
+    Assert.assertTrue(first.text().contains("\"content\":\"hola\""));
+    Assert.assertTrue(first.text().contains("\"translatedFrom\":\"en\""));
+    Assert.assertEquals(first.text(), second.text());
+    Assert.assertTrue(untranslated.text().contains("\"content\":\"hello\""));
+  }
+
+  @Test
+  public void testMessageAdded_slowTranslationDoesNotHoldUpOtherConversations()
+      throws Exception {
+    CountDownLatch translating = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Translator slowTranslator = new Translator() {
+      @Override
+      public String detectLanguage(String text) {
+        return "en";
+      }
+
+      @Override
+      public List<String> detectLanguages(List<String> texts) {
+        return Collections.nCopies(texts.size(), "en");
+      }
+
+      @Override
+      public List<String> translate(
+          List<String> texts, String sourceLanguage, String targetLanguage) {
+        translating.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return texts;
+      }
+    };
+    ExecutorService publishExecutor = Executors.newFixedThreadPool(2);
+    hub = new MessageStreamHub(
+        mockUserStore,
+        TranslationService.getTestInstance(slowTranslator, TranslationCache.getTestInstance(10)),
+        executor,
+        publishExecutor,
+        BUFFER_CAPACITY,
+        3600000);
+    FakeOutputStream translated = new FakeOutputStream();
+    FakeOutputStream elsewhere = new FakeOutputStream();
+    UUID otherConversationId = UUID.randomUUID();
+    hub.subscribe(CONVERSATION_ID, "es", contextWriting(translated))
+        .start(Collections.emptyList());
+    hub.subscribe(otherConversationId, null, contextWriting(elsewhere))
+        .start(Collections.emptyList());
+
+    hub.messageAdded(messageIn(CONVERSATION_ID, "hello"));
+    Assert.assertTrue(translating.await(5, TimeUnit.SECONDS));
+    Message other = messageIn(otherConversationId, "still moving");
+    hub.messageAdded(other);
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!elsewhere.text().contains("still moving") && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(":\n\n" + event(other), elsewhere.text());
+    Assert.assertEquals(":\n\n", translated.text());
+    release.countDown();
+    publishExecutor.shutdown();
+    Assert.assertTrue(publishExecutor.awaitTermination(5, TimeUnit.SECONDS));
+    Assert.assertTrue(translated.text().contains("\"content\":\"hello\""));
+  }
+}
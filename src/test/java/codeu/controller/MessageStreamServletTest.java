@@ -0,0 +1,228 @@
+package codeu.controller;
+
+import codeu.model.data.Conversation;
+import codeu.model.data.Message;
+import codeu.model.store.basic.ConversationStore;
+import codeu.model.store.basic.MessageStore;
+import codeu.model.store.basic.UserStore;
+import codeu.translation.TranslationService;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class MessageStreamServletTest {
+
+  private MessageStreamServlet messageStreamServlet;
+  private HttpServletRequest mockRequest;
+  private HttpSession mockSession;
+  private HttpServletResponse mockResponse;
+  private AsyncContext mockAsyncContext;
+  private ConversationStore mockConversationStore;
+  private MessageStore mockMessageStore;
+  private UserStore mockUserStore;
+  private ScheduledThreadPoolExecutor executor;
+  private MessageStreamHub messageStreamHub;
+  private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+  private final Conversation CONVERSATION =
+      new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+
+  @Before
+  public void setup() throws IOException {
+    messageStreamServlet = new MessageStreamServlet();
+
+    mockRequest = Mockito.mock(HttpServletRequest.class);
+    mockSession = Mockito.mock(HttpSession.class);
+    Mockito.when(mockRequest.getSession()).thenReturn(mockSession);
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/stream/test_conversation");
+    Mockito.when(mockRequest.isAsyncSupported()).thenReturn(true);
+
+    mockResponse = Mockito.mock(HttpServletResponse.class);
+    Mockito.when(mockResponse.getOutputStream()).thenReturn(new ServletOutputStream() {
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {
+        try {
+          listener.onWritePossible();
+        } catch (IOException e) {
+          throw new AssertionError(e);
+        }
+      }
+
+      @Override
+      public void write(int b) {
+        written.write(b);
+      }
+    });
+    mockAsyncContext = Mockito.mock(AsyncContext.class);
+    Mockito.when(mockRequest.startAsync()).thenReturn(mockAsyncContext);
+    Mockito.when(mockAsyncContext.getResponse()).thenReturn(mockResponse);
+
+    mockConversationStore = Mockito.mock(ConversationStore.class);
+    Mockito.when(mockConversationStore.getConversationWithTitle("test_conversation"))
+        .thenReturn(CONVERSATION);
+    messageStreamServlet.setConversationStore(mockConversationStore);
+
+    mockMessageStore = Mockito.mock(MessageStore.class);
+    messageStreamServlet.setMessageStore(mockMessageStore);
+
+    mockUserStore = Mockito.mock(UserStore.class);
+    messageStreamServlet.setUserStore(mockUserStore);
+
+    executor = new ScheduledThreadPoolExecutor(1);
+    messageStreamHub =
+        new MessageStreamHub(
+            mockUserStore,
+            Mockito.mock(TranslationService.class),
+            executor,
+            executor,
+            10,
+            3600000);
+    messageStreamServlet.setMessageStreamHub(messageStreamHub);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private String writtenText() {
+    return new String(written.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testDoGet_opensStream() throws IOException, ServletException {
+    messageStreamServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse).setContentType("text/event-stream");
+    Mockito.verify(mockAsyncContext).setTimeout(MessageStreamServlet.STREAM_TIMEOUT_MILLIS);
+    Assert.assertEquals(1, messageStreamHub.getSubscriberCount());
+    Assert.assertEquals(":\n\n", writtenText());
+  }
+
+  @Test
+  public void testDoGet_streamingOff() throws IOException, ServletException {
+    messageStreamServlet.setMessageStreamHub(null);
+
+    messageStreamServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse)
+        .sendError(Mockito.eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), Mockito.anyString());
+    Mockito.verify(mockRequest, Mockito.never()).startAsync();
+  }
+
+  @Test
+  public void testDoGet_unknownConversation() throws IOException, ServletException {
+    Mockito.when(mockRequest.getRequestURI()).thenReturn("/stream/bad_conversation");
+
+    messageStreamServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse)
+        .sendError(Mockito.eq(HttpServletResponse.SC_NOT_FOUND), Mockito.anyString());
+    Mockito.verify(mockRequest, Mockito.never()).startAsync();
+  }
+
+  @Test
+  public void testDoGet_unknownCursor() throws IOException, ServletException {
+    Mockito.when(mockRequest.getParameter("after")).thenReturn(UUID.randomUUID().toString());
+
+    messageStreamServlet.doGet(mockRequest, mockResponse);
+
+    Mockito.verify(mockResponse)
+        .sendError(Mockito.eq(HttpServletResponse.SC_BAD_REQUEST), Mockito.anyString());
+    Assert.assertEquals(0, messageStreamHub.getSubscriberCount());
+  }
+
+  @Test
+  public void testDoGet_reconnectReplaysFromLastEventId() throws IOException, ServletException {
+    UUID lastEventId = UUID.randomUUID();
+    Mockito.when(mockRequest.getHeader("Last-Event-ID")).thenReturn(lastEventId.toString());
+    Mockito.when(mockRequest.getParameter("after")).thenReturn(UUID.randomUUID().toString());
+    Mockito.when(mockMessageStore.containsMessage(CONVERSATION.getId(), lastEventId))
+        .thenReturn(true);
+    Message missed =
+        new Message(
+            UUID.randomUUID(),
+            CONVERSATION.getId(),
+            UUID.randomUUID(),
+            "missed message",
+            Instant.now());
+    Mockito.when(
+            mockMessageStore.getMessagesAfter(
+                CONVERSATION.getId(), lastEventId, MessageStreamServlet.MAX_MISSED_EVENTS + 1))
+        .thenReturn(Arrays.asList(missed));
+
+    messageStreamServlet.doGet(mockRequest, mockResponse);
+
+    Assert.assertTrue(writtenText().startsWith("id: " + missed.getId() + "\n"));
+    Assert.assertTrue(writtenText().contains("\"content\":\"missed message\""));
+  }
+
+  @Test
+  public void testDoGet_farBehindClientIsSentOneChunk() throws IOException, ServletException {
+    UUID lastEventId = UUID.randomUUID();
+    Mockito.when(mockRequest.getHeader("Last-Event-ID")).thenReturn(lastEventId.toString());
+    Mockito.when(mockMessageStore.containsMessage(CONVERSATION.getId(), lastEventId))
+        .thenReturn(true);
+    List<Message> missed = new ArrayList<>();
+    for (int i = 0; i <= MessageStreamServlet.MAX_MISSED_EVENTS; i++) {
+      missed.add(
+          new Message(
+              UUID.randomUUID(),
+              CONVERSATION.getId(),
+              UUID.randomUUID(),
+              "missed message " + i,
+              Instant.now()));
+    }
+    Mockito.when(
+            mockMessageStore.getMessagesAfter(
+                CONVERSATION.getId(), lastEventId, MessageStreamServlet.MAX_MISSED_EVENTS + 1))
+        .thenReturn(missed);
+
+    messageStreamServlet.doGet(mockRequest, mockResponse);
+
+    // the client reconnects from the last Message sent for the rest
+    int last = MessageStreamServlet.MAX_MISSED_EVENTS - 1;
+    Assert.assertTrue(writtenText().contains("\"content\":\"missed message " + last + "\""));
+    Assert.assertFalse(writtenText().contains(missed.get(last + 1).getId().toString()));
+    Mockito.verify(mockAsyncContext).complete();
+  }
+
+  @Test
+  public void testDoGet_failedLookupClosesStream() throws IOException, ServletException {
+    UUID lastEventId = UUID.randomUUID();
+    Mockito.when(mockRequest.getHeader("Last-Event-ID")).thenReturn(lastEventId.toString());
+    Mockito.when(mockMessageStore.containsMessage(CONVERSATION.getId(), lastEventId))
+        .thenReturn(true);
+    Mockito.when(
+            mockMessageStore.getMessagesAfter(
+                CONVERSATION.getId(), lastEventId, MessageStreamServlet.MAX_MISSED_EVENTS + 1))
+        .thenThrow(new RuntimeException("Datastore unavailable"));
+
+    messageStreamServlet.doGet(mockRequest, mockResponse);
+
+    Assert.assertEquals(0, messageStreamHub.getSubscriberCount());
+    Mockito.verify(mockAsyncContext).complete();
+  }
+}
@@ -0,0 +1,82 @@
+package codeu.controller;
+
+import codeu.model.data.Message;
+import java.time.Instant;
+import java.util.UUID;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+public class NewMessageNotifierTest {
+
+  private NewMessageNotifier notifier;
+  private final UUID CONVERSATION_ID = UUID.randomUUID();
+
+  @Before
+  public void setup() {
+    notifier = new NewMessageNotifier();
+  }
+
+  private Message messageIn(UUID conversationId) {
+    return new Message(
+        UUID.randomUUID(), conversationId, UUID.randomUUID(), "message", Instant.now());
+  }
+
+  @Test
+  public void testMessageAdded_wakesWaitersOnThatConversation() {
+    AsyncContext waiting = Mockito.mock(AsyncContext.class);
+    AsyncContext elsewhere = Mockito.mock(AsyncContext.class);
+    notifier.await(CONVERSATION_ID, waiting);
+    notifier.await(UUID.randomUUID(), elsewhere);
+
+    notifier.messageAdded(messageIn(CONVERSATION_ID));
+
+    Mockito.verify(waiting).dispatch();
+    Mockito.verify(elsewhere, Mockito.never()).dispatch();
+    Assert.assertEquals(1, notifier.getWaitingCount());
+    Assert.assertEquals(1, notifier.getConversationCount());
+  }
+
+  @Test
+  public void testTimeout_dispatchesOnce() throws Exception {
+    AsyncContext waiting = Mockito.mock(AsyncContext.class);
+    notifier.await(CONVERSATION_ID, waiting);
+    ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+    Mockito.verify(waiting).addListener(listener.capture());
+
+    listener.getValue().onTimeout(new AsyncEvent(waiting));
+    notifier.messageAdded(messageIn(CONVERSATION_ID));
+
+    Mockito.verify(waiting, Mockito.times(1)).dispatch();
+    Assert.assertEquals(0, notifier.getWaitingCount());
+    Assert.assertEquals(0, notifier.getConversationCount());
+  }
+
+  @Test
+  public void testWake_forMessageSentWhileParking() {
+    AsyncContext waiting = Mockito.mock(AsyncContext.class);
+
+    notifier.await(CONVERSATION_ID, waiting).run();
+    notifier.messageAdded(messageIn(CONVERSATION_ID));
+
+    Mockito.verify(waiting, Mockito.times(1)).dispatch();
+  }
+
+  @Test
+  public void testComplete_dropsEmptyConversation() throws Exception {
+    AsyncContext waiting = Mockito.mock(AsyncContext.class);
+    notifier.await(CONVERSATION_ID, waiting);
+    ArgumentCaptor<AsyncListener> listener = ArgumentCaptor.forClass(AsyncListener.class);
+    Mockito.verify(waiting).addListener(listener.capture());
+
+    listener.getValue().onComplete(new AsyncEvent(waiting));
+
+    Assert.assertEquals(0, notifier.getWaitingCount());
+    Assert.assertEquals(0, notifier.getConversationCount());
+  }
+}
@@ -63,13 +63,14 @@ public class RegisterServletTest {
     UserStore mockUserStore = Mockito.mock(UserStore.class);
     mockUserStore.setActivityFeedStore(mockActivityFeedStore);
     Mockito.when(mockUserStore.isUserRegistered("test username")).thenReturn(false);
+    Mockito.when(mockUserStore.addUserIfAbsent(Mockito.any(User.class))).thenReturn(true);
     registerServlet.setUserStore(mockUserStore);
 
     registerServlet.doPost(mockRequest, mockResponse);
 
     ArgumentCaptor<User> userArgumentCaptor = ArgumentCaptor.forClass(User.class);
 
-    Mockito.verify(mockUserStore).addUser(userArgumentCaptor.capture());
+    Mockito.verify(mockUserStore).addUserIfAbsent(userArgumentCaptor.capture());
     Assert.assertEquals("test username", userArgumentCaptor.getValue().getName());
     Assert.assertThat(
         userArgumentCaptor.getValue().getPasswordHash(), CoreMatchers.containsString("$2a$10$"));
@@ -88,8 +89,25 @@ public class RegisterServletTest {
 
     registerServlet.doPost(mockRequest, mockResponse);
 
-    Mockito.verify(mockUserStore, Mockito.never()).addUser(Mockito.any(User.class));
+    Mockito.verify(mockUserStore, Mockito.never()).addUserIfAbsent(Mockito.any(User.class));
     Mockito.verify(mockRequest).setAttribute("error", "That username is already taken.");
     Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
   }
+
+  @Test
+  public void testDoPost_UserRegisteredMeanwhile() throws IOException, ServletException {
+    Mockito.when(mockRequest.getParameter("username")).thenReturn("test username");
+    Mockito.when(mockRequest.getParameter("password")).thenReturn("test password");
+
+    UserStore mockUserStore = Mockito.mock(UserStore.class);
+    Mockito.when(mockUserStore.isUserRegistered("test username")).thenReturn(false);
+    Mockito.when(mockUserStore.addUserIfAbsent(Mockito.any(User.class))).thenReturn(false);
+    registerServlet.setUserStore(mockUserStore);
+
+    registerServlet.doPost(mockRequest, mockResponse);
+
+    Mockito.verify(mockRequest).setAttribute("error", "That username is already taken.");
+    Mockito.verify(mockRequestDispatcher).forward(mockRequest, mockResponse);
+    Mockito.verify(mockResponse, Mockito.never()).sendRedirect("/login");
+  }
 }
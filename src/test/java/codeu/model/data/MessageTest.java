@@ -36,5 +36,15 @@ public class MessageTest {
     Assert.assertEquals(author, message.getAuthorId());
     Assert.assertEquals(content, message.getContent());
     Assert.assertEquals(creation, message.getCreationTime());
+    Assert.assertNull(message.getLanguage());
+  }
+
+  @Test
+  public void testCreateWithLanguage() {
+    Message message =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "hola", Instant.now(), "es");
+
+    Assert.assertEquals("es", message.getLanguage());
   }
 }
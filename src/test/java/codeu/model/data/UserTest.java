@@ -15,6 +15,9 @@
 package codeu.model.data;
 
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 import org.junit.Assert;
 import org.junit.Test;
@@ -39,4 +42,19 @@ public class UserTest {
     Assert.assertEquals(creation, user.getCreationTime());
     Assert.assertEquals(language, user.getLanguage());
   }
+
+  @Test
+  public void testRemoveFriend_whileIteratingFriends() {
+    Set<String> friends = new HashSet<>(Arrays.asList("friend_one", "friend_two", "friend_three"));
+    User user =
+        new User(UUID.randomUUID(), "test_username", "password hash", Instant.now(), "bio",
+            "English", friends);
+
+    for (String friend : user.getFriends()) {
+      user.removeFriend(friend);
+    }
+
+    Assert.assertTrue(user.getFriends().isEmpty());
+    Assert.assertEquals(3, friends.size());
+  }
 }
@@ -2,7 +2,13 @@ package codeu.model.store.basic;
 
 import codeu.model.data.Activity;
 import codeu.model.store.persistence.PersistentStorageAgent;
+import codeu.model.store.persistence.PersistentDataStoreException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -35,6 +41,95 @@ public class ActivityFeedStoreTest {
         Mockito.verify(mockPersistentStorageAgent).writeThrough(ACTIVITY);
     }
 
+    @Test
+    public void testGetFeed_newestFirst() {
+        Activity older = new Activity("older", Instant.ofEpochMilli(1000));
+        Activity newer = new Activity("newer", Instant.ofEpochMilli(2000));
+
+        activityFeedStore.addActivity(older);
+        activityFeedStore.addActivity(newer);
+        List<Activity> result = activityFeedStore.getFeed();
+
+        Assert.assertEquals(2, result.size());
+        assertEquals(newer, result.get(0));
+        assertEquals(older, result.get(1));
+    }
+
+    @Test
+    public void testAddActivity_dropsOldestBeyondCapacity() {
+        activityFeedStore = ActivityFeedStore.getTestInstance(mockPersistentStorageAgent, 2);
+        activityFeedStore.addActivity(new Activity("one", Instant.ofEpochMilli(1000)));
+        activityFeedStore.addActivity(new Activity("two", Instant.ofEpochMilli(2000)));
+        activityFeedStore.addActivity(new Activity("three", Instant.ofEpochMilli(3000)));
+
+        List<Activity> result = activityFeedStore.getFeed(2);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("three", result.get(0).getEvent());
+        Assert.assertEquals("two", result.get(1).getEvent());
+    }
+
+    @Test
+    public void testGetFeedBefore_fromMemory() throws PersistentDataStoreException {
+        activityFeedStore.addActivity(new Activity("one", Instant.ofEpochMilli(1000)));
+        activityFeedStore.addActivity(new Activity("two", Instant.ofEpochMilli(2000)));
+        activityFeedStore.addActivity(new Activity("three", Instant.ofEpochMilli(3000)));
+
+        List<Activity> result = activityFeedStore.getFeedBefore(Instant.ofEpochMilli(3000), null, 10);
+
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("two", result.get(0).getEvent());
+        Assert.assertEquals("one", result.get(1).getEvent());
+        Mockito.verify(mockPersistentStorageAgent, Mockito.never())
+                .loadActivities(
+                        Mockito.any(Instant.class), Mockito.any(UUID.class), Mockito.anyInt());
+    }
+
+    @Test
+    public void testGetFeedBefore_olderPageFromStorage() throws PersistentDataStoreException {
+        activityFeedStore = ActivityFeedStore.getTestInstance(mockPersistentStorageAgent, 2);
+        Activity two = new Activity("two", Instant.ofEpochMilli(2000));
+        activityFeedStore.addActivity(new Activity("one", Instant.ofEpochMilli(1000)));
+        activityFeedStore.addActivity(two);
+        activityFeedStore.addActivity(new Activity("three", Instant.ofEpochMilli(3000)));
+        List<Activity> stored = new ArrayList<>();
+        stored.add(new Activity("one", Instant.ofEpochMilli(1000)));
+        Mockito.when(
+                mockPersistentStorageAgent.loadActivities(
+                        Instant.ofEpochMilli(2000), two.getId(), 1))
+                .thenReturn(stored);
+
+        List<Activity> result = activityFeedStore.getFeed(3);
+
+        Assert.assertEquals(3, result.size());
+        Assert.assertEquals("three", result.get(0).getEvent());
+        Assert.assertEquals("two", result.get(1).getEvent());
+        Assert.assertEquals("one", result.get(2).getEvent());
+    }
+
+    @Test
+    public void testGetFeedBefore_pagesThroughActivitiesAtTheSameTime() {
+        Instant time = Instant.ofEpochMilli(1000);
+        Set<UUID> added = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            Activity activity = new Activity("event " + i, time);
+            activityFeedStore.addActivity(activity);
+            added.add(activity.getId());
+        }
+
+        Set<UUID> seen = new HashSet<>();
+        List<Activity> page = activityFeedStore.getFeed(2);
+        while (!page.isEmpty()) {
+            for (Activity activity : page) {
+                Assert.assertTrue(seen.add(activity.getId()));
+            }
+            Activity last = page.get(page.size() - 1);
+            page = activityFeedStore.getFeedBefore(last.getTime(), last.getId(), 2);
+        }
+
+        Assert.assertEquals(added, seen);
+    }
+
     private void assertEquals(Activity expectedActivity, Activity actualActivity) {
         Assert.assertEquals(expectedActivity.getEvent(), actualActivity.getEvent());
         Assert.assertEquals(expectedActivity.getTime(), actualActivity.getTime());
@@ -76,6 +76,56 @@ public class ConversationStoreTest {
     Mockito.verify(mockPersistentStorageAgent).writeThrough(inputConversation);
   }
 
+  @Test
+  public void testGetLastModified_latestLoadedCreationTime() {
+    Assert.assertEquals(Instant.ofEpochMilli(1000), conversationStore.getLastModified());
+  }
+
+  @Test
+  public void testGetLastModified_movesOnAdd() {
+    Instant before = Instant.now();
+
+    conversationStore.addConversation(
+        new Conversation(
+            UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.ofEpochMilli(0)));
+
+    Assert.assertFalse(conversationStore.getLastModified().isBefore(before));
+  }
+
+  @Test
+  public void testGetConversation_byId() {
+    Conversation resultConversation = conversationStore.getConversation(CONVERSATION_ONE.getId());
+
+    assertEquals(CONVERSATION_ONE, resultConversation);
+  }
+
+  @Test
+  public void testAddConversationIfAbsent_added() {
+    Conversation inputConversation =
+        new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+
+    boolean added = conversationStore.addConversationIfAbsent(inputConversation);
+
+    Assert.assertTrue(added);
+    assertEquals(inputConversation, conversationStore.getConversation(inputConversation.getId()));
+    Mockito.verify(mockPersistentStorageAgent).writeThrough(inputConversation);
+  }
+
+  @Test
+  public void testAddConversationIfAbsent_titleTaken() {
+    Conversation inputConversation =
+        new Conversation(
+            UUID.randomUUID(), UUID.randomUUID(), CONVERSATION_ONE.getTitle(), Instant.now());
+
+    boolean added = conversationStore.addConversationIfAbsent(inputConversation);
+
+    Assert.assertFalse(added);
+    assertEquals(
+        CONVERSATION_ONE, conversationStore.getConversationWithTitle(CONVERSATION_ONE.getTitle()));
+    Assert.assertNull(conversationStore.getConversation(inputConversation.getId()));
+    Mockito.verify(mockPersistentStorageAgent, Mockito.never()).writeThrough(inputConversation);
+  }
+
   private void assertEquals(Conversation expectedConversation, Conversation actualConversation) {
     Assert.assertEquals(expectedConversation.getId(), actualConversation.getId());
     Assert.assertEquals(expectedConversation.getOwnerId(), actualConversation.getOwnerId());
@@ -1,10 +1,15 @@
 package codeu.model.store.basic;
 
 import codeu.model.data.Message;
+import codeu.model.data.User;
+import codeu.model.store.persistence.PersistentDataStoreException;
 import codeu.model.store.persistence.PersistentStorageAgent;
+import codeu.translation.PreTranslator;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import org.junit.Assert;
 import org.junit.Before;
@@ -19,6 +24,7 @@ public class MessageStoreTest {
   private ActivityFeedStore mockActivityFeedStore;
   private UserStore mockUserStore;
   private ConversationStore mockConversationStore;
+  private PreTranslator mockPreTranslator;
 
   private final UUID CONVERSATION_ID_ONE = UUID.randomUUID();
   private final Message MESSAGE_ONE =
@@ -52,6 +58,8 @@ public class MessageStoreTest {
     mockPersistentStorageAgent = Mockito.mock(PersistentStorageAgent.class);
     messageStore = MessageStore.getTestInstance(mockPersistentStorageAgent, mockActivityFeedStore,
             mockConversationStore, mockUserStore);
+    mockPreTranslator = Mockito.mock(PreTranslator.class);
+    messageStore.setPreTranslator(mockPreTranslator);
 
     final List<Message> messageList = new ArrayList<>();
     messageList.add(MESSAGE_ONE);
@@ -87,6 +95,196 @@ public class MessageStoreTest {
     Mockito.verify(mockPersistentStorageAgent).writeThrough(inputMessage);
   }
 
+  @Test
+  public void testAddMessage_queuesPreTranslation() {
+    User author =
+        new User(UUID.randomUUID(), "test_username", "password_hash", Instant.now(), "bio", "es");
+    Mockito.when(mockUserStore.getUser(author.getId())).thenReturn(author);
+    Message inputMessage =
+        new Message(
+            UUID.randomUUID(), CONVERSATION_ID_ONE, author.getId(), "hola", Instant.now(), "es");
+
+    messageStore.addMessage(inputMessage);
+
+    Mockito.verify(mockPreTranslator).messageAdded(inputMessage, "es");
+  }
+
+  @Test
+  public void testAddMessage_notifiesListeners() {
+    List<Message> notified = new ArrayList<>();
+    MessageListener listener = notified::add;
+    messageStore.addMessageListener(listener);
+    Message inputMessage =
+        new Message(
+            UUID.randomUUID(), CONVERSATION_ID_ONE, UUID.randomUUID(), "hello", Instant.now());
+
+    messageStore.addMessage(inputMessage);
+    messageStore.removeMessageListener(listener);
+    messageStore.addMessage(
+        new Message(
+            UUID.randomUUID(), CONVERSATION_ID_ONE, UUID.randomUUID(), "again", Instant.now()));
+
+    Assert.assertEquals(1, notified.size());
+    assertEquals(inputMessage, notified.get(0));
+  }
+
+  @Test
+  public void testContainsMessage() {
+    Assert.assertTrue(messageStore.containsMessage(CONVERSATION_ID_ONE, MESSAGE_ONE.getId()));
+    Assert.assertFalse(messageStore.containsMessage(CONVERSATION_ID_ONE, MESSAGE_THREE.getId()));
+  }
+
+  @Test
+  public void testAddMessage_appendsToExistingConversation() {
+    Message inputMessage =
+        new Message(
+            UUID.randomUUID(),
+            CONVERSATION_ID_ONE,
+            UUID.randomUUID(),
+            "message four",
+            Instant.ofEpochMilli(4000));
+
+    messageStore.addMessage(inputMessage);
+    List<Message> resultMessages = messageStore.getMessagesInConversation(CONVERSATION_ID_ONE);
+
+    Assert.assertEquals(3, resultMessages.size());
+    assertEquals(MESSAGE_ONE, resultMessages.get(0));
+    assertEquals(MESSAGE_TWO, resultMessages.get(1));
+    assertEquals(inputMessage, resultMessages.get(2));
+  }
+
+  @Test
+  public void testGetMessagesInConversation_unknownConversation() {
+    List<Message> resultMessages = messageStore.getMessagesInConversation(UUID.randomUUID());
+
+    Assert.assertTrue(resultMessages.isEmpty());
+  }
+
+  @Test
+  public void testGetLatestMessages() {
+    List<Message> resultMessages = messageStore.getLatestMessages(CONVERSATION_ID_ONE, 1);
+
+    Assert.assertEquals(1, resultMessages.size());
+    assertEquals(MESSAGE_TWO, resultMessages.get(0));
+  }
+
+  @Test
+  public void testGetLatestMessages_limitLargerThanConversation() {
+    List<Message> resultMessages = messageStore.getLatestMessages(CONVERSATION_ID_ONE, 10);
+
+    Assert.assertEquals(2, resultMessages.size());
+    assertEquals(MESSAGE_ONE, resultMessages.get(0));
+    assertEquals(MESSAGE_TWO, resultMessages.get(1));
+  }
+
+  @Test
+  public void testGetMessagesBefore() {
+    List<Message> resultMessages =
+        messageStore.getMessagesBefore(CONVERSATION_ID_ONE, MESSAGE_TWO.getId(), 10);
+
+    Assert.assertEquals(1, resultMessages.size());
+    assertEquals(MESSAGE_ONE, resultMessages.get(0));
+  }
+
+  @Test
+  public void testGetMessagesAfter() {
+    List<Message> resultMessages =
+        messageStore.getMessagesAfter(CONVERSATION_ID_ONE, MESSAGE_ONE.getId(), 10);
+
+    Assert.assertEquals(1, resultMessages.size());
+    assertEquals(MESSAGE_TWO, resultMessages.get(0));
+  }
+
+  @Test
+  public void testGetMessagesBefore_cursorInOtherConversation() {
+    List<Message> resultMessages =
+        messageStore.getMessagesBefore(CONVERSATION_ID_ONE, MESSAGE_THREE.getId(), 10);
+
+    Assert.assertTrue(resultMessages.isEmpty());
+  }
+
+  @Test
+  public void testGetMessagesInConversation_loadsFromStorageOnce()
+      throws PersistentDataStoreException {
+    UUID storedConversationId = UUID.randomUUID();
+    Message storedMessage =
+        new Message(
+            UUID.randomUUID(),
+            storedConversationId,
+            UUID.randomUUID(),
+            "stored message",
+            Instant.ofEpochMilli(500));
+    List<Message> storedMessages = new ArrayList<>();
+    storedMessages.add(storedMessage);
+    Mockito.when(mockPersistentStorageAgent.loadMessages(storedConversationId))
+        .thenReturn(storedMessages);
+
+    List<Message> firstResult = messageStore.getMessagesInConversation(storedConversationId);
+    List<Message> secondResult = messageStore.getLatestMessages(storedConversationId, 10);
+
+    Assert.assertEquals(1, firstResult.size());
+    assertEquals(storedMessage, firstResult.get(0));
+    Assert.assertEquals(1, secondResult.size());
+    Mockito.verify(mockPersistentStorageAgent).loadMessages(storedConversationId);
+  }
+
+  @Test
+  public void testGetMessagesInConversation_preloadedConversationNotLoadedAgain()
+      throws PersistentDataStoreException {
+    messageStore.getMessagesInConversation(CONVERSATION_ID_ONE);
+
+    Mockito.verify(mockPersistentStorageAgent, Mockito.never()).loadMessages(CONVERSATION_ID_ONE);
+  }
+
+  @Test
+  public void testAddMessage_loadsHistoryBeforeAppending() throws PersistentDataStoreException {
+    UUID storedConversationId = UUID.randomUUID();
+    Message storedMessage =
+        new Message(
+            UUID.randomUUID(),
+            storedConversationId,
+            UUID.randomUUID(),
+            "stored message",
+            Instant.ofEpochMilli(500));
+    List<Message> storedMessages = new ArrayList<>();
+    storedMessages.add(storedMessage);
+    Mockito.when(mockPersistentStorageAgent.loadMessages(storedConversationId))
+        .thenReturn(storedMessages);
+    Message inputMessage =
+        new Message(
+            UUID.randomUUID(),
+            storedConversationId,
+            UUID.randomUUID(),
+            "new message",
+            Instant.ofEpochMilli(600));
+
+    messageStore.addMessage(inputMessage);
+    List<Message> resultMessages = messageStore.getMessagesInConversation(storedConversationId);
+
+    Assert.assertEquals(2, resultMessages.size());
+    assertEquals(storedMessage, resultMessages.get(0));
+    assertEquals(inputMessage, resultMessages.get(1));
+  }
+
+  @Test
+  public void testSetHistories_emptyHistoryCountsAsLoaded() throws PersistentDataStoreException {
+    UUID emptyConversationId = UUID.randomUUID();
+    Map<UUID, List<Message>> histories = new HashMap<>();
+    histories.put(emptyConversationId, new ArrayList<>());
+    List<Message> messages = new ArrayList<>();
+    messages.add(MESSAGE_ONE);
+    histories.put(CONVERSATION_ID_ONE, messages);
+
+    messageStore.setHistories(histories);
+
+    Assert.assertTrue(messageStore.getMessagesInConversation(emptyConversationId).isEmpty());
+    Mockito.verify(mockPersistentStorageAgent, Mockito.never()).loadMessages(emptyConversationId);
+    Map<UUID, List<Message>> loaded = messageStore.getLoadedHistories();
+    Assert.assertEquals(2, loaded.size());
+    Assert.assertEquals(1, loaded.get(CONVERSATION_ID_ONE).size());
+    assertEquals(MESSAGE_ONE, loaded.get(CONVERSATION_ID_ONE).get(0));
+  }
+
   private void assertEquals(Message expectedMessage, Message actualMessage) {
     Assert.assertEquals(expectedMessage.getId(), actualMessage.getId());
     Assert.assertEquals(expectedMessage.getConversationId(), actualMessage.getConversationId());
@@ -0,0 +1,242 @@
+package codeu.model.store.basic;
+
+import codeu.model.data.Activity;
+import codeu.model.data.Conversation;
+import codeu.model.data.Message;
+import codeu.model.data.User;
+import codeu.model.store.persistence.PersistentStorageAgent;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Stress test that runs parallel posts and reads against every store. Each test starts all of its
+ * workers at the same moment and then checks that no write was lost and that the indexes agree
+ * with the lists they were built from.
+ */
+public class StoreConcurrencyTest {
+
+  private static final int THREADS = 8;
+  private static final int OPERATIONS_PER_THREAD = 250;
+
+  private ExecutorService executor;
+  private ActivityFeedStore activityFeedStore;
+  private UserStore userStore;
+  private ConversationStore conversationStore;
+  private MessageStore messageStore;
+
+  @Before
+  public void setup() {
+    executor = Executors.newFixedThreadPool(THREADS * 2);
+    PersistentStorageAgent mockPersistentStorageAgent = Mockito.mock(PersistentStorageAgent.class);
+    activityFeedStore =
+        ActivityFeedStore.getTestInstance(
+            mockPersistentStorageAgent, THREADS * OPERATIONS_PER_THREAD);
+    userStore = UserStore.getTestInstance(mockPersistentStorageAgent, activityFeedStore);
+    conversationStore =
+        ConversationStore.getTestInstance(mockPersistentStorageAgent, activityFeedStore, userStore);
+    messageStore =
+        MessageStore.getTestInstance(
+            mockPersistentStorageAgent, activityFeedStore, conversationStore, userStore);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testUserStore_parallelAddsAndReads() throws Exception {
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      workers.add(() -> {
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+          User user = newUser("user_" + thread + "_" + i);
+          userStore.addUser(user);
+          Assert.assertSame(user, userStore.getUser(user.getName()));
+          Assert.assertSame(user, userStore.getUser(user.getId()));
+        }
+        return null;
+      });
+      workers.add(() -> {
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+          for (User user : userStore.getUsersList()) {
+            Assert.assertTrue(userStore.isUserRegistered(user.getName()));
+          }
+        }
+        return null;
+      });
+    }
+
+    runAll(workers);
+
+    Assert.assertEquals(THREADS * OPERATIONS_PER_THREAD, userStore.getUsersList().size());
+    Assert.assertEquals(THREADS * OPERATIONS_PER_THREAD, activityFeedStore.getFeed().size());
+  }
+
+  @Test
+  public void testUserStore_parallelRegistrationsOfSameName() throws Exception {
+    AtomicInteger registered = new AtomicInteger();
+
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      workers.add(() -> {
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+          if (userStore.addUserIfAbsent(newUser("name_" + i))) {
+            registered.incrementAndGet();
+          }
+          Assert.assertTrue(userStore.isUserRegistered("name_" + i));
+        }
+        return null;
+      });
+    }
+
+    runAll(workers);
+
+    Assert.assertEquals(OPERATIONS_PER_THREAD, registered.get());
+    List<User> users = userStore.getUsersList();
+    Assert.assertEquals(OPERATIONS_PER_THREAD, users.size());
+    for (User user : users) {
+      Assert.assertSame(user, userStore.getUser(user.getName()));
+      Assert.assertSame(user, userStore.getUser(user.getId()));
+    }
+  }
+
+  @Test
+  public void testConversationStore_parallelCreatesOfSameTitle() throws Exception {
+    User owner = newUser("owner");
+    userStore.addUser(owner);
+    AtomicInteger created = new AtomicInteger();
+
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      workers.add(() -> {
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+          Conversation conversation =
+              new Conversation(UUID.randomUUID(), owner.getId(), "title_" + i, Instant.now());
+          if (conversationStore.addConversationIfAbsent(conversation)) {
+            created.incrementAndGet();
+          }
+          Assert.assertNotNull(conversationStore.getConversationWithTitle("title_" + i));
+        }
+        return null;
+      });
+    }
+
+    runAll(workers);
+
+    Assert.assertEquals(OPERATIONS_PER_THREAD, created.get());
+    List<Conversation> conversations = conversationStore.getAllConversations();
+    Assert.assertEquals(OPERATIONS_PER_THREAD, conversations.size());
+    for (Conversation conversation : conversations) {
+      Assert.assertSame(
+          conversation, conversationStore.getConversationWithTitle(conversation.getTitle()));
+      Assert.assertSame(conversation, conversationStore.getConversation(conversation.getId()));
+    }
+  }
+
+  @Test
+  public void testMessageStore_parallelPostsAndReads() throws Exception {
+    User author = newUser("author");
+    userStore.addUser(author);
+    Conversation conversation =
+        new Conversation(UUID.randomUUID(), author.getId(), "busy_room", Instant.now());
+    conversationStore.addConversation(conversation);
+    UUID conversationId = conversation.getId();
+
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      workers.add(() -> {
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+          messageStore.addMessage(
+              new Message(UUID.randomUUID(), conversationId, author.getId(), "hi", Instant.now()));
+        }
+        return null;
+      });
+      workers.add(() -> {
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+          List<Message> page = messageStore.getLatestMessages(conversationId, 20);
+          for (Message message : page) {
+            Assert.assertNotNull(message);
+          }
+          if (!page.isEmpty()) {
+            List<Message> after =
+                messageStore.getMessagesAfter(conversationId, page.get(0).getId(), 20);
+            Assert.assertTrue(after.size() >= page.size() - 1);
+          }
+        }
+        return null;
+      });
+    }
+
+    runAll(workers);
+
+    List<Message> messages = messageStore.getMessagesInConversation(conversationId);
+    Assert.assertEquals(THREADS * OPERATIONS_PER_THREAD, messages.size());
+    for (int i = 1; i < messages.size(); i++) {
+      List<Message> before =
+          messageStore.getMessagesBefore(conversationId, messages.get(i).getId(), 1);
+      Assert.assertEquals(messages.get(i - 1).getId(), before.get(0).getId());
+    }
+  }
+
+  @Test
+  public void testActivityFeedStore_parallelAddsAndReads() throws Exception {
+    List<Callable<Void>> workers = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      workers.add(() -> {
+        for (int i = 0; i < 2 * OPERATIONS_PER_THREAD; i++) {
+          activityFeedStore.addActivity(new Activity("event " + i, Instant.now()));
+        }
+        return null;
+      });
+      workers.add(() -> {
+        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+          for (Activity activity : activityFeedStore.getFeed()) {
+            Assert.assertNotNull(activity);
+          }
+        }
+        return null;
+      });
+    }
+
+    runAll(workers);
+
+    // twice as many events as fit in the window were added; only the newest ones are kept
+    Assert.assertEquals(activityFeedStore.getCapacity(), activityFeedStore.getFeed().size());
+  }
+
+  /** Starts every worker at the same moment and rethrows the first failure, if any. */
+  private void runAll(List<Callable<Void>> workers) throws Exception {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Void>> futures = new ArrayList<>();
+    for (Callable<Void> worker : workers) {
+      futures.add(executor.submit(() -> {
+        start.await();
+        return worker.call();
+      }));
+    }
+    start.countDown();
+    for (Future<Void> future : futures) {
+      future.get(60, TimeUnit.SECONDS);
+    }
+  }
+
+  private User newUser(String name) {
+    return new User(UUID.randomUUID(), name, "password hash", Instant.now(), "bio", "en");
+  }
+}
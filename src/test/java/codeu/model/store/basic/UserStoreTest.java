@@ -98,6 +98,71 @@ public class UserStoreTest {
     Mockito.verify(mockPersistentStorageAgent).writeThrough(inputUser);
   }
 
+  @Test
+  public void testAddUser_indexedById() {
+    User inputUser =
+        new User(
+            UUID.randomUUID(),
+            "test_username",
+            "$2a$10$eDhncK/4cNH2KE.Y51AWpeL8/5znNBQLuAFlyJpSYNODR/SJQ/Fg6",
+            Instant.now(), "random bio 215EeJg5uoVpK", "English");
+
+    userStore.addUser(inputUser);
+
+    assertEquals(inputUser, userStore.getUser(inputUser.getId()));
+    Assert.assertTrue(userStore.isUserRegistered("test_username"));
+  }
+
+  @Test
+  public void testAddUserIfAbsent_newUsername() {
+    User inputUser =
+        new User(
+            UUID.randomUUID(),
+            "test_username",
+            "$2a$10$eDhncK/4cNH2KE.Y51AWpeL8/5znNBQLuAFlyJpSYNODR/SJQ/Fg6",
+            Instant.now(), "random bio 215EeJg5uoVpK", "English");
+
+    boolean added = userStore.addUserIfAbsent(inputUser);
+
+    Assert.assertTrue(added);
+    assertEquals(inputUser, userStore.getUser(inputUser.getId()));
+    Mockito.verify(mockPersistentStorageAgent).writeThrough(inputUser);
+  }
+
+  @Test
+  public void testAddUserIfAbsent_usernameTaken() {
+    User inputUser =
+        new User(
+            UUID.randomUUID(),
+            USER_ONE.getName(),
+            "$2a$10$eDhncK/4cNH2KE.Y51AWpeL8/5znNBQLuAFlyJpSYNODR/SJQ/Fg6",
+            Instant.now(), "random bio 215EeJg5uoVpK", "English");
+
+    boolean added = userStore.addUserIfAbsent(inputUser);
+
+    Assert.assertFalse(added);
+    Assert.assertSame(USER_ONE, userStore.getUser(USER_ONE.getName()));
+    Assert.assertNull(userStore.getUser(inputUser.getId()));
+    Mockito.verify(mockPersistentStorageAgent, Mockito.never()).writeThrough(inputUser);
+  }
+
+  @Test
+  public void testUpdateUser_replacesInstance() {
+    User updatedUser =
+        new User(
+            USER_TWO.getId(),
+            USER_TWO.getName(),
+            USER_TWO.getPasswordHash(),
+            USER_TWO.getCreationTime(), "updated bio", "Spanish");
+
+    userStore.updateUser(updatedUser);
+
+    Assert.assertSame(updatedUser, userStore.getUser(USER_TWO.getName()));
+    Assert.assertSame(updatedUser, userStore.getUser(USER_TWO.getId()));
+    Assert.assertEquals(3, userStore.getUsersList().size());
+    Mockito.verify(mockPersistentStorageAgent).writeThrough(updatedUser);
+  }
+
   @Test
   public void testIsUserRegistered_true() {
     Assert.assertTrue(userStore.isUserRegistered(USER_ONE.getName()));
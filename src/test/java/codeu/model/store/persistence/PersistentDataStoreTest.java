@@ -1,11 +1,17 @@
 package codeu.model.store.persistence;
 
+import codeu.model.data.Activity;
 import codeu.model.data.Conversation;
 import codeu.model.data.Message;
 import codeu.model.data.User;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import org.junit.After;
@@ -126,7 +132,7 @@ public class PersistentDataStoreTest {
     String contentTwo = "test content one";
     Instant creationTwo = Instant.ofEpochMilli(2000);
     Message inputMessageTwo =
-        new Message(idTwo, conversationTwo, authorTwo, contentTwo, creationTwo);
+        new Message(idTwo, conversationTwo, authorTwo, contentTwo, creationTwo, "en");
 
     // save
     persistentDataStore.writeThrough(inputMessageOne);
@@ -142,6 +148,7 @@ public class PersistentDataStoreTest {
     Assert.assertEquals(authorOne, resultMessageOne.getAuthorId());
     Assert.assertEquals(contentOne, resultMessageOne.getContent());
     Assert.assertEquals(creationOne, resultMessageOne.getCreationTime());
+    Assert.assertNull(resultMessageOne.getLanguage());
 
     Message resultMessageTwo = resultMessages.get(1);
     Assert.assertEquals(idTwo, resultMessageTwo.getId());
@@ -149,5 +156,118 @@ public class PersistentDataStoreTest {
     Assert.assertEquals(authorTwo, resultMessageTwo.getAuthorId());
     Assert.assertEquals(contentTwo, resultMessageTwo.getContent());
     Assert.assertEquals(creationTwo, resultMessageTwo.getCreationTime());
+    Assert.assertEquals("en", resultMessageTwo.getLanguage());
+  }
+
+  @Test
+  public void testSaveAndLoadMessagesInConversation() throws PersistentDataStoreException {
+    UUID conversation = UUID.fromString("10000001-2222-3333-4444-555555555555");
+    UUID otherConversation = UUID.fromString("10000004-2222-3333-4444-555555555555");
+    UUID author = UUID.fromString("10000002-2222-3333-4444-555555555555");
+    Message laterMessage =
+        new Message(
+            UUID.fromString("10000000-2222-3333-4444-555555555555"),
+            conversation, author, "later", Instant.ofEpochMilli(2000));
+    Message earlierMessage =
+        new Message(
+            UUID.fromString("10000003-2222-3333-4444-555555555555"),
+            conversation, author, "earlier", Instant.ofEpochMilli(1000));
+    Message otherMessage =
+        new Message(
+            UUID.fromString("10000005-2222-3333-4444-555555555555"),
+            otherConversation, author, "other", Instant.ofEpochMilli(1500));
+
+    // save
+    persistentDataStore.writeThrough(laterMessage);
+    persistentDataStore.writeThrough(otherMessage);
+    persistentDataStore.writeThrough(earlierMessage);
+
+    // load
+    List<Message> resultMessages = persistentDataStore.loadMessages(conversation);
+
+    // only the conversation's messages come back, oldest first
+    Assert.assertEquals(2, resultMessages.size());
+    Assert.assertEquals(earlierMessage.getId(), resultMessages.get(0).getId());
+    Assert.assertEquals(conversation, resultMessages.get(0).getConversationId());
+    Assert.assertEquals("earlier", resultMessages.get(0).getContent());
+    Assert.assertEquals(laterMessage.getId(), resultMessages.get(1).getId());
+    Assert.assertEquals(Instant.ofEpochMilli(2000), resultMessages.get(1).getCreationTime());
+  }
+
+  @Test
+  public void testLoadActivities_pagesInTimeOrderWhateverTheFractionWidth()
+      throws PersistentDataStoreException {
+    // Instant.toString() writes these with no, three and six fraction digits
+    Instant wholeSecond = Instant.parse("2018-05-23T08:10:05Z");
+    Instant millis = Instant.parse("2018-05-23T08:10:05.300Z");
+    Instant micros = Instant.parse("2018-05-23T08:10:05.300001Z");
+    Instant earlier = Instant.parse("2018-05-23T08:10:04.9Z");
+    persistentDataStore.writeThrough(new Activity("millis", millis));
+    persistentDataStore.writeThrough(new Activity("whole second", wholeSecond));
+    persistentDataStore.writeThrough(new Activity("earlier", earlier));
+    persistentDataStore.writeThrough(new Activity("micros", micros));
+
+    List<String> events = new ArrayList<>();
+    List<Activity> page = persistentDataStore.loadActivities(null, null, 1);
+    while (!page.isEmpty()) {
+      events.add(page.get(0).getEvent());
+      page = persistentDataStore.loadActivities(page.get(0).getTime(), page.get(0).getId(), 1);
+    }
+
+    Assert.assertEquals(Arrays.asList("micros", "millis", "whole second", "earlier"), events);
+  }
+
+  @Test
+  public void testMigrateTimes_rewritesTimesWrittenByInstantToString()
+      throws PersistentDataStoreException {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (String time : new String[] {"2018-05-23T08:10:05Z", "2018-05-23T08:10:05.300Z"}) {
+      Entity entity = new Entity("activity");
+      entity.setProperty("event", time);
+      entity.setProperty("time", time);
+      datastore.put(entity);
+    }
+
+    persistentDataStore.migrateTimes();
+    List<Activity> result = persistentDataStore.loadActivities(null, null, 10);
+
+    Assert.assertEquals(2, result.size());
+    Assert.assertEquals(Instant.parse("2018-05-23T08:10:05.300Z"), result.get(0).getTime());
+    Assert.assertEquals(Instant.parse("2018-05-23T08:10:05Z"), result.get(1).getTime());
+  }
+
+  @Test
+  public void testLoadCreatedAfter_comparesTimesNotTheirText() throws PersistentDataStoreException {
+    // the watermark and the times on each side of it are written with different fraction widths
+    Instant watermark = Instant.parse("2018-05-23T08:10:05.300Z");
+    Instant wholeSecondBefore = Instant.parse("2018-05-23T08:10:05Z");
+    Instant microsBefore = Instant.parse("2018-05-23T08:10:05.299999Z");
+    Instant microsAfter = Instant.parse("2018-05-23T08:10:05.300001Z");
+    Instant wholeSecondAfter = Instant.parse("2018-05-23T08:10:06Z");
+    UUID owner = UUID.fromString("10000001-2222-3333-4444-555555555555");
+    Instant[] times = {wholeSecondBefore, microsBefore, microsAfter, wholeSecondAfter};
+    for (Instant time : times) {
+      UUID conversationId = UUID.randomUUID();
+      persistentDataStore.writeThrough(
+          new Conversation(conversationId, owner, "title " + time, time));
+      persistentDataStore.writeThrough(
+          new Message(UUID.randomUUID(), conversationId, owner, "content " + time, time));
+      persistentDataStore.writeThrough(new Activity("event " + time, time));
+    }
+
+    List<Conversation> conversations =
+        persistentDataStore.loadConversationsCreatedAfter(watermark);
+    List<Message> messages = persistentDataStore.loadMessagesCreatedAfter(watermark);
+    List<Activity> activities = persistentDataStore.loadActivitiesAfter(watermark);
+
+    Assert.assertEquals(2, conversations.size());
+    Assert.assertEquals(microsAfter, conversations.get(0).getCreationTime());
+    Assert.assertEquals(wholeSecondAfter, conversations.get(1).getCreationTime());
+    Assert.assertEquals(2, messages.size());
+    Assert.assertEquals(microsAfter, messages.get(0).getCreationTime());
+    Assert.assertEquals(wholeSecondAfter, messages.get(1).getCreationTime());
+    Assert.assertEquals(2, activities.size());
+    Assert.assertEquals(microsAfter, activities.get(0).getTime());
+    Assert.assertEquals(wholeSecondAfter, activities.get(1).getTime());
   }
 }
@@ -4,16 +4,24 @@ import codeu.model.data.Conversation;
 import codeu.model.data.Message;
 import codeu.model.data.User;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 /**
- * Contains tests of the PersistentStorageAgent class. Currently that class is just a pass-through
- * to PersistentDataStore, so these tests are pretty trivial. If you modify how
- * PersistentStorageAgent writes to PersistentDataStore, or if you swap out the backend to something
- * other than PersistentDataStore, then modify these tests.
+ * Contains tests of the PersistentStorageAgent class. By default that class is just a pass-through
+ * to PersistentDataStore, so most of these tests are pretty trivial; the write-behind tests check
+ * that queued writes reach PersistentDataStore in batches. If you modify how PersistentStorageAgent
+ * writes to PersistentDataStore, or if you swap out the backend to something other than
+ * PersistentDataStore, then modify these tests.
  */
 public class PersistentStorageAgentTest {
 
@@ -26,6 +34,11 @@ public class PersistentStorageAgentTest {
     persistentStorageAgent = PersistentStorageAgent.getTestInstance(mockPersistentDataStore);
   }
 
+  @After
+  public void tearDown() {
+    persistentStorageAgent.shutdown();
+  }
+
   @Test
   public void testLoadUsers() throws PersistentDataStoreException {
     persistentStorageAgent.loadUsers();
@@ -44,6 +57,13 @@ public class PersistentStorageAgentTest {
     Mockito.verify(mockPersistentDataStore).loadMessages();
   }
 
+  @Test
+  public void testLoadMessagesInConversation() throws PersistentDataStoreException {
+    UUID conversationId = UUID.randomUUID();
+    persistentStorageAgent.loadMessages(conversationId);
+    Mockito.verify(mockPersistentDataStore).loadMessages(conversationId);
+  }
+
   @Test
   public void testWriteThroughUser() {
     User user =
@@ -73,4 +93,210 @@ public class PersistentStorageAgentTest {
     persistentStorageAgent.writeThrough(message);
     Mockito.verify(mockPersistentDataStore).writeThrough(message);
   }
+
+  @Test
+  public void testWriteBehind_batchesUntilFlush() {
+    // an hour-long interval keeps the timer out of the way; only explicit flushes write
+    persistentStorageAgent.enableWriteBehind(10, 10, 3_600_000, Executors.defaultThreadFactory());
+    Conversation conversation =
+        new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation", Instant.now());
+    Message message =
+        new Message(
+            UUID.randomUUID(), conversation.getId(), UUID.randomUUID(), "test content",
+            Instant.now());
+
+    persistentStorageAgent.writeThrough(conversation);
+    persistentStorageAgent.writeThrough(message);
+    Assert.assertEquals(2, persistentStorageAgent.getWriteBehindDepth());
+    Mockito.verify(mockPersistentDataStore, Mockito.never()).writeThrough(conversation);
+    Mockito.verify(mockPersistentDataStore, Mockito.never()).writeThrough(message);
+
+    persistentStorageAgent.flush();
+    Mockito.verify(mockPersistentDataStore)
+        .writeBatch(Arrays.<Object>asList(conversation, message));
+    Assert.assertEquals(0, persistentStorageAgent.getWriteBehindDepth());
+    Assert.assertEquals(2, persistentStorageAgent.getWriteBehindFlushedCount());
+    Assert.assertEquals(1, persistentStorageAgent.getWriteBehindBatchCount());
+  }
+
+  @Test
+  public void testWriteBehind_fullQueueFlushesOnCaller() {
+    persistentStorageAgent.enableWriteBehind(1, 10, 3_600_000, Executors.defaultThreadFactory());
+    Message first =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "first", Instant.now());
+    Message second =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "second", Instant.now());
+
+    persistentStorageAgent.writeThrough(first);
+    persistentStorageAgent.writeThrough(second);
+
+    Mockito.verify(mockPersistentDataStore).writeBatch(Collections.<Object>singletonList(first));
+    Assert.assertEquals(1, persistentStorageAgent.getWriteBehindDepth());
+  }
+
+  @Test
+  public void testWriteBehind_failedBatchIsRetried() {
+    persistentStorageAgent.enableWriteBehind(10, 10, 3_600_000, Executors.defaultThreadFactory());
+    Message message =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "test content", Instant.now());
+    List<Object> batch = Collections.<Object>singletonList(message);
+    Mockito.doThrow(new RuntimeException("Datastore unavailable"))
+        .doNothing()
+        .when(mockPersistentDataStore)
+        .writeBatch(batch);
+
+    persistentStorageAgent.writeThrough(message);
+    try {
+      persistentStorageAgent.flush();
+      Assert.fail("Expected the failed batch to be reported");
+    } catch (RuntimeException expected) {
+      Assert.assertEquals(1, persistentStorageAgent.getWriteBehindDepth());
+      Assert.assertEquals(1, persistentStorageAgent.getWriteBehindFailedBatchCount());
+    }
+
+    persistentStorageAgent.flush();
+    Mockito.verify(mockPersistentDataStore, Mockito.times(2)).writeBatch(batch);
+    Assert.assertEquals(0, persistentStorageAgent.getWriteBehindDepth());
+  }
+
+  @Test
+  public void testWriteBehind_batchThatKeepsFailingIsWrittenSeparately() {
+    persistentStorageAgent.enableWriteBehind(10, 10, 3_600_000, Executors.defaultThreadFactory());
+    Message good =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "good", Instant.now());
+    Message bad =
+        new Message(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "bad", Instant.now());
+    RuntimeException failure = new RuntimeException("Entity is too big");
+    Mockito.doThrow(failure)
+        .when(mockPersistentDataStore)
+        .writeBatch(Arrays.<Object>asList(good, bad));
+    Mockito.doThrow(failure)
+        .when(mockPersistentDataStore)
+        .writeBatch(Collections.<Object>singletonList(bad));
+
+    persistentStorageAgent.writeThrough(good);
+    persistentStorageAgent.writeThrough(bad);
+    for (int i = 1; i < WriteBehindQueue.MAX_ATTEMPTS; i++) {
+      try {
+        persistentStorageAgent.flush();
+        Assert.fail("Expected the failed batch to be reported");
+      } catch (RuntimeException expected) {
+        Assert.assertEquals(2, persistentStorageAgent.getWriteBehindDepth());
+      }
+    }
+    persistentStorageAgent.flush();
+
+    Mockito.verify(mockPersistentDataStore).writeBatch(Collections.<Object>singletonList(good));
+    Assert.assertEquals(0, persistentStorageAgent.getWriteBehindDepth());
+    Assert.assertEquals(1, persistentStorageAgent.getWriteBehindFlushedCount());
+    Assert.assertEquals(1, persistentStorageAgent.getWriteBehindDroppedCount());
+  }
+
+  @Test
+  public void testWriteBehind_fullQueueWaitsForFailedBatch() {
+    persistentStorageAgent.enableWriteBehind(1, 10, 3_600_000, Executors.defaultThreadFactory());
+    Message first =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "first", Instant.now());
+    Message second =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "second", Instant.now());
+    Message third =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "third", Instant.now());
+    Mockito.doThrow(new RuntimeException("Datastore unavailable"))
+        .doNothing()
+        .when(mockPersistentDataStore)
+        .writeBatch(Collections.<Object>singletonList(first));
+
+    persistentStorageAgent.writeThrough(first);
+    persistentStorageAgent.writeThrough(second);
+    persistentStorageAgent.writeThrough(third);
+
+    // nothing went around the failed write
+    InOrder inOrder = Mockito.inOrder(mockPersistentDataStore);
+    inOrder.verify(mockPersistentDataStore, Mockito.times(2))
+        .writeBatch(Collections.<Object>singletonList(first));
+    inOrder.verify(mockPersistentDataStore)
+        .writeBatch(Collections.<Object>singletonList(second));
+    Mockito.verify(mockPersistentDataStore, Mockito.never())
+        .writeBatch(Collections.<Object>singletonList(third));
+    Assert.assertEquals(1, persistentStorageAgent.getWriteBehindDepth());
+  }
+
+  @Test
+  public void testWriteBehind_fullQueueCountsWritesGivenUpOn() {
+    persistentStorageAgent.enableWriteBehind(1, 10, 3_600_000, Executors.defaultThreadFactory());
+    Message first =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "first", Instant.now());
+    Message second =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "second", Instant.now());
+    Message third =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "third", Instant.now());
+    Mockito.doThrow(new RuntimeException("Entity is too big"))
+        .when(mockPersistentDataStore)
+        .writeBatch(Collections.<Object>singletonList(first));
+
+    persistentStorageAgent.writeThrough(first);
+    persistentStorageAgent.writeThrough(second);
+    persistentStorageAgent.writeThrough(third);
+
+    Mockito.verify(mockPersistentDataStore, Mockito.times(WriteBehindQueue.MAX_ATTEMPTS + 1))
+        .writeBatch(Collections.<Object>singletonList(first));
+    Mockito.verify(mockPersistentDataStore).writeBatch(Collections.<Object>singletonList(second));
+    Assert.assertEquals(1, persistentStorageAgent.getWriteBehindDroppedCount());
+    Assert.assertEquals(1, persistentStorageAgent.getWriteBehindDepth());
+  }
+
+  @Test
+  public void testWriteBehind_shutdownFlushes() {
+    persistentStorageAgent.enableWriteBehind(10, 10, 3_600_000, Executors.defaultThreadFactory());
+    Message queued =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "queued", Instant.now());
+    persistentStorageAgent.writeThrough(queued);
+
+    persistentStorageAgent.shutdown();
+    Mockito.verify(mockPersistentDataStore).writeBatch(Collections.<Object>singletonList(queued));
+    Assert.assertFalse(persistentStorageAgent.isWriteBehindEnabled());
+
+    Message direct =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "direct", Instant.now());
+    persistentStorageAgent.writeThrough(direct);
+    Mockito.verify(mockPersistentDataStore).writeThrough(direct);
+  }
+
+  @Test
+  public void testWriteBehind_shutdownRetriesFailedBatchInsteadOfThrowing() {
+    persistentStorageAgent.enableWriteBehind(10, 10, 3_600_000, Executors.defaultThreadFactory());
+    Message good =
+        new Message(
+            UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "good", Instant.now());
+    Message bad =
+        new Message(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), "bad", Instant.now());
+    RuntimeException failure = new RuntimeException("Entity is too big");
+    Mockito.doThrow(failure)
+        .when(mockPersistentDataStore)
+        .writeBatch(Arrays.<Object>asList(good, bad));
+    Mockito.doThrow(failure)
+        .when(mockPersistentDataStore)
+        .writeBatch(Collections.<Object>singletonList(bad));
+    persistentStorageAgent.writeThrough(good);
+    persistentStorageAgent.writeThrough(bad);
+
+    persistentStorageAgent.shutdown();
+
+    Mockito.verify(mockPersistentDataStore, Mockito.times(WriteBehindQueue.MAX_ATTEMPTS))
+        .writeBatch(Arrays.<Object>asList(good, bad));
+    Mockito.verify(mockPersistentDataStore).writeBatch(Collections.<Object>singletonList(good));
+    Assert.assertFalse(persistentStorageAgent.isWriteBehindEnabled());
+  }
 }
@@ -0,0 +1,99 @@
+package codeu.model.store.persistence;
+
+import codeu.model.data.Activity;
+import codeu.model.data.Conversation;
+import codeu.model.data.Message;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StoreSnapshotTest {
+
+  private final Conversation CONVERSATION =
+      new Conversation(UUID.randomUUID(), UUID.randomUUID(), "test_conversation",
+          Instant.ofEpochSecond(1000, 5));
+  private final Activity ACTIVITY =
+      new Activity("test_user joined the site", Instant.ofEpochSecond(1500));
+  private final Message MESSAGE =
+      new Message(UUID.randomUUID(), CONVERSATION.getId(), UUID.randomUUID(),
+          "h\u00e9llo \ud83d\ude00", Instant.ofEpochSecond(2000, 123456789), "es");
+
+  private StoreSnapshot newSnapshot() {
+    List<Conversation> conversations = new ArrayList<>();
+    conversations.add(CONVERSATION);
+    List<Activity> activities = new ArrayList<>();
+    activities.add(ACTIVITY);
+    List<Message> messages = new ArrayList<>();
+    messages.add(MESSAGE);
+    Map<UUID, List<Message>> histories = new HashMap<>();
+    histories.put(CONVERSATION.getId(), messages);
+    return new StoreSnapshot(conversations, activities, true, histories);
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    newSnapshot().write(out);
+    StoreSnapshot result = StoreSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+
+    Assert.assertEquals(1, result.getConversations().size());
+    Conversation conversation = result.getConversations().get(0);
+    Assert.assertEquals(CONVERSATION.getId(), conversation.getId());
+    Assert.assertEquals(CONVERSATION.getOwnerId(), conversation.getOwnerId());
+    Assert.assertEquals(CONVERSATION.getTitle(), conversation.getTitle());
+    Assert.assertEquals(CONVERSATION.getCreationTime(), conversation.getCreationTime());
+
+    Assert.assertTrue(result.hasOlderActivitiesInStorage());
+    Assert.assertEquals(1, result.getActivities().size());
+    Assert.assertEquals(ACTIVITY.getId(), result.getActivities().get(0).getId());
+    Assert.assertEquals(ACTIVITY.getEvent(), result.getActivities().get(0).getEvent());
+    Assert.assertEquals(ACTIVITY.getTime(), result.getActivities().get(0).getTime());
+
+    List<Message> messages = result.getHistories().get(CONVERSATION.getId());
+    Assert.assertEquals(1, messages.size());
+    Message message = messages.get(0);
+    Assert.assertEquals(MESSAGE.getId(), message.getId());
+    Assert.assertEquals(MESSAGE.getConversationId(), message.getConversationId());
+    Assert.assertEquals(MESSAGE.getAuthorId(), message.getAuthorId());
+    Assert.assertEquals(MESSAGE.getContent(), message.getContent());
+    Assert.assertEquals(MESSAGE.getCreationTime(), message.getCreationTime());
+    Assert.assertEquals(MESSAGE.getLanguage(), message.getLanguage());
+  }
+
+  @Test
+  public void testWriteToAndReadFromFile() throws IOException {
+    Path path = Files.createTempFile("snapshot", ".bin");
+    try {
+      newSnapshot().writeTo(path);
+      StoreSnapshot result = StoreSnapshot.readFrom(path);
+      Assert.assertEquals(CONVERSATION.getId(), result.getConversations().get(0).getId());
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void testGetWatermark() {
+    Assert.assertEquals(MESSAGE.getCreationTime(), newSnapshot().getWatermark());
+  }
+
+  @Test(expected = IOException.class)
+  public void testRead_rejectsOtherVersions() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    newSnapshot().write(out);
+    byte[] bytes = out.toByteArray();
+    // the version follows the 4-byte magic number
+    bytes[7] = (byte) (StoreSnapshot.VERSION + 1);
+    StoreSnapshot.read(new ByteArrayInputStream(bytes));
+  }
+}
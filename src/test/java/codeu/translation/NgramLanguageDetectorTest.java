@@ -0,0 +1,117 @@
+package codeu.translation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NgramLanguageDetectorTest {
+
+  /** Messages shorter than this many letters are expected to be sent to the Translation API. */
+  private static final int SHORT_MESSAGE_LETTERS = 12;
+
+  private NgramLanguageDetector detector;
+  private List<String[]> corpus;
+
+  @Before
+  public void setup() throws IOException {
+    detector = NgramLanguageDetector.getInstance();
+    corpus = new ArrayList<>();
+    try (InputStream in = getClass().getResourceAsStream("messages.tsv")) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          corpus.add(line.split("\t", 2));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testGuess_corpusAccuracy() {
+    int confident = 0;
+    int correct = 0;
+    int longMessages = 0;
+    for (String[] entry : corpus) {
+      if (!NgramLanguageDetector.LANGUAGES.contains(entry[0])) {
+        continue;
+      }
+      NgramLanguageDetector.Guess guess = detector.guess(entry[1]);
+      if (letters(entry[1]) >= SHORT_MESSAGE_LETTERS) {
+        longMessages++;
+      }
+      if (guess.isConfident()) {
+        confident++;
+        if (guess.getLanguage().equals(entry[0])) {
+          correct++;
+        }
+      }
+    }
+
+    // measured on this corpus: all 67 confident guesses are right, and 67 of the 70 messages of
+    // ordinary length get one. A wrong confident guess is never corrected, so there must be none
+    Assert.assertEquals(confident, correct);
+    // and nearly every ordinary message should not need a remote call at all
+    Assert.assertTrue(confident >= longMessages * 0.95);
+  }
+
+  @Test
+  public void testGuess_unprofiledLanguagesAreNotConfident() {
+    int unprofiled = 0;
+    for (String[] entry : corpus) {
+      if (!NgramLanguageDetector.LANGUAGES.contains(entry[0])) {
+        unprofiled++;
+        Assert.assertFalse(entry[1], detector.guess(entry[1]).isConfident());
+      }
+    }
+    Assert.assertTrue(unprofiled > 0);
+  }
+
+  @Test
+  public void testGuess_shortMessagesAreNotConfident() {
+    for (String[] entry : corpus) {
+      if (letters(entry[1]) < SHORT_MESSAGE_LETTERS) {
+        Assert.assertFalse(entry[1], detector.guess(entry[1]).isConfident());
+      }
+    }
+  }
+
+  @Test
+  public void testGuess_ignoresMarkup() {
+    NgramLanguageDetector.Guess guess =
+        detector.guess(
+            "<strong>merci beaucoup</strong> pour les photos de la soir\u00e9e, elles sont superbes"
+                + " <a href=\"http://example.com/photos\">http://example.com/photos</a>");
+
+    Assert.assertEquals("fr", guess.getLanguage());
+  }
+
+  @Test
+  public void testGuess_noLetters() {
+    NgramLanguageDetector.Guess guess = detector.guess("12:30 :) !!!");
+
+    Assert.assertNull(guess.getLanguage());
+    Assert.assertFalse(guess.isConfident());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDetectLanguage_noLetters() {
+    detector.detectLanguage("1234");
+  }
+
+  private static int letters(String text) {
+    int count = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (Character.isLetter(text.charAt(i))) {
+        count++;
+      }
+    }
+    return count;
+  }
+}
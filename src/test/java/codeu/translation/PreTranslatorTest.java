@@ -0,0 +1,182 @@
+package codeu.translation;
+
+import codeu.model.data.Message;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreTranslatorTest {
+
+  /** Translator that tags texts with the target language, optionally waiting for a signal. */
+  private static class GatedTranslator implements Translator {
+    final CountDownLatch gate = new CountDownLatch(1);
+    volatile boolean gated;
+    volatile boolean failing;
+    final List<String> targets = new ArrayList<>();
+
+    @Override
+    public String detectLanguage(String text) {
+      return "en";
+    }
+
+    @Override
+    public List<String> detectLanguages(List<String> texts) {
+      List<String> languages = new ArrayList<>();
+      for (String text : texts) {
+        languages.add("en");
+      }
+      return languages;
+    }
+
+    @Override
+    public List<String> translate(
+        List<String> texts, String sourceLanguage, String targetLanguage) {
+      if (gated) {
+        try {
+          gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (failing) {
+        throw new RuntimeException("Translation API unavailable");
+      }
+      synchronized (targets) {
+        targets.add(targetLanguage);
+      }
+      List<String> translated = new ArrayList<>();
+      for (String text : texts) {
+        translated.add(targetLanguage + ":" + text);
+      }
+      return translated;
+    }
+  }
+
+  private final UUID CONVERSATION_ID = UUID.randomUUID();
+
+  private GatedTranslator translator;
+  private TranslationCache translationCache;
+  private PreTranslator preTranslator;
+
+  @Before
+  public void setup() {
+    translator = new GatedTranslator();
+    translationCache = TranslationCache.getTestInstance(100);
+    preTranslator = PreTranslator.getTestInstance();
+  }
+
+  @After
+  public void tearDown() {
+    translator.gate.countDown();
+    preTranslator.shutdown(10, TimeUnit.SECONDS);
+  }
+
+  private Message message(String content, String language) {
+    return new Message(
+        UUID.randomUUID(), CONVERSATION_ID, UUID.randomUUID(), content, Instant.now(), language);
+  }
+
+  @Test
+  public void testMessageAdded_translatesIntoOtherParticipantsLanguages() {
+    preTranslator.start(
+        TranslationService.getTestInstance(translator, translationCache),
+        1, 10, Executors.defaultThreadFactory());
+    preTranslator.noteParticipant(CONVERSATION_ID, "fr");
+    preTranslator.noteParticipant(CONVERSATION_ID, "de");
+    Message message = message("hola", "es");
+
+    preTranslator.messageAdded(message, "es");
+    preTranslator.shutdown(10, TimeUnit.SECONDS);
+
+    Assert.assertEquals("fr:hola", translationCache.get(message.getId(), "fr").getText());
+    Assert.assertEquals("de:hola", translationCache.get(message.getId(), "de").getText());
+    Assert.assertEquals(2, translator.targets.size());
+    Assert.assertEquals(2, preTranslator.getTranslatedCount());
+  }
+
+  @Test
+  public void testMessageAdded_notStartedOnlyRecordsLanguages() {
+    preTranslator.noteParticipant(CONVERSATION_ID, "fr");
+
+    preTranslator.messageAdded(message("hola", "es"), "es");
+
+    Assert.assertEquals(0, preTranslator.getSubmittedCount());
+    Assert.assertTrue(translator.targets.isEmpty());
+  }
+
+  @Test
+  public void testMessageAdded_shedsWorkWhenQueueIsFull() throws InterruptedException {
+    translator.gated = true;
+    preTranslator.start(
+        TranslationService.getTestInstance(translator, translationCache),
+        1, 1, Executors.defaultThreadFactory());
+    preTranslator.noteParticipant(CONVERSATION_ID, "fr");
+
+    // the first message occupies the only thread, the second fills the queue
+    preTranslator.messageAdded(message("uno", "es"), "es");
+    while (preTranslator.getQueueDepth() > 0) {
+      Thread.sleep(1);
+    }
+    preTranslator.messageAdded(message("dos", "es"), "es");
+    preTranslator.messageAdded(message("tres", "es"), "es");
+
+    Assert.assertEquals(3, preTranslator.getSubmittedCount());
+    Assert.assertEquals(1, preTranslator.getShedCount());
+  }
+
+  @Test
+  public void testMessageAdded_failuresDoNotPausePageTranslation() {
+    translator.failing = true;
+    TranslationService translationService =
+        TranslationService.getTestInstance(translator, translationCache);
+    preTranslator.start(translationService, 1, 10, Executors.defaultThreadFactory());
+    preTranslator.noteParticipant(CONVERSATION_ID, "fr");
+
+    for (int i = 0; i < TranslationService.FAILURE_THRESHOLD; i++) {
+      preTranslator.messageAdded(message("hola " + i, "es"), "es");
+    }
+    preTranslator.shutdown(10, TimeUnit.SECONDS);
+
+    Assert.assertTrue(translationService.isBackgroundCircuitOpen());
+    Assert.assertEquals(
+        TranslationService.FAILURE_THRESHOLD, translationService.getBackgroundFailedCallCount());
+    Assert.assertFalse(translationService.isCircuitOpen());
+    Assert.assertEquals(0, translationService.getFailedCallCount());
+    Assert.assertEquals(0, translationService.getFallbackCount());
+
+    translator.failing = false;
+    Message message = message("hola", "es");
+    List<TranslatedText> page =
+        translationService.translatePage(Collections.singletonList(message), "fr");
+
+    Assert.assertTrue(page.get(0).isTranslated());
+  }
+
+  @Test
+  public void testNoteParticipant_forgetsIdleConversations() {
+    FakeClock clock = new FakeClock();
+    preTranslator = PreTranslator.getTestInstance(clock);
+    UUID idleConversationId = UUID.randomUUID();
+    preTranslator.noteParticipant(idleConversationId, "fr");
+    preTranslator.noteParticipant(CONVERSATION_ID, "fr");
+
+    clock.millis += PreTranslator.IDLE_MILLIS - 1;
+    preTranslator.noteParticipant(CONVERSATION_ID, "de");
+    Assert.assertEquals(2, preTranslator.getConversationCount());
+
+    // idle conversations are only looked for once per sweep interval
+    clock.millis += PreTranslator.SWEEP_INTERVAL_MILLIS;
+    preTranslator.noteParticipant(CONVERSATION_ID, "de");
+
+    Assert.assertEquals(1, preTranslator.getConversationCount());
+  }
+}
@@ -0,0 +1,49 @@
+package codeu.translation;
+
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TranslationCacheTest {
+
+  private TranslationCache translationCache;
+
+  private final UUID MESSAGE_ID_ONE = UUID.randomUUID();
+  private final UUID MESSAGE_ID_TWO = UUID.randomUUID();
+  private final UUID MESSAGE_ID_THREE = UUID.randomUUID();
+  private final TranslatedText HOLA = new TranslatedText("en", "hola", true);
+  private final TranslatedText BONJOUR = new TranslatedText("en", "bonjour", true);
+
+  @Before
+  public void setup() {
+    translationCache = TranslationCache.getTestInstance(2);
+  }
+
+  @Test
+  public void testGet_keyedByMessageAndLanguage() {
+    translationCache.put(MESSAGE_ID_ONE, "es", HOLA);
+    translationCache.put(MESSAGE_ID_ONE, "fr", BONJOUR);
+
+    Assert.assertSame(HOLA, translationCache.get(MESSAGE_ID_ONE, "es"));
+    Assert.assertSame(BONJOUR, translationCache.get(MESSAGE_ID_ONE, "fr"));
+    Assert.assertNull(translationCache.get(MESSAGE_ID_TWO, "es"));
+    Assert.assertEquals(2, translationCache.getHitCount());
+    Assert.assertEquals(1, translationCache.getMissCount());
+  }
+
+  @Test
+  public void testPut_evictsLeastRecentlyUsed() {
+    translationCache.put(MESSAGE_ID_ONE, "es", HOLA);
+    translationCache.put(MESSAGE_ID_TWO, "es", HOLA);
+    // using the first entry makes the second one the least recently used
+    translationCache.get(MESSAGE_ID_ONE, "es");
+    translationCache.put(MESSAGE_ID_THREE, "es", HOLA);
+
+    Assert.assertEquals(2, translationCache.size());
+    Assert.assertNotNull(translationCache.get(MESSAGE_ID_ONE, "es"));
+    Assert.assertNull(translationCache.get(MESSAGE_ID_TWO, "es"));
+    Assert.assertNotNull(translationCache.get(MESSAGE_ID_THREE, "es"));
+    Assert.assertEquals(1, translationCache.getEvictionCount());
+  }
+}
@@ -0,0 +1,235 @@
+package codeu.translation;
+
+import codeu.model.data.Message;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TranslationServiceTest {
+
+  /** Translator that records each request and "translates" by prefixing the target language. */
+  private static class RecordingTranslator implements Translator {
+    final List<List<String>> detectRequests = new ArrayList<>();
+    final List<List<String>> translateRequests = new ArrayList<>();
+    RuntimeException failure;
+    FakeClock clock;
+    long latencyMillis;
+
+    @Override
+    public String detectLanguage(String text) {
+      return detectLanguages(Arrays.asList(text)).get(0);
+    }
+
+    @Override
+    public List<String> detectLanguages(List<String> texts) {
+      detectRequests.add(texts);
+      List<String> languages = new ArrayList<>();
+      for (String text : texts) {
+        languages.add(text.startsWith("hola") ? "es" : "en");
+      }
+      return languages;
+    }
+
+    @Override
+    public List<String> translate(
+        List<String> texts, String sourceLanguage, String targetLanguage) {
+      translateRequests.add(texts);
+      if (clock != null) {
+        clock.millis += latencyMillis;
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      List<String> translated = new ArrayList<>();
+      for (String text : texts) {
+        translated.add(targetLanguage + ":" + text);
+      }
+      return translated;
+    }
+  }
+
+  private RecordingTranslator translator;
+  private TranslationCache translationCache;
+  private TranslationService translationService;
+
+  @Before
+  public void setup() {
+    translator = new RecordingTranslator();
+    translationCache = TranslationCache.getTestInstance(1000);
+    translationService = TranslationService.getTestInstance(translator, translationCache);
+  }
+
+  private Message message(String content, String language) {
+    return new Message(
+        UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), content, Instant.now(), language);
+  }
+
+  @Test
+  public void testTranslatePage_groupsBySourceLanguageAndKeepsOrder() {
+    List<Message> messages =
+        Arrays.asList(
+            message("bonjour", "fr"),
+            message("hello", "en"),
+            message("hola", "es"),
+            message("salut", "fr"));
+
+    List<TranslatedText> result = translationService.translatePage(messages, "en");
+
+    Assert.assertEquals("en:bonjour", result.get(0).getText());
+    Assert.assertEquals("fr", result.get(0).getSourceLanguage());
+    Assert.assertFalse(result.get(1).isTranslated());
+    Assert.assertEquals("hello", result.get(1).getText());
+    Assert.assertEquals("en:hola", result.get(2).getText());
+    Assert.assertEquals("en:salut", result.get(3).getText());
+    // one request for French, one for Spanish, none for detection
+    Assert.assertEquals(2, translator.translateRequests.size());
+    Assert.assertEquals(Arrays.asList("bonjour", "salut"), translator.translateRequests.get(0));
+    Assert.assertTrue(translator.detectRequests.isEmpty());
+  }
+
+  @Test
+  public void testTranslatePage_detectsUnknownLanguagesInOneBatch() {
+    List<Message> messages = Arrays.asList(message("hola", null), message("hello", null));
+
+    List<TranslatedText> result = translationService.translatePage(messages, "en");
+
+    Assert.assertEquals(1, translator.detectRequests.size());
+    Assert.assertEquals("en:hola", result.get(0).getText());
+    Assert.assertEquals("hello", result.get(1).getText());
+  }
+
+  @Test
+  public void testTranslatePage_cachedMessagesAreNotTranslatedAgain() {
+    List<Message> messages = Arrays.asList(message("hola", "es"));
+    translationService.translatePage(messages, "en");
+
+    List<TranslatedText> result = translationService.translatePage(messages, "en");
+
+    Assert.assertEquals(1, translator.translateRequests.size());
+    Assert.assertEquals("en:hola", result.get(0).getText());
+  }
+
+  @Test
+  public void testTranslatePage_honorsRequestLimits() {
+    List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < TranslationService.MAX_TEXTS_PER_REQUEST + 1; i++) {
+      messages.add(message("hola " + i, "es"));
+    }
+    char[] longText = new char[TranslationService.MAX_CHARS_PER_REQUEST];
+    Arrays.fill(longText, 'a');
+    messages.add(message(new String(longText), "es"));
+
+    List<TranslatedText> result = translationService.translatePage(messages, "en");
+
+    for (List<String> request : translator.translateRequests) {
+      Assert.assertTrue(request.size() <= TranslationService.MAX_TEXTS_PER_REQUEST);
+      int chars = 0;
+      for (String text : request) {
+        chars += text.length();
+      }
+      Assert.assertTrue(request.size() == 1 || chars <= TranslationService.MAX_CHARS_PER_REQUEST);
+    }
+    Assert.assertEquals(messages.size(), result.size());
+    Assert.assertEquals("en:hola 0", result.get(0).getText());
+    Assert.assertEquals("en:hola 128", result.get(128).getText());
+  }
+
+  @Test
+  public void testTranslatePage_fallsBackWhenBudgetIsSpent() {
+    FakeClock clock = new FakeClock();
+    translator.clock = clock;
+    translator.latencyMillis = 300;
+    translationService =
+        TranslationService.getTestInstance(translator, translationCache, 500, 300, clock);
+    List<Message> messages = Arrays.asList(message("hola", "es"), message("bonjour", "fr"));
+
+    List<TranslatedText> result = translationService.translatePage(messages, "en");
+
+    // a second request could have run past the budget, so the French message was never sent
+    Assert.assertEquals(1, translator.translateRequests.size());
+    Assert.assertTrue(clock.millis <= 500);
+    Assert.assertEquals("en:hola", result.get(0).getText());
+    Assert.assertFalse(result.get(1).isTranslated());
+    Assert.assertEquals("bonjour", result.get(1).getText());
+    Assert.assertEquals(1, translationService.getFallbackCount());
+    Assert.assertNull(translationCache.get(messages.get(1).getId(), "en"));
+  }
+
+  @Test
+  public void testTranslatePage_noCallThatCouldOutlastTheBudget() {
+    FakeClock clock = new FakeClock();
+    translationService =
+        TranslationService.getTestInstance(translator, translationCache, 500, 600, clock);
+
+    List<TranslatedText> result =
+        translationService.translatePage(Arrays.asList(message("hola", "es")), "en");
+
+    Assert.assertTrue(translator.translateRequests.isEmpty());
+    Assert.assertEquals("hola", result.get(0).getText());
+  }
+
+  @Test
+  public void testTranslatePage_fallsBackOnFailureAndOpensCircuit() {
+    FakeClock clock = new FakeClock();
+    translationService =
+        TranslationService.getTestInstance(translator, translationCache, 500, 300, clock);
+    translator.failure = new RuntimeException("Translation API unavailable");
+
+    for (int i = 0; i < TranslationService.FAILURE_THRESHOLD; i++) {
+      List<TranslatedText> result =
+          translationService.translatePage(Arrays.asList(message("hola", "es")), "en");
+      Assert.assertEquals("hola", result.get(0).getText());
+    }
+    Assert.assertTrue(translationService.isCircuitOpen());
+
+    // while the circuit is open no calls are made at all
+    translationService.translatePage(Arrays.asList(message("hola", "es")), "en");
+    Assert.assertEquals(TranslationService.FAILURE_THRESHOLD, translator.translateRequests.size());
+
+    // once it has been open long enough a trial call goes through and closes it again
+    translator.failure = null;
+    clock.millis += TranslationService.OPEN_MILLIS;
+    List<TranslatedText> result =
+        translationService.translatePage(Arrays.asList(message("hola", "es")), "en");
+    Assert.assertEquals("en:hola", result.get(0).getText());
+    Assert.assertFalse(translationService.isCircuitOpen());
+  }
+
+  @Test
+  public void testTranslatePage_withFakeTranslator() {
+    translationService =
+        TranslationService.getTestInstance(new FakeTranslator(0), translationCache);
+
+    List<TranslatedText> result =
+        translationService.translatePage(
+            Arrays.asList(message("hola amigos", null), message("good morning", null)), "en");
+
+    Assert.assertEquals("[en] hola amigos", result.get(0).getText());
+    Assert.assertEquals("es", result.get(0).getSourceLanguage());
+    Assert.assertFalse(result.get(1).isTranslated());
+  }
+
+  @Test
+  public void testTranslatePage_confidentLocalDetectionSkipsRemoteDetection() {
+    translationService =
+        TranslationService.getTestInstance(
+            translator, translationCache, NgramLanguageDetector.getInstance());
+    List<Message> messages =
+        Arrays.asList(
+            message("hola, quiero saber si alguien va a la fiesta del viernes por la noche", null),
+            message("hola", null));
+
+    List<TranslatedText> result = translationService.translatePage(messages, "en");
+
+    Assert.assertEquals("es", result.get(0).getSourceLanguage());
+    // only the message too short to detect locally was sent for detection
+    Assert.assertEquals(1, translator.detectRequests.size());
+    Assert.assertEquals(Arrays.asList("hola"), translator.detectRequests.get(0));
+    Assert.assertEquals(1, translationService.getLocalDetectionCount());
+  }
+}
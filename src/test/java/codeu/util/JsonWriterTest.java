@@ -0,0 +1,89 @@
+package codeu.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+  private StringWriter out;
+  private JsonWriter writer;
+
+  @Before
+  public void setup() {
+    out = new StringWriter();
+    writer = new JsonWriter(out);
+  }
+
+  @Test
+  public void testNesting() throws IOException {
+    writer.beginObject();
+    writer.name("a").beginArray().value(1).value(true).nullValue().endArray();
+    writer.name("b").beginObject().endObject();
+    writer.name("c").beginArray().beginObject().name("d").value("e").endObject().endArray();
+    writer.endObject();
+
+    Assert.assertEquals(
+        "{\"a\":[1,true,null],\"b\":{},\"c\":[{\"d\":\"e\"}]}", out.toString());
+  }
+
+  @Test
+  public void testNullString() throws IOException {
+    writer.beginArray().value((String) null).endArray();
+
+    Assert.assertEquals("[null]", out.toString());
+  }
+
+  @Test
+  public void testEscaping() throws IOException {
+    writer.value("quote\" backslash\\ tab\t newline\n nul\u0000 sep\u2028 e\u00e9 </b>");
+
+    Assert.assertEquals(
+        "\"quote\\\" backslash\\\\ tab\\t newline\\n nul\\u0000 sep\\u2028 e\u00e9 </b>\"",
+        out.toString());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (char c = 0; c < 0x3000; c++) {
+      text.append(c);
+    }
+    String value = text.toString();
+
+    writer.beginObject().name(value).value(value).endObject();
+
+    JSONObject parsed = new JSONObject(out.toString());
+    Assert.assertEquals(value, parsed.getString(value));
+  }
+
+  @Test
+  public void testDeepNesting() throws IOException {
+    for (int i = 0; i < 100; i++) {
+      writer.beginArray();
+    }
+    for (int i = 0; i < 100; i++) {
+      writer.endArray();
+    }
+
+    Assert.assertEquals(200, out.toString().length());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testValueWithoutName() throws IOException {
+    writer.beginObject().value("a");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNameOutsideObject() throws IOException {
+    writer.beginArray().name("a");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMismatchedEnd() throws IOException {
+    writer.beginArray().endObject();
+  }
+}
@@ -0,0 +1,167 @@
+package codeu.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document.OutputSettings;
+import org.jsoup.safety.Whitelist;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageCleanerFuzzTest {
+
+  /** The pattern replaceUrls used before it had its own scanner, kept to check against. */
+  private static final Pattern REFERENCE_PATTERN = Pattern.compile(
+      "(?:^|[\\W])((ht|f)tp(s?):\\/\\/|www\\.)"
+          + "(([\\w\\-]+\\.){1,}?([\\w\\-.~]+\\/?)*"
+          + "[\\p{Alnum}.,%_=?&#\\-+()\\[\\]\\*$~@!:/{};']*)",
+      Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL);
+
+  /** Fragments that random texts are built from, chosen to hit every branch of the pattern. */
+  private static final String[] FRAGMENTS = {
+    "http", "HTTP", "https", "ftp", "fTpS", "www", "WWW", "://", ":/", ".", "..", "/", "-", "_",
+    "~", "a", "b9", "x", " ", "\n", "\r", "\r\n", "\u2028", "\u0085", "\u00e9", "<", ">",
+    "&amp;", "'", "?q=1", "#", "(", ")", "!", ",", "{", "}", "\"", "\t", "\u00a0", "\u0000",
+    "\uffff", "<b>", "</b>", "<div class=red>", "</div>", "<script>", "&", "&lt;"
+  };
+
+  /** The longest a pathological message may take to link, far above the linear-time cost. */
+  private static final long MAX_MILLIS = 2000;
+
+  private static String referenceReplaceUrls(String text) {
+    Matcher matcher = REFERENCE_PATTERN.matcher(text);
+    StringBuilder result = new StringBuilder();
+    int copiedTo = 0;
+    while (matcher.find()) {
+      result.append(text, copiedTo, matcher.start())
+          .append("<a href='").append(matcher.group()).append("'>")
+          .append(matcher.group()).append("</a>");
+      copiedTo = matcher.end();
+    }
+    return result.append(text, copiedTo, text.length()).toString();
+  }
+
+  /** Cleans a message the way clean() did before its sanitizer was shared between calls. */
+  private static String referenceClean(String text) {
+    OutputSettings settings = new OutputSettings();
+    settings.prettyPrint(false);
+    Whitelist list = Whitelist.basic();
+    list.addTags("div");
+    list.addAttributes("div", "class");
+    return referenceReplaceUrls(Jsoup.clean(text, "", list, settings));
+  }
+
+  private static String randomText(Random random) {
+    StringBuilder text = new StringBuilder();
+    int fragments = random.nextInt(20);
+    for (int j = 0; j < fragments; j++) {
+      text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+    }
+    return text.toString();
+  }
+
+  @Test
+  public void testReplaceUrls_matchesReferencePatternOnRandomText() {
+    Random random = new Random(20180417);
+    for (int i = 0; i < 20000; i++) {
+      String input = randomText(random);
+      Assert.assertEquals(input, referenceReplaceUrls(input), MessageCleaner.replaceUrls(input));
+    }
+  }
+
+  @Test
+  public void testClean_matchesReferenceOnRandomText() {
+    Random random = new Random(20180418);
+    for (int i = 0; i < 20000; i++) {
+      String input = randomText(random);
+      Assert.assertEquals(input, referenceClean(input), MessageCleaner.clean(input));
+    }
+  }
+
+  @Test
+  public void testClean_fromManyThreads() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        long seed = t;
+        results.add(executor.submit(() -> {
+          Random random = new Random(seed);
+          for (int i = 0; i < 2000; i++) {
+            String input = randomText(random);
+            Assert.assertEquals(input, referenceClean(input), MessageCleaner.clean(input));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testReplaceUrls_longPath() {
+    String url = "http://a.b" + repeat("/a", 200000);
+
+    String result = assertFast(url);
+
+    Assert.assertEquals("<a href='" + url + "'>" + url + "</a>", result);
+  }
+
+  @Test
+  public void testReplaceUrls_longNameWithoutDot() {
+    assertFast(" www." + repeat("a-", 500000));
+  }
+
+  @Test
+  public void testReplaceUrls_manyPrefixesWithoutNames() {
+    assertFast(repeat(" http://a", 100000));
+    assertFast(repeat("-www", 250000));
+    assertFast(repeat("www.", 250000));
+  }
+
+  @Test
+  public void testReplaceUrls_manyDottedNames() {
+    assertFast("http://" + repeat("a.", 500000) + "!");
+    assertFast(repeat(" www.a.", 100000));
+  }
+
+  @Test
+  public void testClean_longUrlMessage() {
+    long start = System.nanoTime();
+
+    String result = MessageCleaner.clean("look at https://example.com" + repeat("/path", 50000));
+
+    Assert.assertTrue(result.startsWith("look at<a href=' https://example.com/path/path"));
+    Assert.assertTrue(elapsedMillis(start) < MAX_MILLIS);
+  }
+
+  private static String assertFast(String text) {
+    long start = System.nanoTime();
+    String result = MessageCleaner.replaceUrls(text);
+    long millis = elapsedMillis(start);
+    Assert.assertTrue(text.length() + " chars took " + millis + "ms", millis < MAX_MILLIS);
+    return result;
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1000000;
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder repeated = new StringBuilder(s.length() * times);
+    for (int i = 0; i < times; i++) {
+      repeated.append(s);
+    }
+    return repeated.toString();
+  }
+}
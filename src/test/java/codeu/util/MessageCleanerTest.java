@@ -0,0 +1,113 @@
+package codeu.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MessageCleanerTest {
+
+  @Test
+  public void testReplaceUrls_noUrls() {
+    Assert.assertEquals("no links here", MessageCleaner.replaceUrls("no links here"));
+  }
+
+  @Test
+  public void testReplaceUrls_wholeMessage() {
+    Assert.assertEquals(
+        "<a href='http://example.com'>http://example.com</a>",
+        MessageCleaner.replaceUrls("http://example.com"));
+  }
+
+  @Test
+  public void testReplaceUrls_keepsSurroundingText() {
+    Assert.assertEquals(
+        "see<a href=' http://example.com'> http://example.com</a> now",
+        MessageCleaner.replaceUrls("see http://example.com now"));
+  }
+
+  @Test
+  public void testReplaceUrls_wwwWithQuery() {
+    Assert.assertEquals(
+        "visit<a href=' www.google.com/search?q=a+b&x=1.'> www.google.com/search?q=a+b&x=1.</a>",
+        MessageCleaner.replaceUrls("visit www.google.com/search?q=a+b&x=1."));
+  }
+
+  @Test
+  public void testReplaceUrls_severalUrls() {
+    Assert.assertEquals(
+        "two:<a href=' https://a.org'> https://a.org</a> and"
+            + "<a href=' ftp://files.b.net/x/y.txt'> ftp://files.b.net/x/y.txt</a>",
+        MessageCleaner.replaceUrls("two: https://a.org and ftp://files.b.net/x/y.txt"));
+  }
+
+  @Test
+  public void testReplaceUrls_repeatedUrl() {
+    Assert.assertEquals(
+        "same<a href=' http://a.com'> http://a.com</a> then<a href=' http://a.com'> http://a.com</a>",
+        MessageCleaner.replaceUrls("same http://a.com then http://a.com"));
+  }
+
+  @Test
+  public void testReplaceUrls_linksTheMatchNotALaterCopy() {
+    Assert.assertEquals(
+        "<a href='http://a.com'>http://a.com</a> and xhttp://a.com",
+        MessageCleaner.replaceUrls("http://a.com and xhttp://a.com"));
+  }
+
+  @Test
+  public void testReplaceUrls_caseInsensitive() {
+    Assert.assertEquals(
+        "<a href='HTTPS://UP.COM'>HTTPS://UP.COM</a>", MessageCleaner.replaceUrls("HTTPS://UP.COM"));
+  }
+
+  @Test
+  public void testReplaceUrls_prefixWithoutHost() {
+    Assert.assertEquals("http://", MessageCleaner.replaceUrls("http://"));
+    Assert.assertEquals("www.", MessageCleaner.replaceUrls("www."));
+  }
+
+  @Test
+  public void testReplaceUrls_manyLinks() {
+    StringBuilder text = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append(" http://host").append(i).append(".com");
+      expected
+          .append("<a href=' http://host").append(i).append(".com'>")
+          .append(" http://host").append(i).append(".com</a>");
+    }
+
+    Assert.assertEquals(expected.toString(), MessageCleaner.replaceUrls(text.toString()));
+  }
+
+  @Test
+  public void testClean_plainText() {
+    String text = "just a plain message";
+
+    Assert.assertSame(text, MessageCleaner.clean(text));
+  }
+
+  @Test
+  public void testClean_plainTextIsEscaped() {
+    Assert.assertEquals("a &gt; b&nbsp;c", MessageCleaner.clean("a > b\u00a0c"));
+  }
+
+  @Test
+  public void testClean_removesDisallowedTags() {
+    Assert.assertEquals(
+        "<b>bold</b> and ", MessageCleaner.clean("<b>bold</b> and <script>alert(1)</script>"));
+  }
+
+  @Test
+  public void testClean_keepsColoredDivs() {
+    Assert.assertEquals(
+        "<div class=\"red\">warm</div>",
+        MessageCleaner.clean("<div class=\"red\" style=\"x\">warm</div>"));
+  }
+
+  @Test
+  public void testClean_linksUrlsInPlainText() {
+    Assert.assertEquals(
+        "go to<a href=' www.example.com'> www.example.com</a>",
+        MessageCleaner.clean("go to www.example.com"));
+  }
+}